@@ -50,6 +50,12 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected int mCameraIndex = CAMERA_ID_ANY;
     protected boolean mEnabled;
     protected FpsMeter mFpsMeter = null;
+    protected PipelineStats mPipelineStats = new PipelineStats();
+    protected FrameProfiler mFrameProfiler = new FrameProfiler();
+    protected volatile boolean mProfilerOverlay = false;
+    protected boolean mDirectBlit;
+    /* Holds the native window of the surface while it exists; null without direct blit */
+    private SurfaceBlitter mBlitter;
 
     public static final int CAMERA_ID_ANY   = -1;
     public static final int CAMERA_ID_BACK  = 99;
@@ -187,6 +193,12 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns the raw NV21 frame (Y plane followed by the interleaved VU plane)
+         * as a single channel Mat of height * 3 / 2 rows, or null if the camera does not expose it
+         */
+        public Mat yuv();
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -194,14 +206,17 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         synchronized(mSyncObject) {
             if (!mSurfaceExist) {
                 mSurfaceExist = true;
+                acquireBlitter();
                 checkCurrentState();
             } else {
                 /** Surface changed. We need to stop camera and restart with new parameters */
                 /* Pretend that old surface has been destroyed */
                 mSurfaceExist = false;
                 checkCurrentState();
+                releaseBlitter();
                 /* Now use new surface. Say we have it now */
                 mSurfaceExist = true;
+                acquireBlitter();
                 checkCurrentState();
             }
         }
@@ -215,6 +230,22 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         synchronized(mSyncObject) {
             mSurfaceExist = false;
             checkCurrentState();
+            /* The camera has stopped, so no frame is being drawn any more */
+            releaseBlitter();
+        }
+    }
+
+    /* Must be called with mSyncObject held and the camera stopped */
+    private void acquireBlitter() {
+        if (mDirectBlit && mBlitter == null)
+            mBlitter = SurfaceBlitter.acquire(getHolder().getSurface());
+    }
+
+    /* Must be called with mSyncObject held and the camera stopped */
+    private void releaseBlitter() {
+        if (mBlitter != null) {
+            mBlitter.release();
+            mBlitter = null;
         }
     }
 
@@ -254,6 +285,46 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mFpsMeter = null;
     }
 
+    /**
+     * Enables drawing RGBA frames by copying them straight into the surface buffer instead of
+     * converting them to a Bitmap and drawing that on a Canvas. The frame keeps the same size and
+     * position on screen: the surface buffer is sized so that the compositor applies mScale.
+     * Falls back to the Bitmap path for other frame types or when the native library is missing.
+     * The FPS meter is only logged, not drawn, for frames drawn this way.
+     * Takes effect the next time the surface is created or changed, so call it before the view
+     * is shown.
+     * @param directBlit - true to draw RGBA frames directly into the surface buffer
+     */
+    public void setDirectBlit(boolean directBlit) {
+        mDirectBlit = directBlit;
+    }
+
+    /**
+     * Returns the per stage frame counters and timings. They are updated live while frames are
+     * being delivered.
+     */
+    public PipelineStats getPipelineStats() {
+        return mPipelineStats;
+    }
+
+    /**
+     * Returns the per stage frame time histograms. Listeners can add their own stages to it.
+     */
+    public FrameProfiler getFrameProfiler() {
+        return mFrameProfiler;
+    }
+
+    /**
+     * This method enables drawing the frame profiler's p50/p99/max times on top of the frames
+     */
+    public void enableProfilerOverlay() {
+        mProfilerOverlay = true;
+    }
+
+    public void disableProfilerOverlay() {
+        mProfilerOverlay = false;
+    }
+
     /**
      *
      * @param listener
@@ -381,6 +452,18 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
      * @param frame - the current frame to be delivered
      */
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
+        drawFrame(deliverFrame(frame));
+    }
+
+    /**
+     * Delivers the frame to the external client (via callback) without displaying it.
+     * Subclasses that run delivery and drawing on separate threads call this and drawFrame()
+     * instead of deliverAndDrawFrame().
+     * @param frame - the current frame to be delivered
+     * @return the frame to be displayed, as returned by the client
+     */
+    protected Mat deliverFrame(CvCameraViewFrame frame) {
+        long start = System.nanoTime();
         Mat modified;
 
         if (mListener != null) {
@@ -389,6 +472,33 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             modified = frame.rgba();
         }
 
+        mPipelineStats.recordFrame(PipelineStats.STAGE_UPDATE, System.nanoTime() - start);
+        return modified;
+    }
+
+    /**
+     * Displays a frame returned by deliverFrame() on the screen.
+     * @param modified - the frame to be displayed, may be null
+     */
+    protected void drawFrame(Mat modified) {
+        long start = System.nanoTime();
+
+        if (mProfilerOverlay && modified != null)
+            mFrameProfiler.drawOverlay(modified);
+
+        if (mBlitter != null && modified != null && blitFrame(modified)) {
+            long end = System.nanoTime();
+            mFrameProfiler.record(FrameProfiler.STAGE_POST, end - start);
+            if (mFpsMeter != null)
+                mFpsMeter.measure();
+            mPipelineStats.recordFrame(PipelineStats.STAGE_RENDER, end - start);
+            return;
+        }
+
+        /* Blitting may have resized the surface buffers, which would shrink the Canvas */
+        if (mBlitter != null)
+            mBlitter.resetGeometry();
+
         boolean bmpValid = true;
         if (modified != null) {
             try {
@@ -400,6 +510,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                 bmpValid = false;
             }
         }
+        long converted = System.nanoTime();
+        mFrameProfiler.record(FrameProfiler.STAGE_MAT_TO_BITMAP, converted - start);
 
         if (bmpValid && mCacheBitmap != null) {
             Canvas canvas = getHolder().lockCanvas();
@@ -426,8 +538,29 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                     mFpsMeter.draw(canvas, 20, 30);
                 }
                 getHolder().unlockCanvasAndPost(canvas);
+                mFrameProfiler.record(FrameProfiler.STAGE_POST, System.nanoTime() - converted);
             }
         }
+
+        mPipelineStats.recordFrame(PipelineStats.STAGE_RENDER, System.nanoTime() - start);
+    }
+
+    /**
+     * Draws the frame directly into the surface buffer.
+     * With mScale set the buffer is the view size divided by mScale, so that scaling it to the
+     * view scales the frame by mScale, just like the Canvas path; otherwise the buffer has the
+     * size of the view and the frame is drawn unscaled.
+     * @return false if the frame has to be drawn through the Bitmap path instead
+     */
+    private boolean blitFrame(Mat modified) {
+        int bufferWidth = getWidth();
+        int bufferHeight = getHeight();
+        if (mScale != 0) {
+            bufferWidth = Math.round(bufferWidth / mScale);
+            bufferHeight = Math.round(bufferHeight / mScale);
+        }
+
+        return mBlitter.blit(modified, bufferWidth, bufferHeight);
     }
 
     /**
@@ -0,0 +1,171 @@
+package org.opencv.android;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+
+import android.util.Log;
+
+/**
+ * Distribution of the time each stage of frame processing takes, e.g. to see where the frame
+ * budget goes. Every stage keeps a StageHistogram, so recording is lock-free and p50/p99/max are
+ * available per stage.
+ * The camera view records its own stages (STAGE_YUV_TO_RGBA, STAGE_MAT_TO_BITMAP, STAGE_POST);
+ * listeners add theirs with addStage(), preferably before frames start arriving.
+ */
+public class FrameProfiler {
+    private static final String TAG = "FrameProfiler";
+
+    public static final int MAX_STAGES = 16;
+
+    public static final int STAGE_YUV_TO_RGBA   = 0;
+    public static final int STAGE_MAT_TO_BITMAP = 1;
+    public static final int STAGE_POST          = 2;
+
+    private static final int     OVERLAY_REFRESH_FRAMES = 30;
+    private static final int     OVERLAY_LINE_HEIGHT    = 24;
+    private static final Scalar  OVERLAY_COLOR          = new Scalar(255, 255, 0, 255);
+
+    private final String[] mNames = new String[MAX_STAGES];
+    private final StageHistogram[] mHistograms = new StageHistogram[MAX_STAGES];
+    private volatile int mStageCount;
+    private volatile boolean mEnabled = true;
+
+    private String[] mOverlayLines = new String[0];
+    private int mOverlayFrames;
+    private final Point mOverlayOrigin = new Point();
+
+    public FrameProfiler() {
+        addStage("yuv2rgba");
+        addStage("matToBitmap");
+        addStage("post");
+    }
+
+    /**
+     * Adds a stage, or finds the stage that already has this name.
+     * @return the index to record the stage's times with
+     */
+    public synchronized int addStage(String name) {
+        for (int stage = 0; stage < mStageCount; stage++) {
+            if (mNames[stage].equals(name))
+                return stage;
+        }
+        if (mStageCount == MAX_STAGES)
+            throw new IllegalStateException("Cannot add more than " + MAX_STAGES + " stages");
+
+        mNames[mStageCount] = name;
+        mHistograms[mStageCount] = new StageHistogram();
+        return mStageCount++;
+    }
+
+    public int getStageCount() {
+        return mStageCount;
+    }
+
+    public String getStageName(int stage) {
+        return mNames[stage];
+    }
+
+    public StageHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    /**
+     * Turns recording on or off while frames are being processed. A disabled profiler ignores
+     * record() and keeps the times it already has.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Records the time a stage spent on one frame, unless the profiler is disabled.
+     */
+    public void record(int stage, long nanos) {
+        if (!mEnabled)
+            return;
+
+        mHistograms[stage].record(nanos);
+    }
+
+    public void reset() {
+        int count = mStageCount;
+        for (int stage = 0; stage < count; stage++)
+            mHistograms[stage].reset();
+    }
+
+    /**
+     * Returns one line per stage with its frame count and p50, p99 and max times in milliseconds.
+     */
+    public String[] getSummaryLines() {
+        int count = mStageCount;
+        String[] lines = new String[count];
+        for (int stage = 0; stage < count; stage++) {
+            StageHistogram histogram = mHistograms[stage];
+            lines[stage] = String.format(Locale.US, "%-12s n=%d p50=%.2f p99=%.2f max=%.2f ms",
+                    mNames[stage], histogram.getCount(),
+                    histogram.getValueAtPercentile(50) / 1e6,
+                    histogram.getValueAtPercentile(99) / 1e6, histogram.getMax() / 1e6);
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the stages as tab separated values with a header line, times in milliseconds.
+     */
+    public void dump(Writer writer) throws IOException {
+        writer.write("stage\tcount\tp50_ms\tp99_ms\tmax_ms\n");
+        int count = mStageCount;
+        for (int stage = 0; stage < count; stage++) {
+            StageHistogram histogram = mHistograms[stage];
+            writer.write(String.format(Locale.US, "%s\t%d\t%.3f\t%.3f\t%.3f\n", mNames[stage],
+                    histogram.getCount(), histogram.getValueAtPercentile(50) / 1e6,
+                    histogram.getValueAtPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+    }
+
+    public void dumpToFile(File file) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+        Log.i(TAG, "Frame profile written to " + file);
+    }
+
+    /**
+     * Draws the summary lines into the top left corner of a frame. The text is refreshed every
+     * few frames so that it stays readable.
+     */
+    public void drawOverlay(Mat frame) {
+        if (mOverlayFrames++ % OVERLAY_REFRESH_FRAMES == 0)
+            mOverlayLines = getSummaryLines();
+
+        for (int line = 0; line < mOverlayLines.length; line++) {
+            mOverlayOrigin.x = 10;
+            mOverlayOrigin.y = OVERLAY_LINE_HEIGHT * (line + 1);
+            Core.putText(frame, mOverlayLines[line], mOverlayOrigin, Core.FONT_HERSHEY_PLAIN, 1.2,
+                    OVERLAY_COLOR, 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (String line : getSummaryLines())
+            builder.append(line).append('\n');
+        return builder.toString();
+    }
+}
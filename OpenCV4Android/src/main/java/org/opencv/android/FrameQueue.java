@@ -0,0 +1,81 @@
+package org.opencv.android;
+
+/**
+ * Bounded FIFO used to hand frames from one pipeline stage to the next.
+ * When the queue is full the producer either waits for room or, with drop-oldest enabled,
+ * evicts the oldest queued item and gets it back so it can be recycled.
+ * After close() all waiting calls return and take() returns null.
+ */
+class FrameQueue<T> {
+    private final Object[] mItems;
+    private int mHead;
+    private int mCount;
+    private boolean mClosed;
+
+    public FrameQueue(int capacity) {
+        mItems = new Object[capacity];
+    }
+
+    /**
+     * Appends an item to the queue.
+     * @param item - the item to append
+     * @param dropOldest - evict the oldest item instead of waiting when the queue is full
+     * @return the evicted item, or the given item itself if the queue was closed before it could
+     * be added, or null if nothing was evicted
+     */
+    public synchronized T put(T item, boolean dropOldest) throws InterruptedException {
+        T evicted = null;
+        if (mCount == mItems.length) {
+            if (dropOldest) {
+                evicted = removeHead();
+            } else {
+                while (mCount == mItems.length && !mClosed)
+                    wait();
+            }
+        }
+        if (mClosed)
+            return item;
+
+        mItems[(mHead + mCount) % mItems.length] = item;
+        mCount++;
+        notifyAll();
+        return evicted;
+    }
+
+    /**
+     * Removes the oldest item, waiting until one is available.
+     * @return the oldest item, or null if the queue was closed
+     */
+    public synchronized T take() throws InterruptedException {
+        while (mCount == 0 && !mClosed)
+            wait();
+        if (mClosed)
+            return null;
+        return removeHead();
+    }
+
+    /**
+     * Removes the oldest item without waiting.
+     * @return the oldest item, or null if the queue is empty
+     */
+    public synchronized T poll() {
+        if (mCount == 0)
+            return null;
+        return removeHead();
+    }
+
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T removeHead() {
+        T item = (T) mItems[mHead];
+        mItems[mHead] = null;
+        mHead = (mHead + 1) % mItems.length;
+        mCount--;
+        notifyAll();
+        return item;
+    }
+}
@@ -30,13 +30,36 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
-
-    private byte mBuffer[];
+    private static final int DEFAULT_CALLBACK_BUFFER_COUNT = 3;
+    private static final int DEFAULT_PIPELINE_QUEUE_CAPACITY = 1;
+
+    /* Frame drop policies of the pipelined mode, see setFrameDropPolicy() */
+    public static final int FRAME_DROP_OLDEST = 0;
+    public static final int FRAME_DROP_NONE = 1;
+
+    /* Callback buffers owned by the camera until they are handed to the worker via mPendingBuffer */
+    private byte mBuffers[][];
+    private int mCallbackBufferCount = DEFAULT_CALLBACK_BUFFER_COUNT;
+    /* Most recent filled buffer that the worker has not picked up yet; guarded by this */
+    private byte mPendingBuffer[];
+    private long mDroppedFrameCount;
     private Mat[] mFrameChain;
     private int mChainIdx = 0;
     private Thread mThread;
     private boolean mStopThread;
 
+    /* Pipelined mode: frames travel from the free pool through the update and render queues */
+    private boolean mPipelined;
+    /* Whether the current camera connection runs pipelined, fixed when the camera is initialized */
+    private boolean mRunPipelined;
+    private int mPipelineQueueCapacity = DEFAULT_PIPELINE_QUEUE_CAPACITY;
+    private int mFrameDropPolicy = FRAME_DROP_OLDEST;
+    private FrameQueue<JavaCameraFrame> mFreeFrames;
+    private FrameQueue<JavaCameraFrame> mUpdateQueue;
+    private FrameQueue<JavaCameraFrame> mRenderQueue;
+    private Thread mUpdateThread;
+    private Thread mRenderThread;
+
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
     private SurfaceTexture mSurfaceTexture;
@@ -62,6 +85,56 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * Sets how many preview buffers are queued to the camera. More buffers let the camera keep
+     * capturing while the worker is busy with a frame. Takes effect on the next camera connection.
+     * @param count - number of callback buffers, at least 2
+     */
+    public void setCallbackBufferCount(int count) {
+        mCallbackBufferCount = Math.max(2, count);
+    }
+
+    /**
+     * Enables running capture, frame delivery and drawing on three separate threads connected by
+     * bounded queues, so that a new frame can be captured and converted while the listener
+     * processes the previous one and the one before is drawn. In this mode onCameraFrame() is
+     * called on the update thread, and the Mat it returns must stay untouched until the next
+     * onCameraFrame() call unless it is the frame's own rgba() Mat.
+     * Takes effect on the next camera connection.
+     * @param pipelined - true to use separate threads, false to process frames sequentially
+     */
+    public void setPipelined(boolean pipelined) {
+        mPipelined = pipelined;
+    }
+
+    /**
+     * Sets how many frames may wait between two pipeline stages. Takes effect on the next camera
+     * connection.
+     * @param capacity - number of frames per queue, at least 1
+     */
+    public void setPipelineQueueCapacity(int capacity) {
+        mPipelineQueueCapacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Sets what happens in pipelined mode when a stage is busy and its queue is full.
+     * FRAME_DROP_OLDEST discards the oldest waiting frame so the newest one is always processed;
+     * FRAME_DROP_NONE makes the previous stage wait, and the camera itself drops frames instead.
+     * Takes effect on the next camera connection.
+     * @param policy - FRAME_DROP_OLDEST or FRAME_DROP_NONE
+     */
+    public void setFrameDropPolicy(int policy) {
+        mFrameDropPolicy = policy;
+    }
+
+    /**
+     * Returns the number of preview frames that were discarded because the worker thread was still
+     * busy with an earlier frame when a newer one arrived.
+     */
+    public synchronized long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -172,20 +245,40 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
-
-                    mCamera.addCallbackBuffer(mBuffer);
+                    mBuffers = new byte[mCallbackBufferCount][];
+                    for (int i = 0; i < mCallbackBufferCount; i++) {
+                        mBuffers[i] = new byte[size];
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                    }
+                    mPendingBuffer = null;
+                    mDroppedFrameCount = 0;
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    /* In pipelined mode every stage and every queue slot can hold a frame at the same time */
+                    mRunPipelined = mPipelined;
+                    int frameCount = 2;
+                    if (mRunPipelined)
+                        frameCount = 3 + 2 * mPipelineQueueCapacity;
+
+                    mFrameChain = new Mat[frameCount];
+                    for (int i = 0; i < frameCount; i++)
+                        mFrameChain[i] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
 
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mCameraFrame = new JavaCameraFrame[frameCount];
+                    for (int i = 0; i < frameCount; i++)
+                        mCameraFrame[i] = new JavaCameraFrame(mFrameChain[i], mFrameWidth, mFrameHeight);
+                    mChainIdx = 0;
+
+                    if (mRunPipelined) {
+                        mFreeFrames = new FrameQueue<JavaCameraFrame>(frameCount);
+                        for (int i = 0; i < frameCount; i++)
+                            mFreeFrames.put(mCameraFrame[i], false);
+                        mUpdateQueue = new FrameQueue<JavaCameraFrame>(mPipelineQueueCapacity);
+                        mRenderQueue = new FrameQueue<JavaCameraFrame>(mPipelineQueueCapacity);
+                    }
+                    mPipelineStats.reset();
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -217,14 +310,19 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
+            mPendingBuffer = null;
+            mBuffers = null;
             if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+                for (int i = 0; i < mFrameChain.length; i++)
+                    mFrameChain[i].release();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (int i = 0; i < mCameraFrame.length; i++)
+                    mCameraFrame[i].release();
             }
+            mFreeFrames = null;
+            mUpdateQueue = null;
+            mRenderQueue = null;
         }
     }
 
@@ -245,6 +343,13 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         mThread = new Thread(new CameraWorker());
         mThread.start();
 
+        if (mRunPipelined) {
+            mUpdateThread = new Thread(new UpdateWorker());
+            mUpdateThread.start();
+            mRenderThread = new Thread(new RenderWorker());
+            mRenderThread.start();
+        }
+
         return true;
     }
 
@@ -259,27 +364,46 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             synchronized (this) {
                 this.notify();
             }
+            if (mRunPipelined && mFreeFrames != null) {
+                mFreeFrames.close();
+                mUpdateQueue.close();
+                mRenderQueue.close();
+            }
             Log.d(TAG, "Wating for thread");
             if (mThread != null)
                 mThread.join();
+            if (mUpdateThread != null)
+                mUpdateThread.join();
+            if (mRenderThread != null)
+                mRenderThread.join();
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
             mThread =  null;
+            mUpdateThread = null;
+            mRenderThread = null;
         }
 
         /* Now release camera */
         releaseCamera();
     }
 
+    /**
+     * Runs on the camera thread. The filled buffer is only handed over to the worker here; the
+     * copy into the frame Mat happens on the worker so the camera thread never waits on JNI.
+     * If the worker has not picked up the previous buffer yet, that older frame is dropped and
+     * its buffer goes straight back to the camera.
+     */
     public void onPreviewFrame(byte[] frame, Camera arg1) {
-        Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
         synchronized (this) {
-            mFrameChain[1 - mChainIdx].put(0, 0, frame);
+            if (mPendingBuffer != null) {
+                mDroppedFrameCount++;
+                if (mCamera != null)
+                    mCamera.addCallbackBuffer(mPendingBuffer);
+            }
+            mPendingBuffer = frame;
             this.notify();
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
     }
 
     private class JavaCameraFrame implements CvCameraViewFrame {
@@ -288,24 +412,59 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         }
 
         public Mat rgba() {
-            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            if (!mRgbaConverted)
+                convertToRgba();
             return mRgba;
         }
 
+        public Mat yuv() {
+            return mYuvFrameData;
+        }
+
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
             mRgba = new Mat();
+            mOutputCopy = new Mat();
+        }
+
+        /* Fills the frame from a preview buffer and converts it to RGBA right away (pipelined mode) */
+        public void capture(byte[] buffer) {
+            mYuvFrameData.put(0, 0, buffer);
+            convertToRgba();
+            mRgbaConverted = true;
+        }
+
+        private void convertToRgba() {
+            long start = System.nanoTime();
+            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            mFrameProfiler.record(FrameProfiler.STAGE_YUV_TO_RGBA, System.nanoTime() - start);
+        }
+
+        /* Keeps the listener's result for the render stage. Mats that do not belong to this frame
+         * are copied, since the listener may reuse them for the next frame while this one is drawn */
+        public void setOutput(Mat modified) {
+            if (modified == null || modified == mRgba) {
+                mOutput = modified;
+            } else {
+                modified.copyTo(mOutputCopy);
+                mOutput = mOutputCopy;
+            }
         }
 
         public void release() {
             mRgba.release();
+            mOutputCopy.release();
         }
 
         private Mat mYuvFrameData;
         private Mat mRgba;
+        private boolean mRgbaConverted;
+        private Mat mOutput;
+        private Mat mOutputCopy;
+        private long mCaptureTime;
         private int mWidth;
         private int mHeight;
     };
@@ -314,22 +473,119 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         public void run() {
             do {
+                byte[] buffer = null;
                 synchronized (JavaCameraView.this) {
                     try {
-                        JavaCameraView.this.wait();
+                        while (mPendingBuffer == null && !mStopThread)
+                            JavaCameraView.this.wait();
                     } catch (InterruptedException e) {
                         // TODO Auto-generated catch block
                         e.printStackTrace();
                     }
+                    buffer = mPendingBuffer;
+                    mPendingBuffer = null;
                 }
 
-                if (!mStopThread) {
-                    if (!mFrameChain[mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[mChainIdx]);
+                if (!mStopThread && buffer != null) {
+                    if (mRunPipelined) {
+                        captureFrame(buffer);
+                        continue;
+                    }
+
+                    long start = System.nanoTime();
+                    mFrameChain[mChainIdx].put(0, 0, buffer);
+                    /* The Mat now holds its own copy, so the camera may refill the buffer */
+                    recycleBuffer(buffer);
+                    mPipelineStats.recordFrame(PipelineStats.STAGE_CAPTURE, System.nanoTime() - start);
+
+                    deliverAndDrawFrame(mCameraFrame[mChainIdx]);
+                    mPipelineStats.recordLatency(System.nanoTime() - start);
                     mChainIdx = 1 - mChainIdx;
                 }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
         }
+
+        /* Capture stage of the pipelined mode: copy and convert the buffer into a free frame */
+        private void captureFrame(byte[] buffer) {
+            boolean dropOldest = mFrameDropPolicy == FRAME_DROP_OLDEST;
+            try {
+                JavaCameraFrame frame = mFreeFrames.poll();
+                if (frame == null && dropOldest) {
+                    /* Take back the oldest frame that is still waiting for the listener */
+                    frame = mUpdateQueue.poll();
+                    if (frame != null)
+                        mPipelineStats.recordDrop(PipelineStats.STAGE_UPDATE);
+                }
+                if (frame == null)
+                    frame = mFreeFrames.take();
+                if (frame == null) {
+                    recycleBuffer(buffer);
+                    return;
+                }
+
+                long start = System.nanoTime();
+                frame.mCaptureTime = start;
+                frame.capture(buffer);
+                recycleBuffer(buffer);
+                mPipelineStats.recordFrame(PipelineStats.STAGE_CAPTURE, System.nanoTime() - start);
+
+                JavaCameraFrame evicted = mUpdateQueue.put(frame, dropOldest);
+                if (evicted != null && evicted != frame) {
+                    mPipelineStats.recordDrop(PipelineStats.STAGE_UPDATE);
+                    mFreeFrames.put(evicted, false);
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void recycleBuffer(byte[] buffer) {
+            synchronized (JavaCameraView.this) {
+                if (mCamera != null)
+                    mCamera.addCallbackBuffer(buffer);
+            }
+        }
+    }
+
+    /* Update stage of the pipelined mode: hands frames to the listener */
+    private class UpdateWorker implements Runnable {
+
+        public void run() {
+            boolean dropOldest = mFrameDropPolicy == FRAME_DROP_OLDEST;
+            try {
+                JavaCameraFrame frame;
+                while ((frame = mUpdateQueue.take()) != null) {
+                    frame.setOutput(deliverFrame(frame));
+
+                    JavaCameraFrame evicted = mRenderQueue.put(frame, dropOldest);
+                    if (evicted != null && evicted != frame) {
+                        mPipelineStats.recordDrop(PipelineStats.STAGE_RENDER);
+                        mFreeFrames.put(evicted, false);
+                    }
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            Log.d(TAG, "Finish update thread");
+        }
+    }
+
+    /* Render stage of the pipelined mode: draws frames and returns them to the free pool */
+    private class RenderWorker implements Runnable {
+
+        public void run() {
+            try {
+                JavaCameraFrame frame;
+                while ((frame = mRenderQueue.take()) != null) {
+                    drawFrame(frame.mOutput);
+                    mPipelineStats.recordLatency(System.nanoTime() - frame.mCaptureTime);
+                    mFreeFrames.put(frame, false);
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            Log.d(TAG, "Finish render thread");
+        }
     }
 }
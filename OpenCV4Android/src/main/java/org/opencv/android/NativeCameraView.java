@@ -149,6 +149,12 @@ public class NativeCameraView extends CameraBridgeViewBase {
             return mGray;
         }
 
+        @Override
+        public Mat yuv() {
+            /* Native capture only retrieves converted frames */
+            return null;
+        }
+
         public NativeCameraFrame(VideoCapture capture) {
             mCapture = capture;
             mGray = new Mat();
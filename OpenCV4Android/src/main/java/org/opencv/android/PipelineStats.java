@@ -0,0 +1,124 @@
+package org.opencv.android;
+
+/**
+ * Frame counters and timings of the camera frame pipeline, per stage:
+ * capture (copying the preview buffer and converting it), update (the listener's onCameraFrame)
+ * and render (converting the result to the bitmap and drawing it on the surface).
+ * All methods are thread safe; the stages record into it from their own threads.
+ */
+public class PipelineStats {
+    public static final int STAGE_CAPTURE = 0;
+    public static final int STAGE_UPDATE  = 1;
+    public static final int STAGE_RENDER  = 2;
+    public static final int STAGE_COUNT   = 3;
+
+    private static final String[] STAGE_NAMES = { "capture", "update", "render" };
+
+    private final long[] mFrameCount = new long[STAGE_COUNT];
+    private final long[] mDropCount = new long[STAGE_COUNT];
+    private final long[] mTotalTime = new long[STAGE_COUNT];
+    private long mLatencyCount;
+    private long mTotalLatency;
+    private long mMaxLatency;
+    private long mStartTime = System.nanoTime();
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Records that a stage finished a frame.
+     * @param stage - one of the STAGE_* constants
+     * @param nanos - time the stage spent on the frame
+     */
+    public synchronized void recordFrame(int stage, long nanos) {
+        mFrameCount[stage]++;
+        mTotalTime[stage] += nanos;
+    }
+
+    /**
+     * Records that a frame was dropped before it could enter a stage.
+     */
+    public synchronized void recordDrop(int stage) {
+        mDropCount[stage]++;
+    }
+
+    /**
+     * Records the time from the start of capture to the end of render of a displayed frame.
+     */
+    public synchronized void recordLatency(long nanos) {
+        mLatencyCount++;
+        mTotalLatency += nanos;
+        if (nanos > mMaxLatency)
+            mMaxLatency = nanos;
+    }
+
+    public synchronized void reset() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            mFrameCount[stage] = 0;
+            mDropCount[stage] = 0;
+            mTotalTime[stage] = 0;
+        }
+        mLatencyCount = 0;
+        mTotalLatency = 0;
+        mMaxLatency = 0;
+        mStartTime = System.nanoTime();
+    }
+
+    public synchronized long getFrameCount(int stage) {
+        return mFrameCount[stage];
+    }
+
+    public synchronized long getDropCount(int stage) {
+        return mDropCount[stage];
+    }
+
+    /**
+     * Returns the average time in milliseconds the stage spent per frame.
+     */
+    public synchronized double getAverageStageTime(int stage) {
+        if (mFrameCount[stage] == 0)
+            return 0;
+        return mTotalTime[stage] / 1e6 / mFrameCount[stage];
+    }
+
+    /**
+     * Returns the number of frames per second the stage finished since the last reset.
+     */
+    public synchronized double getThroughput(int stage) {
+        long elapsed = System.nanoTime() - mStartTime;
+        if (elapsed <= 0)
+            return 0;
+        return mFrameCount[stage] * 1e9 / elapsed;
+    }
+
+    /**
+     * Returns the average capture-to-screen latency in milliseconds.
+     */
+    public synchronized double getAverageLatency() {
+        if (mLatencyCount == 0)
+            return 0;
+        return mTotalLatency / 1e6 / mLatencyCount;
+    }
+
+    /**
+     * Returns the largest capture-to-screen latency in milliseconds.
+     */
+    public synchronized double getMaxLatency() {
+        return mMaxLatency / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            builder.append(STAGE_NAMES[stage])
+                   .append(": ").append(String.format("%.1f", getThroughput(stage))).append(" fps, ")
+                   .append(String.format("%.2f", getAverageStageTime(stage))).append(" ms, ")
+                   .append(mDropCount[stage]).append(" dropped; ");
+        }
+        builder.append("latency: ").append(String.format("%.2f", getAverageLatency()))
+               .append(" ms avg, ").append(String.format("%.2f", getMaxLatency())).append(" ms max");
+        return builder.toString();
+    }
+}
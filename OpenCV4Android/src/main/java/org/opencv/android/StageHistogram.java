@@ -0,0 +1,99 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds with bounded relative error, in the style of
+ * HdrHistogram. Values below 128 ns get a bucket each; above that, each power of two is split
+ * into 64 buckets, so a value is reported with an error of less than 1.6%. Values of more than
+ * about half an hour all land in the last bucket.
+ * Any number of threads may record at the same time without blocking each other.
+ */
+public class StageHistogram {
+    private static final int SUB_BUCKET_BITS  = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_COUNT       = SUB_BUCKET_COUNT / 2;
+    private static final int MAX_SHIFT        = 34;
+    private static final int BUCKET_COUNT     = SUB_BUCKET_COUNT + MAX_SHIFT * HALF_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        mCounts.incrementAndGet(bucketIndex(nanos));
+        mTotalCount.incrementAndGet();
+
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos))
+            max = mMax.get();
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    /**
+     * Returns the largest recorded value in nanoseconds.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the value in nanoseconds that the given percentage of the recorded values are
+     * smaller than or equal to, within the precision of the histogram, or 0 if nothing was
+     * recorded.
+     * @param percentile - between 0 and 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = mTotalCount.get();
+        if (total == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            seen += mCounts.get(index);
+            if (seen >= target)
+                return Math.min(highestValueInBucket(index), mMax.get());
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Forgets all recorded values. Values recorded while the reset is in progress may be lost.
+     */
+    public void reset() {
+        for (int index = 0; index < BUCKET_COUNT; index++)
+            mCounts.set(index, 0);
+        mTotalCount.set(0);
+        mMax.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT)
+            return BUCKET_COUNT - 1;
+
+        int top = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_COUNT + (top - HALF_COUNT);
+    }
+
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / HALF_COUNT + 1;
+        long top = offset % HALF_COUNT + HALF_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}
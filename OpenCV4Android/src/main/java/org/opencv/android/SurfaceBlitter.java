@@ -0,0 +1,120 @@
+package org.opencv.android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import android.util.Log;
+import android.view.Surface;
+
+/**
+ * Copies RGBA frames straight into the buffers of a Surface through ANativeWindow,
+ * without going through a Bitmap and Canvas.drawBitmap.
+ * A blitter holds on to the native window of one surface from acquire() until release(), and
+ * must only be used while that surface exists.
+ * The native part lives in the OpenCVLibrary-2.4.9 module of this library. If it cannot be
+ * loaded (e.g. on devices older than API level 9) isAvailable() returns false and callers
+ * should keep using the Bitmap path.
+ * This path has not been measured against the Bitmap path on a device yet, so it is off unless
+ * a view enables it with setDirectBlit(). Record the render stage times of both paths here once
+ * it has been.
+ */
+class SurfaceBlitter {
+    private static final String TAG = "OpenCV/SurfaceBlitter";
+    private static final String LIBRARY_NAME = "OpenCVLibrary-2.4.9";
+
+    private static boolean sAvailable;
+
+    static {
+        try {
+            System.loadLibrary(LIBRARY_NAME);
+            sAvailable = true;
+        } catch (UnsatisfiedLinkError e) {
+            Log.w(TAG, "Cannot load library \"" + LIBRARY_NAME + "\", direct blitting is disabled");
+        }
+    }
+
+    private long mWindow;
+    private int mBufferWidth;
+    private int mBufferHeight;
+
+    public static boolean isAvailable() {
+        return sAvailable;
+    }
+
+    /**
+     * Takes a reference to the native window of the surface. It is kept until release() is called,
+     * so that frames do not have to look it up again.
+     * @param surface - the surface to draw to
+     * @return null if the native library is missing or the surface has no native window
+     */
+    public static SurfaceBlitter acquire(Surface surface) {
+        if (!sAvailable)
+            return null;
+
+        long window = nAcquire(surface);
+        if (window == 0)
+            return null;
+
+        SurfaceBlitter blitter = new SurfaceBlitter();
+        blitter.mWindow = window;
+        return blitter;
+    }
+
+    /**
+     * Posts a frame to the surface. The surface buffers are resized to bufferWidth x bufferHeight
+     * and the compositor scales them to the size of the surface, so choosing the buffer size
+     * chooses the scale. The buffers are only resized when the size changes.
+     * The frame is centered in the buffer with black borders around it.
+     * @param rgba - a CV_8UC4 frame
+     * @param bufferWidth - width of the surface buffer in pixels
+     * @param bufferHeight - height of the surface buffer in pixels
+     * @return false if the frame could not be drawn this way, e.g. because it is not RGBA
+     */
+    public boolean blit(Mat rgba, int bufferWidth, int bufferHeight) {
+        if (mWindow == 0 || rgba.type() != CvType.CV_8UC4 || bufferWidth <= 0 || bufferHeight <= 0)
+            return false;
+
+        if (bufferWidth != mBufferWidth || bufferHeight != mBufferHeight) {
+            if (!nSetBuffersGeometry(mWindow, bufferWidth, bufferHeight)) {
+                resetGeometry();
+                return false;
+            }
+            mBufferWidth = bufferWidth;
+            mBufferHeight = bufferHeight;
+        }
+
+        return nBlit(mWindow, rgba.dataAddr(), rgba.cols(), rgba.rows(), rgba.step1() * rgba.elemSize1());
+    }
+
+    /**
+     * Restores the default buffer size and format of the surface, so that lockCanvas() returns
+     * a Canvas the size of the surface again after frames have been blitted at another size.
+     */
+    public void resetGeometry() {
+        if (mWindow == 0 || (mBufferWidth == 0 && mBufferHeight == 0))
+            return;
+
+        nSetBuffersGeometry(mWindow, 0, 0);
+        mBufferWidth = 0;
+        mBufferHeight = 0;
+    }
+
+    /**
+     * Drops the reference to the native window. The blitter cannot be used afterwards.
+     */
+    public void release() {
+        if (mWindow == 0)
+            return;
+
+        nRelease(mWindow);
+        mWindow = 0;
+    }
+
+    private static native long nAcquire(Surface surface);
+
+    private static native void nRelease(long window);
+
+    private static native boolean nSetBuffersGeometry(long window, int bufferWidth, int bufferHeight);
+
+    private static native boolean nBlit(long window, long dataAddr, int cols, int rows, long step);
+}
@@ -4,5 +4,6 @@ include $(CLEAR_VARS)
 
 LOCAL_MODULE    := OpenCVLibrary-2.4.9
 LOCAL_SRC_FILES := OpenCVLibrary-2.4.9.cpp
+LOCAL_LDLIBS    := -landroid
 
 include $(BUILD_SHARED_LIBRARY)
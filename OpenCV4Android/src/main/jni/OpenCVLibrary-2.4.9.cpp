@@ -1 +1,87 @@
 #include <jni.h>
+#include <string.h>
+#include <stdint.h>
+#include <android/native_window.h>
+#include <android/native_window_jni.h>
+
+extern "C" {
+
+/*
+ * Returns the native window of the given Surface, or 0 if it has none.
+ * The caller owns the reference and must pass it to nRelease.
+ */
+JNIEXPORT jlong JNICALL Java_org_opencv_android_SurfaceBlitter_nAcquire(JNIEnv* env, jclass,
+        jobject surface)
+{
+    return (jlong) (intptr_t) ANativeWindow_fromSurface(env, surface);
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_android_SurfaceBlitter_nRelease(JNIEnv*, jclass,
+        jlong windowAddr)
+{
+    ANativeWindow_release((ANativeWindow*) (intptr_t) windowAddr);
+}
+
+/*
+ * Sizes the window buffers to bufferWidth x bufferHeight RGBX pixels; the compositor scales them
+ * to the size of the surface. The buffers are RGBX: frames are opaque, and alpha values left by
+ * drawing with three component colors must not make the overlay see-through.
+ * Passing 0 for both sizes restores the default size and format of the window, which is what
+ * Canvas drawing through the SurfaceHolder expects.
+ */
+JNIEXPORT jboolean JNICALL Java_org_opencv_android_SurfaceBlitter_nSetBuffersGeometry(JNIEnv*, jclass,
+        jlong windowAddr, jint bufferWidth, jint bufferHeight)
+{
+    ANativeWindow* window = (ANativeWindow*) (intptr_t) windowAddr;
+    int format = bufferWidth == 0 && bufferHeight == 0 ? 0 : WINDOW_FORMAT_RGBX_8888;
+    return ANativeWindow_setBuffersGeometry(window, bufferWidth, bufferHeight, format) == 0
+            ? JNI_TRUE : JNI_FALSE;
+}
+
+/*
+ * Copies an RGBA frame into the next buffer of the given window and posts it.
+ * The frame is centered in the buffer and the rest is cleared to black, so letterboxing only
+ * depends on the buffer size set by nSetBuffersGeometry.
+ */
+JNIEXPORT jboolean JNICALL Java_org_opencv_android_SurfaceBlitter_nBlit(JNIEnv*, jclass,
+        jlong windowAddr, jlong dataAddr, jint cols, jint rows, jlong step)
+{
+    ANativeWindow* window = (ANativeWindow*) (intptr_t) windowAddr;
+
+    ANativeWindow_Buffer buffer;
+    if (ANativeWindow_lock(window, &buffer, NULL) != 0)
+        return JNI_FALSE;
+
+    /* Place the frame in the middle of the buffer and clip whatever does not fit */
+    int left = (buffer.width - cols) / 2;
+    int top = (buffer.height - rows) / 2;
+    int srcX = left < 0 ? -left : 0;
+    int dstX = left < 0 ? 0 : left;
+    int copyWidth = cols - srcX;
+    if (copyWidth > buffer.width - dstX)
+        copyWidth = buffer.width - dstX;
+    if (copyWidth < 0)
+        copyWidth = 0;
+
+    const uint8_t* src = (const uint8_t*) (intptr_t) dataAddr;
+    uint8_t* dst = (uint8_t*) buffer.bits;
+    size_t dstStride = (size_t) buffer.stride * 4;
+
+    for (int y = 0; y < buffer.height; y++) {
+        uint8_t* dstRow = dst + y * dstStride;
+        int srcY = y - top;
+        if (srcY < 0 || srcY >= rows || copyWidth == 0) {
+            memset(dstRow, 0, buffer.width * 4);
+            continue;
+        }
+
+        memset(dstRow, 0, dstX * 4);
+        memcpy(dstRow + dstX * 4, src + srcY * step + srcX * 4, copyWidth * 4);
+        memset(dstRow + (dstX + copyWidth) * 4, 0, (buffer.width - dstX - copyWidth) * 4);
+    }
+
+    ANativeWindow_unlockAndPost(window);
+    return JNI_TRUE;
+}
+
+}
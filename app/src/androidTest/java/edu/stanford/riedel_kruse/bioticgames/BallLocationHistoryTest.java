@@ -0,0 +1,157 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import org.opencv.core.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.riedel_kruse.bioticgamessdk.MathUtil;
+
+/**
+ * Checks BallLocationHistory's averages against MathUtil's and across the evicted end of the
+ * buffer, and pins the two ways SoccerGame's direction and speed differ from the list it used to
+ * keep.
+ */
+public class BallLocationHistoryTest extends TestCase {
+    private static final double EPSILON = 1e-12;
+
+    public void testMatchesMathUtilOnAShortTrack() {
+        BallLocationHistory history = new BallLocationHistory(20);
+        List<Point> locations = new ArrayList<Point>();
+        double[][] track = {{0, 0}, {3, 0}, {3, 4}, {9, 4}};
+        for (double[] location : track) {
+            history.add(location[0], location[1]);
+            locations.add(new Point(location[0], location[1]));
+        }
+
+        // The displacements add up to (9, 4), spread over four locations.
+        assertEquals(2.25, history.getAverageVelocityX(20), EPSILON);
+        assertEquals(1.0, history.getAverageVelocityY(20), EPSILON);
+        Point velocity = MathUtil.computeAverageVelocity(locations);
+        assertEquals(velocity.x, history.getAverageVelocityX(20), EPSILON);
+        assertEquals(velocity.y, history.getAverageVelocityY(20), EPSILON);
+        assertEquals(MathUtil.computeAverageSpeed(locations),
+                SoccerGame.SPEED_SCALE * history.getAverageSpeed(20), EPSILON);
+    }
+
+    public void testFewerThanTwoLocationsHaveNoVelocity() {
+        BallLocationHistory history = new BallLocationHistory(20);
+        assertEquals(0.0, history.getAverageVelocityX(20), 0);
+        history.add(100, 50);
+        assertEquals(0.0, history.getAverageVelocityX(20), 0);
+        assertEquals(0.0, history.getAverageSpeed(20), 0);
+    }
+
+    public void testWindowsAfterEvictionOnlyCoverTheKeptLocations() {
+        // x goes 0, 1, 4, ..., 49. A history of five keeps 9, 16, 25, 36 and 49.
+        BallLocationHistory history = new BallLocationHistory(5);
+        for (int i = 0; i < 8; i++) {
+            history.add(i * i, 0);
+        }
+
+        assertEquals(5, history.size());
+        assertEquals((49 - 9) / 5.0, history.getAverageVelocityX(5), EPSILON);
+        assertEquals((49 - 36) / 2.0, history.getAverageVelocityX(2), EPSILON);
+        // A window larger than the history covers what is left of it.
+        assertEquals((49 - 9) / 5.0, history.getAverageVelocityX(20), EPSILON);
+    }
+
+    public void testClearStartsAnEmptyHistory() {
+        BallLocationHistory history = new BallLocationHistory(20);
+        for (int i = 0; i < 30; i++) {
+            history.add(i, 2 * i);
+        }
+
+        history.clear();
+        assertEquals(0, history.size());
+        history.add(100, 100);
+        assertEquals(0.0, history.getAverageSpeed(20), 0);
+        history.add(110, 100);
+        assertEquals(5.0, history.getAverageVelocityX(20), EPSILON);
+    }
+
+    /**
+     * The speed readout averages over PREVIOUS_LOCATIONS_TO_TRACK_SPEED locations. The list
+     * SoccerGame used to keep was trimmed to PREVIOUS_LOCATIONS_TO_TRACK by the direction update
+     * first, so its speed only ever covered that many.
+     */
+    public void testGameSpeedAveragesOverTheSpeedWindow() {
+        SoccerGame game = new SoccerGame(1280, 720, null);
+        List<Point> locations = new ArrayList<Point>();
+        Point location = new Point(100, 360);
+
+        // The ball speeds up, so averages over the two windows differ by far more than rounding.
+        for (int frame = 0; frame < 60; frame++) {
+            location.x += frame / 10.0;
+            game.updateBallLocation(location, 1);
+            locations.add(location.clone());
+
+            List<Point> speedWindow = recent(locations,
+                    SoccerGame.PREVIOUS_LOCATIONS_TO_TRACK_SPEED);
+            assertEquals(SoccerGame.roundDown2(MathUtil.computeAverageSpeed(speedWindow)),
+                    game.getSpeed(), 0.01 + EPSILON);
+        }
+
+        double directionWindowSpeed = MathUtil.computeAverageSpeed(
+                recent(locations, SoccerGame.PREVIOUS_LOCATIONS_TO_TRACK));
+        assertTrue(Math.abs(directionWindowSpeed - game.getSpeed()) > 1);
+    }
+
+    /**
+     * The passing direction is the average velocity over PREVIOUS_LOCATIONS_TO_TRACK locations,
+     * normalized. Once the ball has held still for the whole window that average is zero, and the
+     * direction keeps its last value where MathUtil's would become NaN.
+     */
+    public void testGameDirectionKeepsItsValueWhenTheBallHoldsStill() {
+        SoccerGame game = new SoccerGame(1280, 720, null);
+        List<Point> locations = new ArrayList<Point>();
+        Point location = new Point();
+        Point direction = new Point();
+
+        // The ball circles, so its direction keeps changing.
+        for (int frame = 0; frame < 40; frame++) {
+            location.x = 640 + 50 * Math.cos(frame / 5.0);
+            location.y = 360 + 50 * Math.sin(frame / 5.0);
+            game.updateBallLocation(location, 1);
+            locations.add(location.clone());
+            game.getPassingDirection(direction);
+
+            // A single location has no direction yet either.
+            if (frame == 0) {
+                assertEquals(0.0, direction.x, 0);
+                assertEquals(0.0, direction.y, 0);
+                continue;
+            }
+
+            Point expected = MathUtil.computeAverageDirection(
+                    recent(locations, SoccerGame.PREVIOUS_LOCATIONS_TO_TRACK));
+            assertEquals(expected.x, direction.x, EPSILON);
+            assertEquals(expected.y, direction.y, EPSILON);
+        }
+
+        // Let the ball drift straight right, then hold still.
+        for (int frame = 0; frame < 5; frame++) {
+            location.x += 3;
+            game.updateBallLocation(location, 1);
+            locations.add(location.clone());
+        }
+        for (int frame = 0; frame < 2 * SoccerGame.PREVIOUS_LOCATIONS_TO_TRACK; frame++) {
+            game.updateBallLocation(location, 1);
+            locations.add(location.clone());
+        }
+
+        Point stillDirection = MathUtil.computeAverageDirection(
+                recent(locations, SoccerGame.PREVIOUS_LOCATIONS_TO_TRACK));
+        assertTrue(Double.isNaN(stillDirection.x));
+        game.getPassingDirection(direction);
+        assertEquals(1.0, direction.x, EPSILON);
+        assertEquals(0.0, direction.y, EPSILON);
+        assertEquals(0.0, game.getSpeed(), 0);
+    }
+
+    private static List<Point> recent(List<Point> locations, int window) {
+        return locations.subList(Math.max(locations.size() - window, 0), locations.size());
+    }
+}
@@ -0,0 +1,104 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import org.opencv.core.Point;
+
+/**
+ * Checks that BallStateEstimator locks on to a Euglena swimming at a constant velocity, grows its
+ * uncertainty while it coasts, and that SoccerGame starts a new estimate when the ball changes
+ * hands.
+ */
+public class BallStateEstimatorTest extends TestCase {
+    private static final double VELOCITY_X = 3;
+    private static final double VELOCITY_Y = -2;
+
+    public void testConvergesOnConstantVelocity() {
+        BallStateEstimator estimator = new BallStateEstimator();
+        assertFalse(estimator.isInitialized());
+
+        estimator.update(100, 200);
+        double initialError = estimator.getPredictionError();
+        double previousError = initialError;
+        for (int frame = 1; frame < 100; frame++) {
+            estimator.update(100 + VELOCITY_X * frame, 200 + VELOCITY_Y * frame);
+            // Every measurement makes the estimate more certain, until the error settles where the
+            // process and measurement noise balance out and only rounding moves it.
+            assertTrue(estimator.getPredictionError() <= previousError + 1e-12);
+            previousError = estimator.getPredictionError();
+        }
+        assertTrue(previousError < initialError / 2);
+
+        assertEquals(VELOCITY_X, estimator.getVelocityX(), 1e-3);
+        assertEquals(VELOCITY_Y, estimator.getVelocityY(), 1e-3);
+        assertEquals(100 + VELOCITY_X * 99, estimator.getX(), 1e-3);
+        assertEquals(200 + VELOCITY_Y * 99, estimator.getY(), 1e-3);
+        assertEquals(100 + VELOCITY_X * 100, estimator.getPredictedX(), 1e-3);
+        assertEquals(200 + VELOCITY_Y * 100, estimator.getPredictedY(), 1e-3);
+    }
+
+    public void testCoastingFollowsTheVelocityAndGrowsTheError() {
+        BallStateEstimator estimator = new BallStateEstimator();
+        for (int frame = 0; frame < 100; frame++) {
+            estimator.update(VELOCITY_X * frame, VELOCITY_Y * frame);
+        }
+
+        double error = estimator.getPredictionError();
+        for (int frame = 100; frame < 110; frame++) {
+            estimator.coast();
+            assertEquals(VELOCITY_X * frame, estimator.getX(), 1e-2);
+            assertEquals(VELOCITY_Y * frame, estimator.getY(), 1e-2);
+            assertTrue(estimator.getPredictionError() > error);
+            error = estimator.getPredictionError();
+        }
+
+        // A measurement shrinks the error again.
+        estimator.update(VELOCITY_X * 110, VELOCITY_Y * 110);
+        assertTrue(estimator.getPredictionError() < error);
+    }
+
+    public void testResetStartsOverFromTheNextMeasurement() {
+        BallStateEstimator estimator = new BallStateEstimator();
+        for (int frame = 0; frame < 20; frame++) {
+            estimator.update(VELOCITY_X * frame, VELOCITY_Y * frame);
+        }
+
+        estimator.reset();
+        assertFalse(estimator.isInitialized());
+        // Coasting without an estimate does nothing.
+        estimator.coast();
+        assertFalse(estimator.isInitialized());
+
+        estimator.update(500, 400);
+        assertTrue(estimator.isInitialized());
+        assertEquals(500.0, estimator.getPredictedX(), 0);
+        assertEquals(400.0, estimator.getPredictedY(), 0);
+        assertEquals(0.0, estimator.getVelocityX(), 0);
+        assertEquals(0.0, estimator.getVelocityY(), 0);
+    }
+
+    public void testGameStartsANewEstimateForANewEuglena() {
+        SoccerGame game = new SoccerGame(1280, 720, null);
+        Point prediction = new Point();
+        assertFalse(game.getPredictedBallLocation(prediction));
+
+        Point location = new Point();
+        for (int frame = 0; frame < 20; frame++) {
+            location.x = 600 + 5 * frame;
+            location.y = 360;
+            game.updateBallLocation(location, 1);
+        }
+        assertTrue(game.getPredictedBallLocation(prediction));
+        assertTrue(prediction.x > location.x);
+
+        // The ball is handed to another Euglena 30 pixels behind the first one. Its estimate must
+        // not carry the first one's velocity.
+        location.x -= 30;
+        game.updateBallLocation(location, 2);
+        assertEquals(2, game.getBallTrackId());
+        assertTrue(game.getPredictedBallLocation(prediction));
+        assertEquals(location.x, prediction.x, 0);
+        assertEquals(location.y, prediction.y, 0);
+        assertEquals(0.0, game.getSpeed(), 0);
+    }
+}
@@ -0,0 +1,142 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * Checks how BlobExtractor splits masks into blobs, and the order, area, centroid and bounding box
+ * it reports for them.
+ */
+public class BlobExtractorTest extends OpenCVTestCase {
+    private static final double EPSILON = 1e-9;
+
+    public void testDiagonalNeighboursAreConnected() {
+        BlobExtractor extractor = new BlobExtractor();
+
+        // Both diagonals of a 2x2 block.
+        assertEquals(1, extractor.extract(new byte[] {1, 0, 0, 1}, 2, 2));
+        assertEquals(1, extractor.extract(new byte[] {0, 1, 1, 0}, 2, 2));
+
+        // A V shape whose arms only meet through diagonals at the bottom.
+        byte[] v = {
+                1, 0, 0, 0, 1,
+                0, 1, 0, 1, 0,
+                0, 0, 1, 0, 0
+        };
+        assertEquals(1, extractor.extract(v, 5, 3));
+        assertEquals(5, extractor.getArea(0));
+        assertEquals(2.0, extractor.getCentroidX(0), EPSILON);
+        assertEquals(0.8, extractor.getCentroidY(0), EPSILON);
+    }
+
+    public void testGapsSeparateBlobs() {
+        BlobExtractor extractor = new BlobExtractor();
+        byte[] pixels = {
+                1, 1, 0, 1,
+                0, 0, 0, 1,
+                1, 0, 0, 0
+        };
+        assertEquals(3, extractor.extract(pixels, 4, 3));
+
+        // Numbered by their first pixel, top to bottom and left to right.
+        assertEquals(2, extractor.getArea(0));
+        assertEquals(0, extractor.getMinX(0));
+        assertEquals(1, extractor.getMaxX(0));
+        assertEquals(2, extractor.getArea(1));
+        assertEquals(3, extractor.getMinX(1));
+        assertEquals(1, extractor.getMaxY(1));
+        assertEquals(1, extractor.getArea(2));
+        assertEquals(2, extractor.getMinY(2));
+    }
+
+    public void testRowsDoNotWrapAround() {
+        BlobExtractor extractor = new BlobExtractor();
+
+        // The last pixel of the first row and the first pixel of the second row are next to each
+        // other in memory, but not in the image.
+        byte[] pixels = {
+                0, 0, 1,
+                1, 0, 0
+        };
+        assertEquals(2, extractor.extract(pixels, 3, 2));
+        assertEquals(2, extractor.getMinX(0));
+        assertEquals(0, extractor.getMinX(1));
+    }
+
+    public void testArmsJoinedFurtherDownAreOneBlob() {
+        BlobExtractor extractor = new BlobExtractor();
+
+        // The two arms start as separate runs and only meet in the last row.
+        byte[] u = {
+                1, 0, 1,
+                1, 0, 1,
+                1, 1, 1
+        };
+        assertEquals(1, extractor.extract(u, 3, 3));
+        assertEquals(7, extractor.getArea(0));
+        assertEquals(1.0, extractor.getCentroidX(0), EPSILON);
+        assertEquals(8 / 7.0, extractor.getCentroidY(0), EPSILON);
+        assertEquals(0, extractor.getMinX(0));
+        assertEquals(2, extractor.getMaxX(0));
+        assertEquals(0, extractor.getMinY(0));
+        assertEquals(2, extractor.getMaxY(0));
+    }
+
+    public void testHoleDoesNotSplitABlob() {
+        BlobExtractor extractor = new BlobExtractor();
+        byte[] ring = {
+                1, 1, 1,
+                1, 0, 1,
+                1, 1, 1
+        };
+        assertEquals(1, extractor.extract(ring, 3, 3));
+        assertEquals(8, extractor.getArea(0));
+        assertEquals(1.0, extractor.getCentroidX(0), EPSILON);
+        assertEquals(1.0, extractor.getCentroidY(0), EPSILON);
+    }
+
+    public void testReusedExtractorForgetsEarlierBlobs() {
+        BlobExtractor extractor = new BlobExtractor();
+        assertEquals(3, extractor.extract(new byte[] {1, 0, 1, 0, 1, 0}, 6, 1));
+
+        // Set pixels are stored as 255 in thresholded masks, which is negative as a byte.
+        byte set = (byte) 255;
+        assertEquals(1, extractor.extract(new byte[] {set, set, set, set}, 2, 2));
+        assertEquals(1, extractor.getBlobCount());
+        assertEquals(4, extractor.getArea(0));
+        assertEquals(0.5, extractor.getCentroidX(0), EPSILON);
+    }
+
+    public void testBlobTouchingTheRoiEdgeIsCutOff() {
+        BlobExtractor extractor = new BlobExtractor();
+
+        // A 4x4 cell against the right edge of a 10x10 mask.
+        Mat mask = Mat.zeros(10, 10, CvType.CV_8UC1);
+        Mat cell = mask.submat(2, 6, 6, 10);
+        cell.setTo(new Scalar(255));
+        cell.release();
+
+        assertTrue(mask.isContinuous());
+        assertEquals(1, extractor.extract(mask));
+        assertEquals(16, extractor.getArea(0));
+        assertEquals(7.5, extractor.getCentroidX(0), EPSILON);
+        assertEquals(9, extractor.getMaxX(0));
+
+        // A region of the mask skips the rest of each row, so it is not continuous. Only the half
+        // of the cell inside it is counted, in the region's coordinates.
+        Mat roi = mask.submat(1, 9, 0, 8);
+        assertFalse(roi.isContinuous());
+        assertEquals(1, extractor.extract(roi));
+        assertEquals(8, extractor.getArea(0));
+        assertEquals(6.5, extractor.getCentroidX(0), EPSILON);
+        assertEquals(2.5, extractor.getCentroidY(0), EPSILON);
+        assertEquals(6, extractor.getMinX(0));
+        assertEquals(7, extractor.getMaxX(0));
+        assertEquals(1, extractor.getMinY(0));
+        assertEquals(4, extractor.getMaxY(0));
+
+        roi.release();
+        mask.release();
+    }
+}
@@ -0,0 +1,116 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import org.opencv.core.Point;
+
+import edu.stanford.riedel_kruse.bioticgamessdk.Circle;
+import edu.stanford.riedel_kruse.bioticgamessdk.CollisionUtil;
+import edu.stanford.riedel_kruse.bioticgamessdk.CompositeShape;
+import edu.stanford.riedel_kruse.bioticgamessdk.Rectangle;
+import edu.stanford.riedel_kruse.bioticgamessdk.Shape;
+
+/**
+ * Checks that CollisionWorld reports the pairs that CollisionUtil.collided() finds, once each,
+ * as the objects move.
+ */
+public class CollisionWorldTest extends TestCase {
+    public void testReportsTouchingCircles() {
+        Circle ball = new Circle(new Point(100, 100), 50, Shape.DEFAULT_COLOR, 1, true);
+        Circle other = new Circle(new Point(190, 100), 50, Shape.DEFAULT_COLOR, 1, true);
+        Circle far = new Circle(new Point(500, 100), 50, Shape.DEFAULT_COLOR, 1, true);
+        CollisionWorld world = new CollisionWorld();
+        world.add(ball);
+        world.add(other);
+        world.add(far);
+
+        assertEquals(1, world.step(null));
+        assertSame(ball, world.getFirst(0));
+        assertSame(other, world.getSecond(0));
+
+        other.setPosition(new Point(300, 100));
+        assertEquals(0, world.step(null));
+    }
+
+    public void testReportsACompositeOnceForSeveralTouchingChildren() {
+        CompositeShape goal = createGoal(0, 160);
+        // Overlaps the post and both bars.
+        Rectangle wall = new Rectangle(new Point(0, 100), 30, 500, Shape.DEFAULT_COLOR, -1, true);
+        CollisionWorld world = new CollisionWorld();
+        world.add(goal);
+        world.add(wall);
+
+        assertEquals(1, world.step(null));
+    }
+
+    public void testIgnoresShapesThatAreNotPhysical() {
+        Circle ball = new Circle(new Point(100, 100), 50, Shape.DEFAULT_COLOR, 1, true);
+        Circle ghost = new Circle(new Point(100, 100), 50, Shape.DEFAULT_COLOR, 1, false);
+        CollisionWorld world = new CollisionWorld();
+        world.add(ball);
+        world.add(ghost);
+
+        assertEquals(0, world.step(null));
+    }
+
+    public void testRemovedObjectsAreNotReported() {
+        Circle ball = new Circle(new Point(100, 100), 50, Shape.DEFAULT_COLOR, 1, true);
+        Circle other = new Circle(new Point(120, 100), 50, Shape.DEFAULT_COLOR, 1, true);
+        CollisionWorld world = new CollisionWorld();
+        world.add(ball);
+        world.add(other);
+        assertTrue(world.remove(other));
+
+        assertEquals(0, world.step(null));
+        assertFalse(world.remove(other));
+    }
+
+    public void testCompositeChildrenAreBoundedSeparately() {
+        // The goal's post and bars surround its mouth, where the ball is inside the goal's overall
+        // bounds without touching any of them.
+        CompositeShape goal = createGoal(500, 100);
+        Circle ball = new Circle(new Point(530, 300), 15, Shape.DEFAULT_COLOR, 1, true);
+        CollisionWorld world = new CollisionWorld();
+        world.add(goal);
+        world.add(ball);
+        assertEquals(0, world.step(null));
+        assertFalse(CollisionUtil.collided(goal, ball));
+
+        // Against the top bar.
+        ball.setPosition(new Point(530, 120));
+        assertEquals(1, world.step(null));
+        assertSame(goal, world.getFirst(0));
+        assertSame(ball, world.getSecond(0));
+        assertTrue(CollisionUtil.collided(goal, ball));
+    }
+
+    public void testObjectsThatPassEachOtherAreResorted() {
+        Circle left = new Circle(new Point(100, 100), 20, Shape.DEFAULT_COLOR, 1, true);
+        Circle middle = new Circle(new Point(400, 100), 20, Shape.DEFAULT_COLOR, 1, true);
+        Circle right = new Circle(new Point(700, 100), 20, Shape.DEFAULT_COLOR, 1, true);
+        CollisionWorld world = new CollisionWorld();
+        world.add(left);
+        world.add(middle);
+        world.add(right);
+        assertEquals(0, world.step(null));
+
+        // The leftmost circle jumps past the other two, onto the rightmost one.
+        left.setPosition(new Point(710, 100));
+        assertEquals(1, world.step(null));
+        assertSame(left, world.getFirst(0));
+        assertSame(right, world.getSecond(0));
+
+        // And back, onto the middle one.
+        left.setPosition(new Point(390, 100));
+        assertEquals(1, world.step(null));
+        assertSame(left, world.getFirst(0));
+        assertSame(middle, world.getSecond(0));
+    }
+
+    private static CompositeShape createGoal(int x, int y) {
+        return new CompositeShape(new Point(x, y),
+                new Rectangle(new Point(0, 0), 10, 400, Shape.DEFAULT_COLOR, -1, true),
+                new Rectangle(new Point(10, 0), 40, 10, Shape.DEFAULT_COLOR, -1, true),
+                new Rectangle(new Point(10, 390), 40, 10, Shape.DEFAULT_COLOR, -1, true));
+    }
+}
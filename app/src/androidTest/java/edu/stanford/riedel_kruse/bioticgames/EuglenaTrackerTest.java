@@ -0,0 +1,131 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import org.opencv.core.Point;
+
+/**
+ * Checks that the ball stays with the Euglena carrying it while EuglenaTracker follows the
+ * detections of each frame, the way SoccerGameLoop does on the camera.
+ */
+public class EuglenaTrackerTest extends TestCase {
+    private static final int FIELD_WIDTH = 1280;
+    private static final int FIELD_HEIGHT = 720;
+    private static final double EPSILON = 1e-9;
+
+    private SoccerGame mGame;
+    private SpatialGrid mGrid;
+    private EuglenaTracker mTracker;
+    private double[] mXs;
+    private double[] mYs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGame = new SoccerGame(FIELD_WIDTH, FIELD_HEIGHT, null);
+        mGame.pauseCountdown();
+        mGrid = new SpatialGrid(FIELD_WIDTH, FIELD_HEIGHT, mGame.getBallRadius());
+        mTracker = new EuglenaTracker(SoccerGameLoop.TRACKING_GATE_DISTANCE);
+        mXs = new double[2];
+        mYs = new double[2];
+    }
+
+    public void testBallKeepsItsEuglenaWhenTwoCellsCross() {
+        Point start = mGame.getBallLocation();
+
+        // The carrying cell swims right, another one swims left just below it, and they pass
+        // within a few pixels of each other half way through.
+        int ballTrackId = EuglenaTracker.NO_TRACK;
+        for (int frame = 0; frame < 50; frame++) {
+            double carrierX = start.x + 4 * frame;
+            double otherX = start.x + 100 - 4 * frame;
+            // Detections come in no particular order.
+            if (frame % 2 == 0) {
+                step(carrierX, start.y, otherX, start.y + 4);
+            } else {
+                step(otherX, start.y + 4, carrierX, start.y);
+            }
+
+            if (frame == 0) {
+                ballTrackId = mGame.getBallTrackId();
+                assertTrue(ballTrackId != EuglenaTracker.NO_TRACK);
+            }
+            assertEquals(ballTrackId, mGame.getBallTrackId());
+            assertBallAt(carrierX, start.y);
+        }
+        assertEquals(2, mTracker.getTrackCount());
+    }
+
+    public void testBallWaitsForItsEuglenaWhileItCoasts() {
+        Point start = mGame.getBallLocation();
+        // A bystander outside the tracking gate, but closer to the ball than any other cell.
+        double otherX = start.x + 40;
+        double otherY = start.y + 40;
+
+        for (int frame = 0; frame < 10; frame++) {
+            step(start.x - 3 * frame, start.y, otherX, otherY);
+        }
+        int ballTrackId = mGame.getBallTrackId();
+        assertBallAt(start.x - 27, start.y);
+
+        // The carrying cell is not detected for a few frames. Its track coasts on, while the ball
+        // stays where it was last seen and is not handed to the bystander.
+        int missedFrames = EuglenaTracker.DEFAULT_MAX_MISSED_FRAMES - 1;
+        for (int frame = 10; frame < 10 + missedFrames; frame++) {
+            stepOne(otherX, otherY);
+
+            int slot = mTracker.findSlot(ballTrackId);
+            assertTrue(slot != EuglenaTracker.NO_TRACK);
+            assertEquals(frame - 9, mTracker.getMissedFrames(slot));
+            assertTrue(mTracker.getX(slot) < start.x - 27);
+            assertEquals(ballTrackId, mGame.getBallTrackId());
+            assertBallAt(start.x - 27, start.y);
+        }
+
+        // It turns up again where it would have swum to and takes the ball along again.
+        int frame = 10 + missedFrames;
+        step(start.x - 3 * frame, start.y, otherX, otherY);
+        assertEquals(ballTrackId, mGame.getBallTrackId());
+        assertBallAt(start.x - 3 * frame, start.y);
+    }
+
+    public void testBallIsHandedOnOnceItsEuglenaIsLost() {
+        Point start = mGame.getBallLocation();
+        double otherX = start.x + 40;
+        double otherY = start.y + 40;
+
+        step(start.x, start.y, otherX, otherY);
+        int ballTrackId = mGame.getBallTrackId();
+
+        for (int frame = 0; frame <= EuglenaTracker.DEFAULT_MAX_MISSED_FRAMES; frame++) {
+            stepOne(otherX, otherY);
+        }
+        assertEquals(EuglenaTracker.NO_TRACK, mTracker.findSlot(ballTrackId));
+        assertTrue(mGame.getBallTrackId() != ballTrackId);
+        assertBallAt(otherX, otherY);
+    }
+
+    private void step(double x1, double y1, double x2, double y2) {
+        mXs[0] = x1;
+        mYs[0] = y1;
+        mXs[1] = x2;
+        mYs[1] = y2;
+        mGrid.build(mXs, mYs, 2);
+        mTracker.update(mGrid);
+        mGame.followBallEuglena(mTracker);
+    }
+
+    private void stepOne(double x, double y) {
+        mXs[0] = x;
+        mYs[0] = y;
+        mGrid.build(mXs, mYs, 1);
+        mTracker.update(mGrid);
+        mGame.followBallEuglena(mTracker);
+    }
+
+    private void assertBallAt(double x, double y) {
+        Point ballLocation = mGame.getBallLocation();
+        assertEquals(x, ballLocation.x, EPSILON);
+        assertEquals(y, ballLocation.y, EPSILON);
+    }
+}
@@ -0,0 +1,75 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that GameClock runs the same ticks whatever the frame rate, and that the game it drives
+ * plays out the same.
+ */
+public class GameClockTest extends TestCase {
+    private static final long MILLISECOND = GameClock.NANOSECONDS_PER_MILLISECOND;
+    private static final long SECOND = 1000 * MILLISECOND;
+
+    public void testFirstTimeOnlyStartsTheClock() {
+        GameClock clock = new GameClock(10);
+        assertEquals(0, clock.advanceTo(123456789L));
+        assertEquals(1, clock.advanceTo(123456789L + 10 * MILLISECOND));
+    }
+
+    public void testTickCountDoesNotDependOnTheFrameRate() {
+        // 15 fps, 30 fps and an uneven frame rate, all for ten seconds.
+        long[][] frameTimes = {{SECOND / 15}, {SECOND / 30}, {7 * MILLISECOND, 41 * MILLISECOND,
+                19 * MILLISECOND + 333333}};
+        for (long[] frames : frameTimes) {
+            GameClock clock = new GameClock(10);
+            long time = 0;
+            long ticks = 0;
+            for (int i = 0; time + frames[i % frames.length] <= 10 * SECOND; i++) {
+                time += frames[i % frames.length];
+                ticks += clock.advance(frames[i % frames.length]);
+            }
+            // Whatever did not make up a whole tick is still on the clock.
+            assertEquals(time / (10 * MILLISECOND), ticks);
+            assertEquals(ticks, clock.getTickCount());
+            assertEquals((time % (10 * MILLISECOND)) / (10.0 * MILLISECOND), clock.getAlpha(),
+                    1e-9);
+        }
+    }
+
+    public void testLongFramesAreCutShort() {
+        GameClock clock = new GameClock(10);
+        assertEquals(GameClock.MAX_FRAME_NANOSECONDS / (10 * MILLISECOND),
+                clock.advance(10 * SECOND));
+        assertEquals(0, clock.advance(-SECOND));
+    }
+
+    public void testResetDropsThePartialTick() {
+        GameClock clock = new GameClock(10);
+        clock.advanceTo(0);
+        clock.advanceTo(5 * MILLISECOND);
+        clock.reset();
+
+        assertEquals(0.0, clock.getAlpha(), 0);
+        assertEquals(0, clock.advanceTo(SECOND));
+        assertEquals(0, clock.advanceTo(SECOND + 5 * MILLISECOND));
+    }
+
+    public void testTurnTakesAsManyTicksAtAnyFrameRate() {
+        long[] frameTimes = {SECOND / 15, SECOND / 30};
+        for (long frameTime : frameTimes) {
+            GameClock clock = new GameClock(GameClock.DEFAULT_TICK_MILLIS);
+            SoccerGame game = new SoccerGame(1280, 720, null);
+            long ticksInTurn = 0;
+            while (game.getCurrentTurn() == SoccerGame.Turn.RED) {
+                int ticks = clock.advance(frameTime);
+                for (int i = 0; i < ticks && game.getCurrentTurn() == SoccerGame.Turn.RED; i++) {
+                    game.updateTime(clock.getTickMillis());
+                    ticksInTurn++;
+                }
+            }
+
+            assertEquals(SoccerGame.MILLISECONDS_PER_TURN / GameClock.DEFAULT_TICK_MILLIS,
+                    ticksInTurn);
+        }
+    }
+}
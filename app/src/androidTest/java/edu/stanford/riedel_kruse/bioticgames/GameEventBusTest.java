@@ -0,0 +1,97 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that GameEventBus hands every event to its subscribers in order, drops events instead of
+ * blocking when they fall behind, and does both across threads.
+ */
+public class GameEventBusTest extends TestCase {
+    private static final int EVENTS = 200000;
+
+    /**
+     * Remembers the values of the events it receives.
+     */
+    private static class RecordingSubscriber implements GameEventBus.Subscriber {
+        final List<Integer> mValues = new ArrayList<Integer>();
+
+        @Override
+        public void onGameEvent(int type, int value, int points, long time) {
+            mValues.add(value);
+        }
+    }
+
+    public void testDispatchesEventsInOrderToEverySubscriber() {
+        GameEventBus bus = new GameEventBus();
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        bus.addSubscriber(first);
+        bus.addSubscriber(second);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bus.post(SessionRecorder.EVENT_GOAL_SCORED, i, 1));
+        }
+        assertEquals(10, bus.dispatch());
+        assertEquals(0, bus.dispatch());
+
+        assertEquals(10, first.mValues.size());
+        assertEquals(first.mValues, second.mValues);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) first.mValues.get(i));
+        }
+    }
+
+    public void testDropsEventsWhenTheRingIsFull() {
+        GameEventBus bus = new GameEventBus(4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        bus.addSubscriber(subscriber);
+
+        for (int i = 0; i < 6; i++) {
+            bus.post(SessionRecorder.EVENT_OUT_OF_BOUNDS, i, 0);
+        }
+        assertEquals(2, bus.getDroppedEventCount());
+        assertEquals(4, bus.dispatch());
+
+        // The slots are free again.
+        assertTrue(bus.post(SessionRecorder.EVENT_OUT_OF_BOUNDS, 6, 0));
+        bus.dispatch();
+        assertEquals(5, subscriber.mValues.size());
+        assertEquals(6, (int) subscriber.mValues.get(4));
+    }
+
+    public void testRemovedSubscribersReceiveNothing() {
+        GameEventBus bus = new GameEventBus();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        bus.addSubscriber(subscriber);
+        bus.removeSubscriber(subscriber);
+
+        bus.post(SessionRecorder.EVENT_GAME_OVER, 0, 0);
+        bus.dispatch();
+        assertTrue(subscriber.mValues.isEmpty());
+    }
+
+    public void testDispatcherThreadSeesEveryEventThatWasNotDropped() {
+        GameEventBus bus = new GameEventBus(64);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        bus.addSubscriber(subscriber);
+        bus.start();
+
+        int posted = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            if (bus.post(SessionRecorder.EVENT_TURN_CHANGED, i, 0)) {
+                posted++;
+            }
+        }
+        // Stopping hands the rest of the events to the subscriber.
+        bus.stop();
+
+        assertEquals(posted, subscriber.mValues.size());
+        assertEquals(EVENTS, posted + bus.getDroppedEventCount());
+        for (int i = 1; i < subscriber.mValues.size(); i++) {
+            assertTrue(subscriber.mValues.get(i) > subscriber.mValues.get(i - 1));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import android.os.Debug;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * Checks that GameRenderer does not allocate Java objects once the game reaches a steady state,
+ * and that during play only the frames refreshing the speed readout do.
+ */
+public class GameRendererAllocationTest extends OpenCVTestCase {
+    private static final int FIELD_WIDTH = 1280;
+    private static final int FIELD_HEIGHT = 720;
+    /**
+     * As many frame buffers as the pipelined camera cycles through with its default queues.
+     */
+    private static final int FRAME_BUFFERS = 5;
+    private static final int WARM_UP_FRAMES = 20;
+    private static final int MEASURED_FRAMES = 100;
+    private static final long FRAME_MILLISECONDS = 33;
+
+    public void testSteadyStateFramesDoNotAllocate() {
+        SoccerGame game = new SoccerGame(FIELD_WIDTH, FIELD_HEIGHT, new NullDelegate());
+        GameRenderer renderer = new GameRenderer();
+        Mat[] frames = new Mat[FRAME_BUFFERS];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = Mat.zeros(FIELD_HEIGHT, FIELD_WIDTH, CvType.CV_8UC4);
+        }
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            renderer.draw(frames[i % frames.length], game, true);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            renderer.draw(frames[i % frames.length], game, true);
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertEquals(0, allocations);
+
+        renderer.release();
+        for (Mat frame : frames) {
+            frame.release();
+        }
+    }
+
+    public void testOnlySpeedRefreshesAllocateDuringPlay() {
+        SoccerGame game = new SoccerGame(FIELD_WIDTH, FIELD_HEIGHT, new NullDelegate());
+        GameRenderer renderer = new GameRenderer();
+        Mat[] frames = new Mat[FRAME_BUFFERS];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = Mat.zeros(FIELD_HEIGHT, FIELD_WIDTH, CvType.CV_8UC4);
+        }
+        Point location = new Point();
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            play(game, location, i);
+            renderer.draw(frames[i % frames.length], game, true);
+        }
+
+        int allocatingFrames = 0;
+        int speedChanges = 0;
+        double speed = game.getSpeed();
+        Debug.startAllocCounting();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            Debug.resetThreadAllocCount();
+            play(game, location, WARM_UP_FRAMES + i);
+            renderer.draw(frames[i % frames.length], game, true);
+            if (Debug.getThreadAllocCount() > 0) {
+                allocatingFrames++;
+            }
+
+            if (game.getSpeed() != speed) {
+                speedChanges++;
+                speed = game.getSpeed();
+            }
+        }
+        Debug.stopAllocCounting();
+
+        // Without throttling, the readout would be redrawn on almost every frame.
+        assertTrue(speedChanges > MEASURED_FRAMES / 2);
+        assertTrue("Allocated on " + allocatingFrames + " frames",
+                allocatingFrames <= MEASURED_FRAMES / GameRenderer.SPEED_REFRESH_FRAMES + 1);
+
+        renderer.release();
+        for (Mat frame : frames) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Moves the ball along a curve at a changing speed and advances the game by one frame, the way
+     * SoccerGameLoop does while a Euglena carries the ball around the middle of the field.
+     */
+    private static void play(SoccerGame game, Point location, int frame) {
+        location.x = FIELD_WIDTH / 2 + 200 * Math.sin(frame * 0.05);
+        location.y = FIELD_HEIGHT / 2 + 100 * Math.sin(frame * 0.03);
+        game.updateBallLocation(location, 1);
+        game.updateTime(FRAME_MILLISECONDS);
+    }
+
+    private static class NullDelegate implements SoccerGameDelegate {
+        @Override
+        public void onChangedTurn(SoccerGame.Turn currentTurn) {
+        }
+
+        @Override
+        public void onGoalScored(SoccerGame.Turn currentTurn) {
+        }
+
+        @Override
+        public void onOutOfBounds() {
+        }
+
+        @Override
+        public void onPickupButtonPressed(SoccerGame.Turn currentTurn) {
+        }
+
+        @Override
+        public void onGameOver() {
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that ModifierScheduler resets modifiers when their time is up, in a deterministic order,
+ * and that modifiers applied to a SoccerGame expire with its game time.
+ */
+public class ModifierSchedulerTest extends TestCase {
+    private ModifierScheduler mScheduler;
+    private List<Modifier> mResets;
+
+    /**
+     * Records when it is reset.
+     */
+    private class TestModifier extends Modifier {
+        private int mApplications;
+
+        public TestModifier(int duration) {
+            super(duration);
+        }
+
+        @Override
+        public void apply(SoccerGame game) {
+            if (!isActive()) {
+                mApplications++;
+            }
+            super.apply(game);
+        }
+
+        @Override
+        public void reset() {
+            mResets.add(this);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mScheduler = new ModifierScheduler();
+        mResets = new ArrayList<Modifier>();
+    }
+
+    public void testResetsWhenTheDurationIsOver() {
+        TestModifier modifier = new TestModifier(100);
+        mScheduler.schedule(modifier, 100);
+        assertTrue(modifier.isActive());
+
+        mScheduler.advance(99);
+        assertTrue(mResets.isEmpty());
+        assertEquals(1, mScheduler.getTimeLeft(modifier));
+
+        mScheduler.advance(1);
+        assertEquals(1, mResets.size());
+        assertFalse(modifier.isActive());
+        assertEquals(0, mScheduler.size());
+    }
+
+    public void testResetsInOrderOfExpiryThenOfScheduling() {
+        TestModifier late = new TestModifier(300);
+        TestModifier first = new TestModifier(100);
+        TestModifier second = new TestModifier(100);
+        mScheduler.schedule(late, 300);
+        mScheduler.schedule(first, 100);
+        mScheduler.schedule(second, 100);
+
+        // One long frame expires all of them at once.
+        mScheduler.advance(1000);
+        assertEquals(3, mResets.size());
+        assertSame(first, mResets.get(0));
+        assertSame(second, mResets.get(1));
+        assertSame(late, mResets.get(2));
+    }
+
+    public void testApplyingAgainStacksTheDuration() {
+        TestModifier modifier = new TestModifier(100);
+        mScheduler.schedule(modifier, 100);
+        mScheduler.advance(50);
+        mScheduler.schedule(modifier, 100);
+
+        mScheduler.advance(100);
+        assertTrue(mResets.isEmpty());
+        mScheduler.advance(50);
+        assertEquals(1, mResets.size());
+    }
+
+    public void testCancelResetsRightAway() {
+        TestModifier modifier = new TestModifier(100);
+        TestModifier other = new TestModifier(200);
+        mScheduler.schedule(modifier, 100);
+        mScheduler.schedule(other, 200);
+
+        assertTrue(mScheduler.cancel(modifier));
+        assertEquals(1, mResets.size());
+        assertFalse(mScheduler.cancel(modifier));
+
+        mScheduler.advance(1000);
+        assertEquals(2, mResets.size());
+        assertSame(other, mResets.get(1));
+    }
+
+    public void testManyModifiersExpireInOrder() {
+        Random random = new Random(42);
+        List<TestModifier> modifiers = new ArrayList<TestModifier>();
+        for (int i = 0; i < 500; i++) {
+            TestModifier modifier = new TestModifier(1 + random.nextInt(10000));
+            modifiers.add(modifier);
+            mScheduler.schedule(modifier, modifier.mDuration);
+        }
+        // Cancel some from the middle of the heap.
+        for (int i = 0; i < modifiers.size(); i += 7) {
+            mScheduler.cancel(modifiers.get(i));
+        }
+        mResets.clear();
+
+        long time = 0;
+        while (mScheduler.size() > 0) {
+            int before = mResets.size();
+            time += 33;
+            mScheduler.advance(33);
+            for (int i = before; i < mResets.size(); i++) {
+                assertTrue(mResets.get(i).mDuration <= time);
+                assertTrue(mResets.get(i).mDuration > time - 33);
+            }
+        }
+        assertEquals(500 - 500 / 7 - 1, mResets.size());
+    }
+
+    public void testModifiersRunOnGameTime() {
+        SoccerGame game = new SoccerGame(1280, 720, null);
+        TestModifier modifier = new TestModifier(1000);
+        modifier.apply(game);
+        modifier.apply(game);
+        assertEquals(1, modifier.mApplications);
+
+        game.pauseCountdown();
+        game.updateTime(1500);
+        assertTrue(modifier.isActive());
+        game.updateTime(500);
+        assertFalse(modifier.isActive());
+        assertEquals(1, mResets.size());
+    }
+
+    public void testResettingTheGameResetsItsModifiers() {
+        SoccerGame game = new SoccerGame(1280, 720, null);
+        TestModifier modifier = new TestModifier(1000);
+        modifier.apply(game);
+
+        game.reset();
+        assertFalse(modifier.isActive());
+        assertEquals(1, mResets.size());
+    }
+}
@@ -0,0 +1,128 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Checks what MorphologyStage removes from and fills into masks, and that it produces the same
+ * masks as the dilate, erode, erode, dilate chain it replaced, at the mask's edges and on the mask
+ * of a recorded microscope frame.
+ */
+public class MorphologyStageTest extends OpenCVTestCase {
+    private static final Scalar SET = new Scalar(255);
+
+    public void testRemovesSpecksSmallerThanTheElement() {
+        Mat mask = Mat.zeros(40, 40, CvType.CV_8UC1);
+        mask.put(10, 10, 255);
+        Core.rectangle(mask, new Point(25, 25), new Point(26, 26), SET, -1);
+
+        new MorphologyStage().apply(mask);
+        assertEquals(0, Core.countNonZero(mask));
+        mask.release();
+    }
+
+    public void testFillsPinholesInsideACell() {
+        Mat mask = Mat.zeros(40, 40, CvType.CV_8UC1);
+        Core.rectangle(mask, new Point(10, 10), new Point(29, 29), SET, -1);
+        mask.put(20, 20, 0);
+
+        new MorphologyStage().apply(mask);
+        assertEquals(255.0, mask.get(20, 20)[0], 0);
+        mask.release();
+    }
+
+    public void testOnlyRoundsTheCornersOfACell() {
+        // A 12x8 cell. The elliptical element does not reach into the corners, so opening takes
+        // two pixels off each of them and leaves the rest of the cell alone.
+        Mat mask = Mat.zeros(40, 40, CvType.CV_8UC1);
+        Core.rectangle(mask, new Point(10, 10), new Point(21, 17), SET, -1);
+
+        new MorphologyStage().apply(mask);
+        assertEquals(96 - 4 * 2, Core.countNonZero(mask));
+        assertEquals(0.0, mask.get(10, 10)[0], 0);
+        assertEquals(255.0, mask.get(13, 10)[0], 0);
+        assertEquals(255.0, mask.get(13, 21)[0], 0);
+        mask.release();
+    }
+
+    public void testMatchesDilateErodeChainOnCellsCutOffByTheMaskEdge() {
+        // Like the region around the ball, which cuts through the cells at its edges.
+        Mat mask = Mat.zeros(30, 30, CvType.CV_8UC1);
+        Core.ellipse(mask, new Point(1, 1), new Size(6, 4), 30, 0, 360, SET, -1);
+        Core.rectangle(mask, new Point(24, 10), new Point(29, 16), SET, -1);
+        Core.rectangle(mask, new Point(12, 27), new Point(15, 29), SET, -1);
+        assertMatchesChain(mask);
+    }
+
+    public void testMatchesDilateErodeChainOnRecordedFrame() {
+        Mat mask = thresholdRecordedFrame();
+        assertTrue("The recorded frame has no Euglena in it", Core.countNonZero(mask) > 0);
+
+        // The region around the ball while tracking, and the whole frame.
+        Rect roi = new Rect(mask.cols() / 2 - 50, mask.rows() / 2 - 50, 100, 100);
+        assertMatchesChain(mask.submat(roi).clone());
+        assertMatchesChain(mask);
+    }
+
+    /**
+     * Compares the stage against the chain on the given mask and releases it.
+     */
+    private void assertMatchesChain(Mat mask) {
+        Mat structuringElement = Imgproc.getStructuringElement(MorphologyStage.DEFAULT_SHAPE,
+                new Size(MorphologyStage.DEFAULT_SIZE, MorphologyStage.DEFAULT_SIZE));
+        MorphologyStage stage = new MorphologyStage();
+
+        Mat expected = mask.clone();
+        Imgproc.dilate(expected, expected, structuringElement);
+        Imgproc.erode(expected, expected, structuringElement);
+        Imgproc.erode(expected, expected, structuringElement);
+        Imgproc.dilate(expected, expected, structuringElement);
+
+        stage.apply(mask);
+
+        Mat difference = new Mat();
+        Core.absdiff(expected, mask, difference);
+        assertEquals(0, Core.countNonZero(difference));
+
+        difference.release();
+        expected.release();
+        mask.release();
+        stage.release();
+        structuringElement.release();
+    }
+
+    /**
+     * Thresholds the microscope photo that ships with the app the way the SDK's ImageProcessing
+     * thresholds camera frames: RGBA converted with COLOR_BGR2HSV, then its HSV window.
+     */
+    private Mat thresholdRecordedFrame() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // Keep the recorded resolution instead of scaling the drawable to the screen density.
+        options.inScaled = false;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = BitmapFactory.decodeResource(
+                getInstrumentation().getTargetContext().getResources(), R.drawable.euglena,
+                options);
+
+        Mat frame = new Mat();
+        Utils.bitmapToMat(bitmap, frame);
+        bitmap.recycle();
+
+        Mat mask = new Mat();
+        Imgproc.cvtColor(frame, frame, Imgproc.COLOR_BGR2HSV);
+        Core.inRange(frame, EuglenaDetector.LOWER_HSV_THRESHOLD,
+                EuglenaDetector.UPPER_HSV_THRESHOLD, mask);
+        frame.release();
+        return mask;
+    }
+}
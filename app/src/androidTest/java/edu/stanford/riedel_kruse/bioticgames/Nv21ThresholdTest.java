@@ -0,0 +1,136 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that thresholding NV21 frames on their planes gives the same masks as converting them to
+ * RGB and HSV the way the SDK does, and that the detector finds the same Euglena that way.
+ */
+public class Nv21ThresholdTest extends OpenCVTestCase {
+    /**
+     * Every 2x2 block of the test frames gets its own chroma pair and four consecutive lumas, so
+     * FRAMES_PER_CHROMA frames cover all lumas of BLOCKS_WIDE * BLOCKS_HIGH chroma pairs.
+     */
+    private static final int BLOCKS_WIDE = 256;
+    private static final int BLOCKS_HIGH = 128;
+    private static final int FRAMES_PER_CHROMA = 256 / 4;
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final byte BACKGROUND_LUMA = 60;
+    private static final byte NEUTRAL_CHROMA = (byte) 128;
+    /**
+     * A green that lies within the detector's HSV thresholds once converted to RGB.
+     */
+    private static final byte EUGLENA_LUMA = 110;
+    private static final byte EUGLENA_U = 100;
+    private static final byte EUGLENA_V = 90;
+
+    public void testMatchesHsvThresholdOnEverySample() {
+        Nv21Threshold threshold = new Nv21Threshold(EuglenaDetector.LOWER_HSV_THRESHOLD,
+                EuglenaDetector.UPPER_HSV_THRESHOLD);
+        int width = BLOCKS_WIDE * 2;
+        int height = BLOCKS_HIGH * 2;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        byte[] maskBytes = new byte[width * height];
+        Mat yuv = new Mat(height * 3 / 2, width, CvType.CV_8UC1);
+        Mat rgb = new Mat();
+        Mat expected = new Mat();
+        Mat mask = new Mat(height, width, CvType.CV_8UC1);
+        Mat difference = new Mat();
+
+        for (int u = 0; u < 256; u += BLOCKS_HIGH) {
+            for (int frame = 0; frame < FRAMES_PER_CHROMA; frame++) {
+                for (int blockY = 0; blockY < BLOCKS_HIGH; blockY++) {
+                    for (int blockX = 0; blockX < BLOCKS_WIDE; blockX++) {
+                        int luma = frame * 4;
+                        int top = blockY * 2 * width + blockX * 2;
+                        nv21[top] = (byte) luma;
+                        nv21[top + 1] = (byte) (luma + 1);
+                        nv21[top + width] = (byte) (luma + 2);
+                        nv21[top + width + 1] = (byte) (luma + 3);
+
+                        int chroma = width * height + blockY * width + blockX * 2;
+                        nv21[chroma] = (byte) blockX;
+                        nv21[chroma + 1] = (byte) (u + blockY);
+                    }
+                }
+
+                yuv.put(0, 0, nv21);
+                Imgproc.cvtColor(yuv, rgb, Imgproc.COLOR_YUV2RGB_NV21);
+                Imgproc.cvtColor(rgb, rgb, Imgproc.COLOR_BGR2HSV);
+                Core.inRange(rgb, EuglenaDetector.LOWER_HSV_THRESHOLD,
+                        EuglenaDetector.UPPER_HSV_THRESHOLD, expected);
+
+                threshold.apply(nv21, width, height, maskBytes);
+                mask.put(0, 0, maskBytes);
+
+                Core.absdiff(expected, mask, difference);
+                assertEquals("Lumas from " + frame * 4 + ", U from " + u, 0,
+                        Core.countNonZero(difference));
+            }
+        }
+
+        difference.release();
+        mask.release();
+        expected.release();
+        rgb.release();
+        yuv.release();
+    }
+
+    public void testWholeFrameSearchFindsTheEuglenaOfAFieldSizedRoi() {
+        assertSameEuglenaAsFieldSizedRoi(true);
+        assertSameEuglenaAsFieldSizedRoi(false);
+    }
+
+    private void assertSameEuglenaAsFieldSizedRoi(boolean flipped) {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, BACKGROUND_LUMA);
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, NEUTRAL_CHROMA);
+        // One cell in the middle, one in a corner and one on the bottom edge.
+        drawEuglena(nv21, 300, 230, 8, 12);
+        drawEuglena(nv21, 0, 0, 10, 6);
+        drawEuglena(nv21, 500, HEIGHT - 8, 16, 8);
+        Mat yuv = new Mat(HEIGHT * 3 / 2, WIDTH, CvType.CV_8UC1);
+        yuv.put(0, 0, nv21);
+
+        EuglenaDetector detector = new EuglenaDetector();
+        List<Point> expected = new ArrayList<Point>(
+                detector.findEuglenaInFieldRoi(yuv, new Rect(0, 0, WIDTH, HEIGHT), flipped));
+        List<Point> found = detector.findEuglena(yuv, flipped);
+
+        assertEquals(3, expected.size());
+        assertEquals(expected.size(), found.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).x, found.get(i).x, 1e-9);
+            assertEquals(expected.get(i).y, found.get(i).y, 1e-9);
+        }
+
+        detector.release();
+        yuv.release();
+    }
+
+    /**
+     * Draws a green rectangle with its top left corner at the given even camera coordinates.
+     */
+    private static void drawEuglena(byte[] nv21, int left, int top, int width, int height) {
+        for (int y = top; y < top + height; y++) {
+            Arrays.fill(nv21, y * WIDTH + left, y * WIDTH + left + width, EUGLENA_LUMA);
+        }
+        for (int y = top / 2; y < (top + height) / 2; y++) {
+            for (int x = left; x < left + width; x += 2) {
+                nv21[WIDTH * HEIGHT + y * WIDTH + x] = EUGLENA_V;
+                nv21[WIDTH * HEIGHT + y * WIDTH + x + 1] = EUGLENA_U;
+            }
+        }
+    }
+}
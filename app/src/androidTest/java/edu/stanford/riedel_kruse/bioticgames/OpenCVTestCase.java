@@ -0,0 +1,44 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import android.test.InstrumentationTestCase;
+
+import org.opencv.android.InstallCallbackInterface;
+import org.opencv.android.LoaderCallbackInterface;
+import org.opencv.android.OpenCVLoader;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class for tests that call into OpenCV. Connects to the OpenCV Manager before every test
+ * and fails the test if the library cannot be loaded.
+ */
+public abstract class OpenCVTestCase extends InstrumentationTestCase {
+    private static final long OPENCV_LOAD_TIMEOUT_SECONDS = 30;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final int[] loaderStatus = new int[] { LoaderCallbackInterface.INIT_FAILED };
+        OpenCVLoader.initAsync(OpenCVLoader.OPENCV_VERSION_2_4_9,
+                getInstrumentation().getTargetContext(), new LoaderCallbackInterface() {
+                    @Override
+                    public void onManagerConnected(int status) {
+                        loaderStatus[0] = status;
+                        loaded.countDown();
+                    }
+
+                    @Override
+                    public void onPackageInstall(int operation,
+                                                 InstallCallbackInterface callback) {
+                        callback.cancel();
+                    }
+                });
+
+        assertTrue("OpenCV Manager did not respond",
+                loaded.await(OPENCV_LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(LoaderCallbackInterface.SUCCESS, loaderStatus[0]);
+    }
+}
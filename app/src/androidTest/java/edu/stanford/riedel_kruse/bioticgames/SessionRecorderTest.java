@@ -0,0 +1,108 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Checks the events SessionRecorder writes and that a session that fails to start can be started
+ * again.
+ */
+public class SessionRecorderTest extends TestCase {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = File.createTempFile("session", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(mDirectory);
+        super.tearDown();
+    }
+
+    public void testRecordsThePointsOfScoringEvents() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(mDirectory, WIDTH, HEIGHT);
+        recorder.start();
+        long time = System.nanoTime();
+        recorder.onGameEvent(SessionRecorder.EVENT_GOAL_SCORED, 1, 3, time);
+        recorder.onGameEvent(SessionRecorder.EVENT_PICKUP, 0, 1, time);
+        recorder.stop();
+        assertNull(recorder.getWriteError());
+
+        ByteBuffer events = readEvents();
+        assertEquals(SessionRecorder.EVENTS_MAGIC, events.getInt());
+        assertEquals(SessionRecorder.EVENTS_VERSION, events.getInt());
+        assertEquals(2 * SessionRecorder.EVENT_RECORD_SIZE, events.remaining());
+
+        events.getLong();
+        assertEquals(SessionRecorder.EVENT_GOAL_SCORED, events.getInt());
+        assertEquals(1, events.getInt());
+        assertEquals(3f, events.getFloat(), 0);
+        assertEquals(0f, events.getFloat(), 0);
+
+        events.getLong();
+        assertEquals(SessionRecorder.EVENT_PICKUP, events.getInt());
+        assertEquals(0, events.getInt());
+        assertEquals(1f, events.getFloat(), 0);
+        assertEquals(0f, events.getFloat(), 0);
+    }
+
+    public void testStartsAgainAfterTheEventsFileCouldNotBeOpened() throws Exception {
+        // A directory in the way of the events file makes opening it fail after the frames file
+        // has been opened.
+        File blocker = new File(mDirectory, SessionRecorder.EVENTS_FILE);
+        assertTrue(blocker.mkdirs());
+
+        SessionRecorder recorder = new SessionRecorder(mDirectory, WIDTH, HEIGHT);
+        try {
+            recorder.start();
+            fail("The events file was opened");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertFalse(recorder.isRunning());
+
+        assertTrue(blocker.delete());
+        recorder.start();
+        assertTrue(recorder.isRunning());
+        recorder.recordFrame(new byte[WIDTH * HEIGHT * 3 / 2]);
+        recorder.stop();
+        assertNull(recorder.getWriteError());
+        assertEquals(1, recorder.getRecordedFrameCount());
+    }
+
+    private ByteBuffer readEvents() throws IOException {
+        FileChannel channel =
+                new FileInputStream(new File(mDirectory, SessionRecorder.EVENTS_FILE)).getChannel();
+        try {
+            ByteBuffer events = ByteBuffer.allocate((int) channel.size());
+            while (events.hasRemaining() && channel.read(events) >= 0) {
+            }
+            events.flip();
+            return events;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
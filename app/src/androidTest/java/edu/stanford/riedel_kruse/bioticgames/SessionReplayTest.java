@@ -0,0 +1,137 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Point;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Records a session of synthetic NV21 frames with one Euglena swimming near the ball, replays it
+ * through SoccerGameLoop the way the Replay tool does, and checks that the ball follows the
+ * Euglena with the frames flipped like on the phone and with them as they are.
+ */
+public class SessionReplayTest extends OpenCVTestCase {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 20;
+    /**
+     * The Euglena is drawn as a square of this side, aligned to the 2x2 chroma blocks.
+     */
+    private static final int EUGLENA_SIZE = 8;
+    /**
+     * Where the Euglena starts in field coordinates, close enough to the ball in the middle of the
+     * field to be picked up, and how far it swims to the right on every frame.
+     */
+    private static final int START_X = 300;
+    private static final int START_Y = 230;
+    private static final int STEP_X = 2;
+    private static final double EPSILON = 1e-6;
+
+    private static final byte BACKGROUND_LUMA = 60;
+    private static final byte NEUTRAL_CHROMA = (byte) 128;
+    /**
+     * A green that lies within the detector's HSV thresholds once converted to RGB.
+     */
+    private static final byte EUGLENA_LUMA = 110;
+    private static final byte EUGLENA_U = 100;
+    private static final byte EUGLENA_V = 90;
+
+    private File mSessionDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSessionDirectory = new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "replay_test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mSessionDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSessionDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testBallFollowsEuglenaInFlippedFrames() throws Exception {
+        replayAndCheck(true);
+    }
+
+    public void testBallFollowsEuglenaInUnflippedFrames() throws Exception {
+        replayAndCheck(false);
+    }
+
+    private void replayAndCheck(boolean flip) throws Exception {
+        recordSession(flip);
+
+        SessionFrameSource source = new SessionFrameSource(mSessionDirectory);
+        SoccerGameLoop gameLoop = new SoccerGameLoop(null);
+        gameLoop.setFlipFrames(flip);
+        gameLoop.setYuvFrame(source.getYuvFrame());
+        FramePlayer player = new FramePlayer(source, gameLoop, FramePlayer.Pace.FULL_SPEED);
+
+        Point ballLocation = new Point();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            assertTrue(player.playFrame());
+
+            gameLoop.getSoccerGame().getBallLocation(ballLocation);
+            double centerOffset = (EUGLENA_SIZE - 1) / 2.0;
+            assertEquals("x on frame " + frame, START_X + STEP_X * frame + centerOffset,
+                    ballLocation.x, EPSILON);
+            assertEquals("y on frame " + frame, START_Y + centerOffset, ballLocation.y,
+                    EPSILON);
+        }
+        assertFalse(player.playFrame());
+
+        player.release();
+        gameLoop.release();
+        source.release();
+    }
+
+    /**
+     * Records the camera frames showing the Euglena at its field positions. With flip set the
+     * field is the camera frame rotated by 180 degrees, as on the phone.
+     */
+    private void recordSession(boolean flip) throws Exception {
+        SessionRecorder recorder = new SessionRecorder(mSessionDirectory, WIDTH, HEIGHT, FRAMES,
+                SessionRecorder.DEFAULT_EVENT_BUFFER_CAPACITY);
+        recorder.start();
+
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int fieldX = START_X + STEP_X * frame;
+            int sensorX = flip ? WIDTH - EUGLENA_SIZE - fieldX : fieldX;
+            int sensorY = flip ? HEIGHT - EUGLENA_SIZE - START_Y : START_Y;
+            drawFrame(nv21, sensorX, sensorY);
+            recorder.recordFrame(nv21);
+        }
+
+        recorder.stop();
+        assertNull(recorder.getWriteError());
+        assertEquals(FRAMES, recorder.getRecordedFrameCount());
+    }
+
+    /**
+     * Fills the NV21 frame with a gray background and draws the Euglena with its top left corner
+     * at the given even camera coordinates.
+     */
+    private static void drawFrame(byte[] nv21, int left, int top) {
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, BACKGROUND_LUMA);
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, NEUTRAL_CHROMA);
+
+        for (int y = top; y < top + EUGLENA_SIZE; y++) {
+            Arrays.fill(nv21, y * WIDTH + left, y * WIDTH + left + EUGLENA_SIZE, EUGLENA_LUMA);
+        }
+        // The chroma rows hold interleaved V and U samples for every 2x2 block.
+        for (int y = top / 2; y < (top + EUGLENA_SIZE) / 2; y++) {
+            for (int x = left; x < left + EUGLENA_SIZE; x += 2) {
+                nv21[WIDTH * HEIGHT + y * WIDTH + x] = EUGLENA_V;
+                nv21[WIDTH * HEIGHT + y * WIDTH + x + 1] = EUGLENA_U;
+            }
+        }
+    }
+}
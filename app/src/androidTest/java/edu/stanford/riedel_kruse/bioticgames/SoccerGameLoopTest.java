@@ -0,0 +1,37 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Checks that requests from the UI thread reach the game on the loop's next frame, including ones
+ * made before the game exists.
+ */
+public class SoccerGameLoopTest extends OpenCVTestCase {
+    private static final int FIELD_WIDTH = 640;
+    private static final int FIELD_HEIGHT = 480;
+
+    public void testPassRequestedBeforeTheFirstFrameIsTakenOnIt() {
+        SoccerGameLoop gameLoop = new SoccerGameLoop(null);
+        gameLoop.setTracking(false);
+        assertNull(gameLoop.getSoccerGame());
+        gameLoop.requestPass();
+
+        Mat frame = Mat.zeros(FIELD_HEIGHT, FIELD_WIDTH, CvType.CV_8UC4);
+        gameLoop.updateGame(frame, 0);
+        assertTrue(gameLoop.getSoccerGame().isPassing());
+
+        // A reset in the same frame as a pass leaves the pass to the new game.
+        gameLoop.requestReset();
+        gameLoop.requestPass();
+        gameLoop.updateGame(frame, 0);
+        assertTrue(gameLoop.getSoccerGame().isPassing());
+
+        gameLoop.requestReset();
+        gameLoop.updateGame(frame, 0);
+        assertFalse(gameLoop.getSoccerGame().isPassing());
+
+        gameLoop.release();
+        frame.release();
+    }
+}
@@ -0,0 +1,193 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import org.opencv.core.Point;
+
+/**
+ * Checks SoccerGame's scoring and turn rules, on scripted plays and on simulated games. Point and
+ * Rect are plain Java, so OpenCV does not need to be loaded.
+ */
+public class SoccerGameRulesTest extends TestCase {
+    private static final int FIELD_WIDTH = 1280;
+    private static final int FIELD_HEIGHT = 720;
+    private static final int SEEDS = 20;
+    private static final long TICKS_PER_SEED = 100000;
+
+    private SoccerGame mGame;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGame = new SoccerGame(FIELD_WIDTH, FIELD_HEIGHT, null);
+    }
+
+    public void testRedStarts() {
+        assertEquals(SoccerGame.Turn.RED, mGame.getCurrentTurn());
+        assertEquals(SoccerGame.MILLISECONDS_PER_TURN, mGame.getTimeLeftInTurn());
+    }
+
+    public void testCarryingTheBallIntoTheGoalScoresNoPassPoints() {
+        carryBallTo(FIELD_WIDTH - SoccerGame.DEFAULT_GOAL_WIDTH / 2, FIELD_HEIGHT / 2);
+
+        assertEquals(SoccerGame.NO_PASS_POINTS, mGame.getRedPlayerPoints());
+        assertEquals(0, mGame.getBluePlayerPoints());
+        // The ball goes back to the center and it is still red's turn.
+        assertEquals(new Point(FIELD_WIDTH / 2.0, FIELD_HEIGHT / 2.0), mGame.getBallLocation());
+        assertEquals(SoccerGame.Turn.RED, mGame.getCurrentTurn());
+    }
+
+    public void testPassingTheBallIntoTheGoalScoresOnePoint() {
+        // Carry the ball right, then pass it on towards the blue goal.
+        carryBallTo(FIELD_WIDTH - 200, FIELD_HEIGHT / 2);
+        mGame.passBall();
+        for (int i = 0; i < 100 && mGame.getRedPlayerPoints() == 0; i++) {
+            mGame.moveBallDuringPass(10);
+            mGame.checkCollisions();
+        }
+
+        assertEquals(1, mGame.getRedPlayerPoints());
+        assertFalse(mGame.isPassing());
+    }
+
+    public void testPassScoresEvenIfItWouldCrossTheGoalInOneFrame() {
+        carryBallTo(FIELD_WIDTH - 200, FIELD_HEIGHT / 2);
+        mGame.passBall();
+        // A single slow frame covers the whole pass, far past the goal.
+        mGame.moveBallDuringPass(SoccerGame.MILLISECONDS_PER_PASS);
+        mGame.checkCollisions();
+
+        assertEquals(1, mGame.getRedPlayerPoints());
+    }
+
+    public void testPassBouncesOffBothWallsInACorner() {
+        // Head straight for the top left corner of the walls.
+        carryBallTo(FIELD_WIDTH / 4.0 + SoccerGame.BOUNDS_BUFFER / 2.0,
+                FIELD_HEIGHT / 4.0 + SoccerGame.BOUNDS_BUFFER / 2.0);
+        mGame.passBall();
+        Point start = mGame.getBallLocation();
+        Point direction = mGame.getPassingDirection();
+        double cornerDistance = Math.hypot(start.x - SoccerGame.BOUNDS_BUFFER,
+                start.y - SoccerGame.BOUNDS_BUFFER);
+        long passTime = (long) Math.ceil(cornerDistance / SoccerGame.PASS_SPEED) + 50;
+        mGame.moveBallDuringPass(passTime);
+        mGame.checkCollisions();
+
+        // The ball comes back the way it went.
+        double distancePastCorner = SoccerGame.PASS_SPEED * passTime - cornerDistance;
+        Point location = mGame.getBallLocation();
+        assertEquals(SoccerGame.BOUNDS_BUFFER - direction.x * distancePastCorner, location.x,
+                1e-6);
+        assertEquals(SoccerGame.BOUNDS_BUFFER - direction.y * distancePastCorner, location.y,
+                1e-6);
+        assertEquals(-direction.x, mGame.getPassingDirection().x, 1e-9);
+        assertEquals(-direction.y, mGame.getPassingDirection().y, 1e-9);
+        assertEquals(SoccerGame.Turn.RED, mGame.getCurrentTurn());
+    }
+
+    public void testPassOutcomeDoesNotDependOnTheFrameRate() {
+        long[] frameTimes = {1, 16, 33, 250, SoccerGame.MILLISECONDS_PER_PASS};
+        SoccerGame[] games = new SoccerGame[frameTimes.length];
+        for (int i = 0; i < frameTimes.length; i++) {
+            mGame = new SoccerGame(FIELD_WIDTH, FIELD_HEIGHT, null);
+            // A shallow angle that bounces off the top and bottom walls on its way.
+            carryBallTo(FIELD_WIDTH / 2 + 100, FIELD_HEIGHT / 2 - 300);
+            mGame.passBall();
+            while (mGame.isPassing()) {
+                mGame.moveBallDuringPass(frameTimes[i]);
+                mGame.checkCollisions();
+            }
+            games[i] = mGame;
+        }
+
+        for (int i = 1; i < games.length; i++) {
+            assertEquals(games[0].getRedPlayerPoints(), games[i].getRedPlayerPoints());
+            assertEquals(games[0].getCurrentTurn(), games[i].getCurrentTurn());
+            assertEquals(games[0].getBallLocation().x, games[i].getBallLocation().x, 1e-6);
+            assertEquals(games[0].getBallLocation().y, games[i].getBallLocation().y, 1e-6);
+        }
+    }
+
+    public void testScoringInTheOwnGoalDoesNotCount() {
+        carryBallTo(SoccerGame.DEFAULT_GOAL_WIDTH / 2, FIELD_HEIGHT / 2);
+
+        assertEquals(0, mGame.getRedPlayerPoints());
+        assertEquals(0, mGame.getBluePlayerPoints());
+    }
+
+    public void testCarryingTheBallOutOfBoundsEndsTheTurn() {
+        carryBallTo(FIELD_WIDTH / 2, 0);
+
+        assertEquals(SoccerGame.Turn.BLUE, mGame.getCurrentTurn());
+        assertEquals(SoccerGame.MILLISECONDS_PER_TURN, mGame.getTimeLeftInTurn());
+    }
+
+    public void testTurnEndsWhenTheTimeRunsOut() {
+        mGame.updateTime(SoccerGame.MILLISECONDS_PER_TURN - 1);
+        assertEquals(SoccerGame.Turn.RED, mGame.getCurrentTurn());
+
+        mGame.updateTime(1);
+        assertEquals(SoccerGame.Turn.BLUE, mGame.getCurrentTurn());
+    }
+
+    public void testGameEndsAfterTheLastTurn() {
+        for (int i = 1; i < SoccerGame.NUM_TURNS_PER_GAME; i++) {
+            mGame.updateTime(SoccerGame.MILLISECONDS_PER_TURN);
+            assertFalse(mGame.isGameOver());
+        }
+        mGame.updateTime(SoccerGame.MILLISECONDS_PER_TURN);
+        assertTrue(mGame.isGameOver());
+    }
+
+    public void testResetAlwaysGivesAFullGame() {
+        // Reset during red's second turn, then play the whole game again.
+        mGame.updateTime(SoccerGame.MILLISECONDS_PER_TURN);
+        mGame.updateTime(SoccerGame.MILLISECONDS_PER_TURN);
+        assertEquals(SoccerGame.Turn.RED, mGame.getCurrentTurn());
+        mGame.reset();
+
+        assertEquals(SoccerGame.Turn.RED, mGame.getCurrentTurn());
+        testGameEndsAfterTheLastTurn();
+    }
+
+    public void testSimulatedGamesFollowTheRules() {
+        for (long seed = 0; seed < SEEDS; seed++) {
+            SoccerGameSimulation simulation = new SoccerGameSimulation(FIELD_WIDTH,
+                    FIELD_HEIGHT, seed);
+            simulation.setCheckingRules(true);
+            simulation.run(TICKS_PER_SEED);
+
+            assertTrue(simulation.getGoals() > 0);
+            assertTrue(simulation.getGamesPlayed() > 0);
+        }
+    }
+
+    public void testSimulationIsDeterministic() {
+        SoccerGameSimulation first = new SoccerGameSimulation(FIELD_WIDTH, FIELD_HEIGHT, 7);
+        SoccerGameSimulation second = new SoccerGameSimulation(FIELD_WIDTH, FIELD_HEIGHT, 7);
+        first.run(TICKS_PER_SEED);
+        second.run(TICKS_PER_SEED);
+
+        assertEquals(first.getGoals(), second.getGoals());
+        assertEquals(first.getTurnChanges(), second.getTurnChanges());
+        assertEquals(first.getGame().getBallLocation(), second.getGame().getBallLocation());
+    }
+
+    /**
+     * Moves the ball to the given location in steps small enough for the ball history, then
+     * checks for collisions like a frame would.
+     */
+    private void carryBallTo(double x, double y) {
+        Point location = mGame.getBallLocation();
+        double dx = x - location.x;
+        double dy = y - location.y;
+        int steps = (int) Math.ceil(Math.sqrt(dx * dx + dy * dy) / 5);
+        Point step = new Point();
+        for (int i = 1; i <= steps; i++) {
+            step.x = location.x + dx * i / steps;
+            step.y = location.y + dy * i / steps;
+            mGame.updateBallLocation(step);
+        }
+        mGame.checkCollisions();
+    }
+}
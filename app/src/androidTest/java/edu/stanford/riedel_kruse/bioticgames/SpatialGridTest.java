@@ -0,0 +1,106 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Checks SpatialGrid's queries where the grid could cut them short: across cell boundaries, far
+ * from any point, at the distance limit and outside the field.
+ */
+public class SpatialGridTest extends TestCase {
+    private static final int FIELD_WIDTH = 1280;
+    private static final int FIELD_HEIGHT = 720;
+    private static final double CELL_SIZE = 50;
+
+    private SpatialGrid mGrid;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGrid = new SpatialGrid(FIELD_WIDTH, FIELD_HEIGHT, CELL_SIZE);
+    }
+
+    public void testEmptyGridFindsNothing() {
+        build(new double[0], new double[0]);
+        assertEquals(-1, mGrid.findNearest(100, 100, Double.MAX_VALUE));
+        assertEquals(0, mGrid.findWithinRadius(100, 100, 1000, new int[4]));
+    }
+
+    public void testFindNearestLooksAcrossACellBoundary() {
+        // The query is just inside the second column. The point in its own cell is further away
+        // than the one just across the boundary.
+        build(new double[] {98, 45}, new double[] {25, 25});
+        assertEquals(1, mGrid.findNearest(52, 25, Double.MAX_VALUE));
+    }
+
+    public void testFindNearestLooksAcrossACellCorner() {
+        build(new double[] {99, 48}, new double[] {99, 48});
+        assertEquals(1, mGrid.findNearest(52, 52, Double.MAX_VALUE));
+    }
+
+    public void testFindNearestSearchesOutwardUntilItFindsAPoint() {
+        // A single point in the opposite corner of the field, many cells away.
+        build(new double[] {1200}, new double[] {700});
+        assertEquals(0, mGrid.findNearest(10, 10, Double.MAX_VALUE));
+    }
+
+    public void testFindNearestIgnoresPointsAtOrBeyondMaxDistance() {
+        build(new double[] {100}, new double[] {100});
+        assertEquals(0, mGrid.findNearest(100, 160, 61));
+        assertEquals(-1, mGrid.findNearest(100, 160, 60));
+        assertEquals(-1, mGrid.findNearest(100, 160, 59));
+    }
+
+    public void testFindNearestReachesPointsOutsideTheField() {
+        // Points outside the field are kept in the border cells at their own coordinates.
+        build(new double[] {-200, 1400}, new double[] {360, 360});
+        assertEquals(0, mGrid.findNearest(0, 360, Double.MAX_VALUE));
+        assertEquals(1, mGrid.findNearest(FIELD_WIDTH - 1, 360, Double.MAX_VALUE));
+        assertEquals(-1, mGrid.findNearest(0, 360, 150));
+    }
+
+    public void testFindWithinRadiusLooksIntoEveryCellAroundACorner() {
+        // One point in each of the four cells meeting at (50, 50), and one just out of reach.
+        build(new double[] {45, 55, 45, 55, 58}, new double[] {45, 45, 55, 55, 58});
+
+        int[] result = new int[8];
+        int found = mGrid.findWithinRadius(50, 50, 10, result);
+        assertEquals(4, found);
+        int[] points = Arrays.copyOf(result, found);
+        Arrays.sort(points);
+        assertTrue(Arrays.equals(new int[] {0, 1, 2, 3}, points));
+    }
+
+    public void testFindWithinRadiusIncludesPointsOnTheCircle() {
+        build(new double[] {100, 130}, new double[] {100, 100});
+        assertEquals(2, mGrid.findWithinRadius(100, 100, 30, new int[2]));
+    }
+
+    public void testFindWithinRadiusCountsPastTheResultArray() {
+        double[] xs = new double[10];
+        double[] ys = new double[10];
+        for (int i = 0; i < 10; i++) {
+            xs[i] = 100 + i;
+            ys[i] = 100;
+        }
+        build(xs, ys);
+
+        int[] result = new int[4];
+        assertEquals(10, mGrid.findWithinRadius(105, 100, 20, result));
+    }
+
+    public void testRebuildForgetsEarlierPoints() {
+        build(new double[] {100, 110, 120}, new double[] {100, 100, 100});
+        build(new double[] {600}, new double[] {300});
+
+        assertEquals(1, mGrid.getPointCount());
+        assertEquals(0, mGrid.findNearest(100, 100, Double.MAX_VALUE));
+        assertEquals(0, mGrid.findWithinRadius(100, 100, 50, new int[4]));
+    }
+
+    private void build(double[] xs, double[] ys) {
+        mGrid.build(xs, ys, xs.length);
+        assertEquals(xs.length, mGrid.getPointCount());
+    }
+}
@@ -0,0 +1,94 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+/**
+ * A fixed size history of the most recent ball locations, stored in a circular buffer of
+ * primitives.
+ *
+ * The average velocity over a window is the sum of the displacements between consecutive
+ * locations divided by the number of locations, as computed by MathUtil.computeAverageVelocity.
+ * That sum telescopes to the newest location minus the oldest one in the window, so averages over
+ * any window up to the capacity take constant time, and adding a location neither shifts the
+ * buffer nor allocates.
+ */
+public class BallLocationHistory {
+    private final double[] mXs;
+    private final double[] mYs;
+    /**
+     * Index the next location will be written to.
+     */
+    private int mHead;
+    private int mSize;
+
+    /**
+     * @param capacity The number of locations kept, i.e. the largest window that can be averaged.
+     */
+    public BallLocationHistory(int capacity) {
+        mXs = new double[capacity];
+        mYs = new double[capacity];
+    }
+
+    /**
+     * Adds a location, dropping the oldest one if the history is full.
+     */
+    public void add(double x, double y) {
+        mXs[mHead] = x;
+        mYs[mHead] = y;
+        mHead = (mHead + 1) % mXs.length;
+        if (mSize < mXs.length) {
+            mSize++;
+        }
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mXs.length;
+    }
+
+    /**
+     * @param window The number of most recent locations to average over.
+     * @return The average x displacement per location over the window, or 0 if fewer than two
+     * locations are available.
+     */
+    public double getAverageVelocityX(int window) {
+        return averageDisplacement(mXs, window);
+    }
+
+    /**
+     * @param window The number of most recent locations to average over.
+     * @return The average y displacement per location over the window, or 0 if fewer than two
+     * locations are available.
+     */
+    public double getAverageVelocityY(int window) {
+        return averageDisplacement(mYs, window);
+    }
+
+    /**
+     * @param window The number of most recent locations to average over.
+     * @return The length of the average velocity over the window.
+     */
+    public double getAverageSpeed(int window) {
+        double velocityX = getAverageVelocityX(window);
+        double velocityY = getAverageVelocityY(window);
+        return Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+    }
+
+    private double averageDisplacement(double[] values, int window) {
+        int count = Math.min(window, mSize);
+        if (count <= 1) {
+            return 0;
+        }
+
+        int capacity = values.length;
+        int newest = (mHead - 1 + capacity) % capacity;
+        int oldest = (mHead - count + capacity) % capacity;
+        return (values[newest] - values[oldest]) / count;
+    }
+}
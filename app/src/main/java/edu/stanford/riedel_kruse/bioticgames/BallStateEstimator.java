@@ -0,0 +1,155 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+/**
+ * A constant velocity Kalman filter for the ball, stepped once per frame.
+ *
+ * The state is position and velocity in pixels and pixels per frame, and the measurement is the
+ * position of the Euglena carrying the ball. Both axes have the same motion model and are measured
+ * together, so they share one 2x2 covariance and the filter reduces to a few multiply-adds per
+ * frame. This is cheaper than org.opencv.video.KalmanFilter, which allocates result Mats on every
+ * predict and correct, and it does not need any native resources.
+ */
+public class BallStateEstimator {
+    /**
+     * Variance of the random acceleration assumed between two frames, in pixels per frame squared.
+     */
+    public static final double DEFAULT_PROCESS_NOISE = 0.5;
+    /**
+     * Variance of the detected position, in pixels squared.
+     */
+    public static final double DEFAULT_MEASUREMENT_NOISE = 4;
+
+    /**
+     * Velocity variance assumed for a freshly started estimate, since a single measurement says
+     * nothing about the velocity.
+     */
+    private static final double INITIAL_VELOCITY_VARIANCE = 25;
+
+    private final double mProcessNoise;
+    private final double mMeasurementNoise;
+
+    private boolean mInitialized;
+    private double mX;
+    private double mY;
+    private double mVelocityX;
+    private double mVelocityY;
+
+    // Covariance of (position, velocity), shared by both axes.
+    private double mPositionVariance;
+    private double mCovariance;
+    private double mVelocityVariance;
+
+    public BallStateEstimator() {
+        this(DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    public BallStateEstimator(double processNoise, double measurementNoise) {
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+    }
+
+    /**
+     * Forgets the current estimate. The next measurement starts a new one.
+     */
+    public void reset() {
+        mInitialized = false;
+    }
+
+    public boolean isInitialized() {
+        return mInitialized;
+    }
+
+    /**
+     * Advances the estimate by one frame and corrects it with the measured position.
+     */
+    public void update(double measuredX, double measuredY) {
+        if (!mInitialized) {
+            mX = measuredX;
+            mY = measuredY;
+            mVelocityX = 0;
+            mVelocityY = 0;
+            mPositionVariance = mMeasurementNoise;
+            mCovariance = 0;
+            mVelocityVariance = INITIAL_VELOCITY_VARIANCE;
+            mInitialized = true;
+            return;
+        }
+
+        predict();
+
+        double innovationVariance = mPositionVariance + mMeasurementNoise;
+        double positionGain = mPositionVariance / innovationVariance;
+        double velocityGain = mCovariance / innovationVariance;
+
+        double innovationX = measuredX - mX;
+        double innovationY = measuredY - mY;
+        mX += positionGain * innovationX;
+        mY += positionGain * innovationY;
+        mVelocityX += velocityGain * innovationX;
+        mVelocityY += velocityGain * innovationY;
+
+        mVelocityVariance -= velocityGain * mCovariance;
+        mCovariance *= 1 - positionGain;
+        mPositionVariance *= 1 - positionGain;
+    }
+
+    /**
+     * Advances the estimate by one frame without a measurement, e.g. when the Euglena carrying the
+     * ball was not detected. The uncertainty grows accordingly.
+     */
+    public void coast() {
+        if (mInitialized) {
+            predict();
+        }
+    }
+
+    public double getX() {
+        return mX;
+    }
+
+    public double getY() {
+        return mY;
+    }
+
+    public double getVelocityX() {
+        return mVelocityX;
+    }
+
+    public double getVelocityY() {
+        return mVelocityY;
+    }
+
+    /**
+     * @return The expected x position in the next frame.
+     */
+    public double getPredictedX() {
+        return mX + mVelocityX;
+    }
+
+    /**
+     * @return The expected y position in the next frame.
+     */
+    public double getPredictedY() {
+        return mY + mVelocityY;
+    }
+
+    /**
+     * @return The standard deviation of the predicted position along each axis, in pixels.
+     */
+    public double getPredictionError() {
+        return Math.sqrt(mPositionVariance + 2 * mCovariance + mVelocityVariance +
+                mProcessNoise / 4);
+    }
+
+    /**
+     * Applies the motion model x' = x + v with a random acceleration between frames.
+     */
+    private void predict() {
+        mX += mVelocityX;
+        mY += mVelocityY;
+
+        mPositionVariance += 2 * mCovariance + mVelocityVariance + mProcessNoise / 4;
+        mCovariance += mVelocityVariance + mProcessNoise / 2;
+        mVelocityVariance += mProcessNoise;
+    }
+}
@@ -0,0 +1,251 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Mat;
+
+/**
+ * Finds the 8-connected blobs of a binary mask and measures their area, centroid and bounding box
+ * in plain Java, without Imgproc.findContours, Moments objects or Point allocations.
+ *
+ * The mask is read once and split into horizontal runs of set pixels. Runs that touch a run of the
+ * previous row are merged with a union-find, and the statistics of every run are then folded into
+ * its blob. The centroid is the mean position of the blob's pixels, which is what contour moments
+ * approximate. Unlike a RETR_TREE contour search, holes inside a blob do not show up as separate
+ * blobs.
+ *
+ * All buffers grow to fit the largest mask and blob count seen so far and are reused afterwards,
+ * so steady-state extraction does not allocate. Results stay valid until the next call to
+ * extract(). An extractor is not thread safe.
+ */
+public class BlobExtractor {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private byte[] mPixels = new byte[0];
+
+    // Runs of set pixels: row, first column and last column (inclusive).
+    private int[] mRunRow = new int[INITIAL_CAPACITY];
+    private int[] mRunStart = new int[INITIAL_CAPACITY];
+    private int[] mRunEnd = new int[INITIAL_CAPACITY];
+    private int[] mRunParent = new int[INITIAL_CAPACITY];
+    private int[] mRunBlob = new int[INITIAL_CAPACITY];
+    private int mRunCount;
+
+    private int[] mArea = new int[INITIAL_CAPACITY];
+    private double[] mSumX = new double[INITIAL_CAPACITY];
+    private double[] mSumY = new double[INITIAL_CAPACITY];
+    private int[] mMinX = new int[INITIAL_CAPACITY];
+    private int[] mMinY = new int[INITIAL_CAPACITY];
+    private int[] mMaxX = new int[INITIAL_CAPACITY];
+    private int[] mMaxY = new int[INITIAL_CAPACITY];
+    private int mBlobCount;
+
+    /**
+     * Extracts the blobs of a single channel 8-bit mask. Any non-zero pixel counts as set.
+     *
+     * @return The number of blobs found.
+     */
+    public int extract(Mat mask) {
+        int width = mask.cols();
+        int height = mask.rows();
+        int size = width * height;
+        if (mPixels.length < size) {
+            mPixels = new byte[size];
+        }
+
+        if (mask.isContinuous()) {
+            mask.get(0, 0, mPixels);
+        } else {
+            Mat copy = mask.clone();
+            copy.get(0, 0, mPixels);
+            copy.release();
+        }
+
+        return extract(mPixels, width, height);
+    }
+
+    /**
+     * Extracts the blobs of a mask stored row by row in a byte array.
+     *
+     * @return The number of blobs found.
+     */
+    public int extract(byte[] pixels, int width, int height) {
+        mRunCount = 0;
+
+        int previousRowFirstRun = 0;
+        int previousRowEndRun = 0;
+        for (int row = 0; row < height; row++) {
+            int rowOffset = row * width;
+            int rowFirstRun = mRunCount;
+            int candidate = previousRowFirstRun;
+
+            int column = 0;
+            while (column < width) {
+                if (pixels[rowOffset + column] == 0) {
+                    column++;
+                    continue;
+                }
+
+                int start = column;
+                while (column < width && pixels[rowOffset + column] != 0) {
+                    column++;
+                }
+                int end = column - 1;
+
+                int run = addRun(row, start, end);
+
+                // Runs of the previous row are sorted by column, so skip the ones that end too far
+                // left to touch this run, then union with every one that overlaps it (including
+                // diagonally).
+                while (candidate < previousRowEndRun && mRunEnd[candidate] < start - 1) {
+                    candidate++;
+                }
+                for (int other = candidate; other < previousRowEndRun; other++) {
+                    if (mRunStart[other] > end + 1) {
+                        break;
+                    }
+                    union(run, other);
+                }
+            }
+
+            previousRowFirstRun = rowFirstRun;
+            previousRowEndRun = mRunCount;
+        }
+
+        collectBlobs();
+        return mBlobCount;
+    }
+
+    public int getBlobCount() {
+        return mBlobCount;
+    }
+
+    public int getArea(int blob) {
+        return mArea[blob];
+    }
+
+    public double getCentroidX(int blob) {
+        return mSumX[blob] / mArea[blob];
+    }
+
+    public double getCentroidY(int blob) {
+        return mSumY[blob] / mArea[blob];
+    }
+
+    public int getMinX(int blob) {
+        return mMinX[blob];
+    }
+
+    public int getMinY(int blob) {
+        return mMinY[blob];
+    }
+
+    public int getMaxX(int blob) {
+        return mMaxX[blob];
+    }
+
+    public int getMaxY(int blob) {
+        return mMaxY[blob];
+    }
+
+    private int addRun(int row, int start, int end) {
+        if (mRunCount == mRunRow.length) {
+            int capacity = mRunCount * 2;
+            mRunRow = grow(mRunRow, capacity);
+            mRunStart = grow(mRunStart, capacity);
+            mRunEnd = grow(mRunEnd, capacity);
+            mRunParent = grow(mRunParent, capacity);
+            mRunBlob = grow(mRunBlob, capacity);
+        }
+
+        int run = mRunCount++;
+        mRunRow[run] = row;
+        mRunStart[run] = start;
+        mRunEnd[run] = end;
+        mRunParent[run] = run;
+        return run;
+    }
+
+    private int find(int run) {
+        while (mRunParent[run] != run) {
+            // Path halving keeps the trees flat without recursion.
+            mRunParent[run] = mRunParent[mRunParent[run]];
+            run = mRunParent[run];
+        }
+        return run;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA < rootB) {
+            mRunParent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            mRunParent[rootA] = rootB;
+        }
+    }
+
+    /**
+     * Numbers the blobs in order of their first run (top to bottom, left to right) and folds the
+     * statistics of every run into its blob.
+     */
+    private void collectBlobs() {
+        mBlobCount = 0;
+        for (int run = 0; run < mRunCount; run++) {
+            int root = find(run);
+            int blob;
+            if (root == run) {
+                blob = addBlob();
+            } else {
+                blob = mRunBlob[root];
+            }
+            mRunBlob[run] = blob;
+
+            int row = mRunRow[run];
+            int start = mRunStart[run];
+            int end = mRunEnd[run];
+            int length = end - start + 1;
+
+            mArea[blob] += length;
+            mSumX[blob] += length * (start + end) / 2.0;
+            mSumY[blob] += (double) length * row;
+            mMinX[blob] = Math.min(mMinX[blob], start);
+            mMaxX[blob] = Math.max(mMaxX[blob], end);
+            mMinY[blob] = Math.min(mMinY[blob], row);
+            mMaxY[blob] = Math.max(mMaxY[blob], row);
+        }
+    }
+
+    private int addBlob() {
+        if (mBlobCount == mArea.length) {
+            int capacity = mBlobCount * 2;
+            mArea = grow(mArea, capacity);
+            mSumX = grow(mSumX, capacity);
+            mSumY = grow(mSumY, capacity);
+            mMinX = grow(mMinX, capacity);
+            mMinY = grow(mMinY, capacity);
+            mMaxX = grow(mMaxX, capacity);
+            mMaxY = grow(mMaxY, capacity);
+        }
+
+        int blob = mBlobCount++;
+        mArea[blob] = 0;
+        mSumX[blob] = 0;
+        mSumY[blob] = 0;
+        mMinX[blob] = Integer.MAX_VALUE;
+        mMinY[blob] = Integer.MAX_VALUE;
+        mMaxX[blob] = Integer.MIN_VALUE;
+        mMaxY[blob] = Integer.MIN_VALUE;
+        return blob;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        double[] grown = new double[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -10,10 +10,30 @@ import org.opencv.android.JavaCameraView;
  * Created by dchiu on 10/16/14.
  */
 public class CameraView extends JavaCameraView {
+    private volatile SessionRecorder mSessionRecorder;
+
     public CameraView(Context context, AttributeSet attrs) {
         super(context, attrs);
     }
 
+    /**
+     * Sets the recorder to hand the raw preview frames to, or null to stop handing them over.
+     */
+    public void setSessionRecorder(SessionRecorder sessionRecorder) {
+        mSessionRecorder = sessionRecorder;
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] frame, Camera camera) {
+        // The recorder copies the frame without waiting for the disk, so the camera thread is not
+        // held up.
+        SessionRecorder sessionRecorder = mSessionRecorder;
+        if (sessionRecorder != null) {
+            sessionRecorder.recordFrame(frame);
+        }
+        super.onPreviewFrame(frame, camera);
+    }
+
     @Override
     public boolean connectCamera(int width, int height) {
         boolean retValue = super.connectCamera(width, height);
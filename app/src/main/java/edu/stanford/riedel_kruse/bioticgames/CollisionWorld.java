@@ -0,0 +1,320 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Point;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.riedel_kruse.bioticgamessdk.Circle;
+import edu.stanford.riedel_kruse.bioticgamessdk.CollisionUtil;
+import edu.stanford.riedel_kruse.bioticgamessdk.CompositeShape;
+import edu.stanford.riedel_kruse.bioticgamessdk.GameObject;
+import edu.stanford.riedel_kruse.bioticgamessdk.Rectangle;
+import edu.stanford.riedel_kruse.bioticgamessdk.Shape;
+
+/**
+ * Finds all pairs of colliding GameObjects among a set of registered objects, without testing
+ * every object against every other one.
+ *
+ * Every physical shape is bounded by an axis-aligned box; a CompositeShape contributes one box
+ * per physical child, so its children are only tested against shapes that are actually near
+ * them. Each step() the boxes are recomputed from the objects' current positions, kept sorted by
+ * their left edge with an insertion sort (cheap, since objects move little between frames) and
+ * swept from left to right: only boxes that overlap are handed to CollisionUtil. The result is
+ * the same as calling CollisionUtil.collided() on every pair of registered objects.
+ *
+ * Shapes other than Circle and Rectangle cannot be bounded and are tested against every other
+ * shape. The children of a CompositeShape must not change after it has been added. Once the
+ * buffers have grown to the number of shapes, step() does not allocate.
+ */
+public class CollisionWorld {
+    /**
+     * Receives the contacts found by a step.
+     */
+    public interface ContactListener {
+        /**
+         * Called once per step with all pairs of colliding objects, first[i] with second[i]. The
+         * arrays are reused by the next step.
+         */
+        public void onContacts(GameObject[] first, GameObject[] second, int count);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int KIND_CIRCLE = 0;
+    private static final int KIND_RECTANGLE = 1;
+    private static final int KIND_UNBOUNDED = 2;
+
+    private GameObject[] mObjects = new GameObject[INITIAL_CAPACITY];
+    private int mObjectCount;
+
+    /**
+     * The physical shapes of all objects, with the index of the object they belong to and their
+     * bounding box as of the last step.
+     */
+    private Shape[] mShapes = new Shape[INITIAL_CAPACITY];
+    private int[] mShapeOwners = new int[INITIAL_CAPACITY];
+    private int[] mShapeKinds = new int[INITIAL_CAPACITY];
+    private double[] mMinXs = new double[INITIAL_CAPACITY];
+    private double[] mMaxXs = new double[INITIAL_CAPACITY];
+    private double[] mMinYs = new double[INITIAL_CAPACITY];
+    private double[] mMaxYs = new double[INITIAL_CAPACITY];
+    private int mShapeCount;
+    /**
+     * Shape indices sorted by the left edge of their box as of the last step.
+     */
+    private int[] mOrder = new int[INITIAL_CAPACITY];
+
+    /**
+     * Colliding object pairs as lower index * object count + higher index, to report every pair
+     * once even if several of their shapes touch.
+     */
+    private long[] mPairKeys = new long[INITIAL_CAPACITY];
+    private int mPairCount;
+
+    private GameObject[] mFirst = new GameObject[INITIAL_CAPACITY];
+    private GameObject[] mSecond = new GameObject[INITIAL_CAPACITY];
+    private int mContactCount;
+
+    /**
+     * Registers an object. Adding an object that is already registered has no effect.
+     */
+    public void add(GameObject object) {
+        if (indexOf(object) >= 0) {
+            return;
+        }
+
+        if (mObjectCount == mObjects.length) {
+            mObjects = Arrays.copyOf(mObjects, mObjectCount * 2);
+        }
+        mObjects[mObjectCount] = object;
+        addShapes(object, mObjectCount);
+        mObjectCount++;
+    }
+
+    /**
+     * Unregisters an object.
+     *
+     * @return false if the object was not registered.
+     */
+    public boolean remove(GameObject object) {
+        int index = indexOf(object);
+        if (index < 0) {
+            return false;
+        }
+
+        mObjectCount--;
+        System.arraycopy(mObjects, index + 1, mObjects, index, mObjectCount - index);
+        mObjects[mObjectCount] = null;
+
+        // Removing is rare, so the shapes are simply collected again.
+        Arrays.fill(mShapes, 0, mShapeCount, null);
+        mShapeCount = 0;
+        for (int i = 0; i < mObjectCount; i++) {
+            addShapes(mObjects[i], i);
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(mObjects, 0, mObjectCount, null);
+        Arrays.fill(mShapes, 0, mShapeCount, null);
+        mObjectCount = 0;
+        mShapeCount = 0;
+        mContactCount = 0;
+    }
+
+    public int getObjectCount() {
+        return mObjectCount;
+    }
+
+    private int indexOf(GameObject object) {
+        for (int i = 0; i < mObjectCount; i++) {
+            if (mObjects[i] == object) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addShapes(GameObject object, int owner) {
+        if (object instanceof CompositeShape) {
+            List<Shape> children = ((CompositeShape) object).children();
+            for (int i = 0; i < children.size(); i++) {
+                addShape(children.get(i), owner);
+            }
+        } else if (object instanceof Shape) {
+            addShape((Shape) object, owner);
+        }
+    }
+
+    private void addShape(Shape shape, int owner) {
+        // CollisionUtil never reports a collision with a shape that is not physical.
+        if (!shape.isPhysical()) {
+            return;
+        }
+
+        ensureShapeCapacity(mShapeCount + 1);
+        int index = mShapeCount++;
+        mShapes[index] = shape;
+        mShapeOwners[index] = owner;
+        if (shape instanceof Circle) {
+            mShapeKinds[index] = KIND_CIRCLE;
+        } else if (shape instanceof Rectangle) {
+            mShapeKinds[index] = KIND_RECTANGLE;
+        } else {
+            mShapeKinds[index] = KIND_UNBOUNDED;
+        }
+        // New shapes go at the end and are sorted into place by the next step.
+        mOrder[index] = index;
+    }
+
+    private void ensureShapeCapacity(int capacity) {
+        if (capacity <= mShapes.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, mShapes.length * 2);
+        mShapes = Arrays.copyOf(mShapes, newCapacity);
+        mShapeOwners = Arrays.copyOf(mShapeOwners, newCapacity);
+        mShapeKinds = Arrays.copyOf(mShapeKinds, newCapacity);
+        mMinXs = Arrays.copyOf(mMinXs, newCapacity);
+        mMaxXs = Arrays.copyOf(mMaxXs, newCapacity);
+        mMinYs = Arrays.copyOf(mMinYs, newCapacity);
+        mMaxYs = Arrays.copyOf(mMaxYs, newCapacity);
+        mOrder = Arrays.copyOf(mOrder, newCapacity);
+    }
+
+    /**
+     * Finds all pairs of registered objects that collide at their current positions.
+     *
+     * @param listener Receives the contacts, or null to only read them through getContactCount(),
+     *                 getFirst() and getSecond().
+     * @return The number of colliding pairs.
+     */
+    public int step(ContactListener listener) {
+        updateBounds();
+        sortByLeftEdge();
+        findPairs();
+        collectContacts();
+
+        if (listener != null && mContactCount > 0) {
+            listener.onContacts(mFirst, mSecond, mContactCount);
+        }
+        return mContactCount;
+    }
+
+    public int getContactCount() {
+        return mContactCount;
+    }
+
+    public GameObject getFirst(int contact) {
+        return mFirst[contact];
+    }
+
+    public GameObject getSecond(int contact) {
+        return mSecond[contact];
+    }
+
+    private void updateBounds() {
+        for (int i = 0; i < mShapeCount; i++) {
+            Shape shape = mShapes[i];
+            Point position = shape.position();
+            switch (mShapeKinds[i]) {
+                case KIND_CIRCLE:
+                    int radius = ((Circle) shape).radius();
+                    mMinXs[i] = position.x - radius;
+                    mMaxXs[i] = position.x + radius;
+                    mMinYs[i] = position.y - radius;
+                    mMaxYs[i] = position.y + radius;
+                    break;
+                case KIND_RECTANGLE:
+                    Rectangle rectangle = (Rectangle) shape;
+                    mMinXs[i] = position.x;
+                    mMaxXs[i] = position.x + rectangle.width();
+                    mMinYs[i] = position.y;
+                    mMaxYs[i] = position.y + rectangle.height();
+                    break;
+                default:
+                    mMinXs[i] = Double.NEGATIVE_INFINITY;
+                    mMaxXs[i] = Double.POSITIVE_INFINITY;
+                    mMinYs[i] = Double.NEGATIVE_INFINITY;
+                    mMaxYs[i] = Double.POSITIVE_INFINITY;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Insertion sort, which takes linear time on the nearly sorted order left by the last step.
+     */
+    private void sortByLeftEdge() {
+        for (int i = 1; i < mShapeCount; i++) {
+            int shape = mOrder[i];
+            double minX = mMinXs[shape];
+            int j = i - 1;
+            while (j >= 0 && mMinXs[mOrder[j]] > minX) {
+                mOrder[j + 1] = mOrder[j];
+                j--;
+            }
+            mOrder[j + 1] = shape;
+        }
+    }
+
+    private void findPairs() {
+        mPairCount = 0;
+        for (int i = 0; i < mShapeCount; i++) {
+            int a = mOrder[i];
+            double maxX = mMaxXs[a];
+            // The boxes further right start further right, so the sweep can stop at the first one
+            // that starts past this box.
+            for (int j = i + 1; j < mShapeCount && mMinXs[mOrder[j]] <= maxX; j++) {
+                int b = mOrder[j];
+                if (mShapeOwners[a] == mShapeOwners[b] || mMinYs[b] > mMaxYs[a] ||
+                        mMinYs[a] > mMaxYs[b]) {
+                    continue;
+                }
+                if (CollisionUtil.collided(mShapes[a], mShapes[b])) {
+                    addPair(mShapeOwners[a], mShapeOwners[b]);
+                }
+            }
+        }
+    }
+
+    private void addPair(int ownerA, int ownerB) {
+        if (mPairCount == mPairKeys.length) {
+            mPairKeys = Arrays.copyOf(mPairKeys, mPairCount * 2);
+        }
+        int low = Math.min(ownerA, ownerB);
+        int high = Math.max(ownerA, ownerB);
+        mPairKeys[mPairCount++] = (long) low * mObjectCount + high;
+    }
+
+    private void collectContacts() {
+        // Sorting puts pairs found through several shapes next to each other, and makes the order
+        // of the contacts independent of how the shapes happen to be sorted.
+        Arrays.sort(mPairKeys, 0, mPairCount);
+
+        if (mFirst.length < mPairCount) {
+            mFirst = new GameObject[mPairKeys.length];
+            mSecond = new GameObject[mPairKeys.length];
+        }
+
+        int previousCount = mContactCount;
+        mContactCount = 0;
+        for (int i = 0; i < mPairCount; i++) {
+            if (i > 0 && mPairKeys[i] == mPairKeys[i - 1]) {
+                continue;
+            }
+            mFirst[mContactCount] = mObjects[(int) (mPairKeys[i] / mObjectCount)];
+            mSecond[mContactCount] = mObjects[(int) (mPairKeys[i] % mObjectCount)];
+            mContactCount++;
+        }
+
+        // Do not keep objects that may have been removed since alive.
+        if (previousCount > mContactCount) {
+            Arrays.fill(mFirst, mContactCount, previousCount, null);
+            Arrays.fill(mSecond, mContactCount, previousCount, null);
+        }
+    }
+}
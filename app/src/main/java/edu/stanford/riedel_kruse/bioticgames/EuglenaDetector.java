@@ -0,0 +1,289 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds Euglena in raw NV21 camera frames without allocating new native buffers on every frame.
+ *
+ * A detector owns all of the scratch Mats and blob buffers it needs and reuses them from one
+ * call to the next. As long as the size of the searched region stays the same, which is the
+ * normal case while tracking the ball, no native memory is allocated at all. Temporary Mat
+ * headers are released as soon as they are no longer needed instead of waiting for finalizers.
+ *
+ * Whole frames are thresholded on their NV21 planes by findEuglena, which gives the same mask as
+ * the SDK's RGBA to HSV pipeline without building either image. Regions are small enough that
+ * findEuglenaInFieldRoi converts them to HSV instead.
+ *
+ * A detector is meant to be used from a single thread (the camera frame thread). The list
+ * returned by the find methods, and the points in it, are owned by the detector and are only
+ * valid until the next call; copy anything that has to live longer. Call release() when the camera
+ * view stops to free the native memory right away. The detector stays usable afterwards and simply
+ * reallocates its buffers on the next call.
+ */
+public class EuglenaDetector {
+    /**
+     * Same thresholds as ImageProcessing. The SDK converts its RGBA input with COLOR_BGR2HSV, so
+     * findEuglenaInFieldRoi does the same on RGB data to keep these values valid.
+     */
+    static final Scalar LOWER_HSV_THRESHOLD = new Scalar(50, 50, 0);
+    static final Scalar UPPER_HSV_THRESHOLD = new Scalar(96, 200, 255);
+
+    /**
+     * The HSV thresholds as a table on NV21 samples. It is only built, once for all detectors,
+     * when the first whole frame is searched.
+     */
+    private static class FrameThreshold {
+        static final Nv21Threshold INSTANCE =
+                new Nv21Threshold(LOWER_HSV_THRESHOLD, UPPER_HSV_THRESHOLD);
+    }
+
+    private Mat mBlock;
+    private Mat mRgb;
+    private Mat mHsv;
+    private Mat mThresholded;
+
+    private MorphologyStage mMorphology;
+
+    /**
+     * Views into mBlock for its luma and chroma rows. They only depend on the size of the block,
+     * so they are kept until the block size changes.
+     */
+    private Mat mBlockLuma;
+    private Mat mBlockChroma;
+    private int mBlockWidth;
+    private int mBlockHeight;
+
+    private BlobExtractor mBlobExtractor;
+    private List<Point> mEuglenaLocations;
+    private List<Point> mPointPool;
+    private double[] mIndexXs = new double[0];
+    private double[] mIndexYs = new double[0];
+    private byte[] mFrameBytes = new byte[0];
+    private byte[] mMaskBytes = new byte[0];
+
+    public EuglenaDetector() {
+        mBlock = new Mat();
+        mRgb = new Mat();
+        mHsv = new Mat();
+        mThresholded = new Mat();
+
+        mMorphology = new MorphologyStage();
+
+        mBlobExtractor = new BlobExtractor();
+        mEuglenaLocations = new ArrayList<Point>();
+        mPointPool = new ArrayList<Point>();
+    }
+
+    /**
+     * Finds all Euglena in an NV21 frame by thresholding its Y and VU planes directly.
+     *
+     * @param yuv     The NV21 frame as returned by CvCameraViewFrame.yuv().
+     * @param flipped Whether the field is the camera frame flipped around both axes, as on the
+     *                phone, or the camera frame as it is.
+     * @return The centroids of the detected Euglena in field coordinates.
+     */
+    public List<Point> findEuglena(Mat yuv, boolean flipped) {
+        int width = yuv.cols();
+        int height = YuvImageProcessing.frameHeight(yuv);
+        int frameSize = width * height * 3 / 2;
+        if (mFrameBytes.length < frameSize) {
+            mFrameBytes = new byte[frameSize];
+            mMaskBytes = new byte[width * height];
+        }
+
+        if (yuv.isContinuous()) {
+            yuv.get(0, 0, mFrameBytes);
+        } else {
+            Mat copy = yuv.clone();
+            copy.get(0, 0, mFrameBytes);
+            copy.release();
+        }
+
+        FrameThreshold.INSTANCE.apply(mFrameBytes, width, height, mMaskBytes);
+        mThresholded.create(height, width, CvType.CV_8UC1);
+        mThresholded.put(0, 0, mMaskBytes);
+
+        findCentroids(mThresholded);
+
+        if (flipped) {
+            for (int i = 0; i < mEuglenaLocations.size(); i++) {
+                Point location = mEuglenaLocations.get(i);
+                location.x = width - 1 - location.x;
+                location.y = height - 1 - location.y;
+            }
+        }
+
+        return mEuglenaLocations;
+    }
+
+    /**
+     * Finds Euglena inside a region of interest given in field coordinates, where the field is the
+     * camera frame flipped around both axes (Core.flip with a flip code of -1). Only the pixels of
+     * the mirrored region are copied out of the NV21 frame and converted, so the full frame never
+     * has to be converted or flipped for tracking.
+     *
+     * @param yuv The NV21 frame as returned by CvCameraViewFrame.yuv().
+     * @param roi The region of interest in field coordinates.
+     * @return The centroids of the detected Euglena in field coordinates.
+     */
+    public List<Point> findEuglenaInFieldRoi(Mat yuv, Rect roi) {
+        return findEuglenaInFieldRoi(yuv, roi, true);
+    }
+
+    /**
+     * Finds Euglena inside a region of interest given in field coordinates.
+     *
+     * @param yuv     The NV21 frame as returned by CvCameraViewFrame.yuv().
+     * @param roi     The region of interest in field coordinates.
+     * @param flipped Whether the field is the camera frame flipped around both axes, as on the
+     *                phone, or the camera frame as it is.
+     * @return The centroids of the detected Euglena in field coordinates.
+     */
+    public List<Point> findEuglenaInFieldRoi(Mat yuv, Rect roi, boolean flipped) {
+        int frameWidth = yuv.cols();
+        int frameHeight = YuvImageProcessing.frameHeight(yuv);
+
+        // Map the region into sensor coordinates, mirroring it if the field is flipped.
+        int x = flipped ? frameWidth - roi.x - roi.width : roi.x;
+        int y = flipped ? frameHeight - roi.y - roi.height : roi.y;
+
+        // NV21 chroma is subsampled 2x2, so the block that gets converted has to start and end on
+        // even coordinates. The exact region is cut out of the converted block afterwards.
+        int blockLeft = x & ~1;
+        int blockTop = y & ~1;
+        int blockRight = Math.min((x + roi.width + 1) & ~1, frameWidth);
+        int blockBottom = Math.min((y + roi.height + 1) & ~1, frameHeight);
+        prepareBlock(blockRight - blockLeft, blockBottom - blockTop, yuv.type());
+
+        Mat luma = yuv.submat(blockTop, blockBottom, blockLeft, blockRight);
+        luma.copyTo(mBlockLuma);
+        luma.release();
+        Mat chroma = yuv.submat(frameHeight + blockTop / 2, frameHeight + blockBottom / 2,
+                blockLeft, blockRight);
+        chroma.copyTo(mBlockChroma);
+        chroma.release();
+
+        Imgproc.cvtColor(mBlock, mRgb, Imgproc.COLOR_YUV2RGB_NV21);
+
+        Mat rgbRoi = mRgb.submat(y - blockTop, y - blockTop + roi.height, x - blockLeft,
+                x - blockLeft + roi.width);
+        Imgproc.cvtColor(rgbRoi, mHsv, Imgproc.COLOR_BGR2HSV);
+        rgbRoi.release();
+
+        Core.inRange(mHsv, LOWER_HSV_THRESHOLD, UPPER_HSV_THRESHOLD, mThresholded);
+
+        findCentroids(mThresholded);
+
+        // The thresholded image covers the region in sensor coordinates, so move the centroids
+        // back into field coordinates, flipping them if the field is flipped.
+        for (int i = 0; i < mEuglenaLocations.size(); i++) {
+            Point location = mEuglenaLocations.get(i);
+            if (flipped) {
+                location.x = roi.x + roi.width - 1 - location.x;
+                location.y = roi.y + roi.height - 1 - location.y;
+            } else {
+                location.x += roi.x;
+                location.y += roi.y;
+            }
+        }
+
+        return mEuglenaLocations;
+    }
+
+    /**
+     * Rebuilds a spatial grid from the Euglena found by the most recent find call, so that several
+     * nearest-neighbour or radius queries can be answered for the same frame.
+     */
+    public void indexEuglena(SpatialGrid grid) {
+        int count = mEuglenaLocations.size();
+        if (mIndexXs.length < count) {
+            mIndexXs = new double[count * 2];
+            mIndexYs = new double[count * 2];
+        }
+
+        for (int i = 0; i < count; i++) {
+            Point location = mEuglenaLocations.get(i);
+            mIndexXs[i] = location.x;
+            mIndexYs[i] = location.y;
+        }
+
+        grid.build(mIndexXs, mIndexYs, count);
+    }
+
+    /**
+     * Frees all native memory held by this detector. Called when the camera view stops.
+     */
+    public void release() {
+        releaseBlockViews();
+        mBlock.release();
+        mRgb.release();
+        mHsv.release();
+        mThresholded.release();
+    }
+
+    /**
+     * Makes sure mBlock can hold an NV21 block of the given size, reusing the current allocation
+     * and views if the size has not changed.
+     */
+    private void prepareBlock(int width, int height, int type) {
+        if (mBlockLuma != null && width == mBlockWidth && height == mBlockHeight) {
+            return;
+        }
+
+        releaseBlockViews();
+        mBlock.create(height * 3 / 2, width, type);
+        mBlockLuma = mBlock.submat(0, height, 0, width);
+        mBlockChroma = mBlock.submat(height, height * 3 / 2, 0, width);
+        mBlockWidth = width;
+        mBlockHeight = height;
+    }
+
+    private void releaseBlockViews() {
+        if (mBlockLuma != null) {
+            mBlockLuma.release();
+            mBlockChroma.release();
+            mBlockLuma = null;
+            mBlockChroma = null;
+        }
+    }
+
+    /**
+     * Cleans up a thresholded image and fills mEuglenaLocations with the centroids of the
+     * remaining blobs, in the coordinates of the thresholded image.
+     */
+    private void findCentroids(Mat thresholded) {
+        mMorphology.apply(thresholded);
+
+        int blobCount = mBlobExtractor.extract(thresholded);
+
+        // Return the points of the previous call to the pool before handing out new ones. They are
+        // moved one at a time because addAll() copies the list into a new array.
+        for (int i = mEuglenaLocations.size() - 1; i >= 0; i--) {
+            mPointPool.add(mEuglenaLocations.remove(i));
+        }
+
+        for (int blob = 0; blob < blobCount; blob++) {
+            Point centroid = obtainPoint();
+            centroid.x = mBlobExtractor.getCentroidX(blob);
+            centroid.y = mBlobExtractor.getCentroidY(blob);
+            mEuglenaLocations.add(centroid);
+        }
+    }
+
+    private Point obtainPoint() {
+        int size = mPointPool.size();
+        if (size == 0) {
+            return new Point();
+        }
+        return mPointPool.remove(size - 1);
+    }
+}
@@ -0,0 +1,316 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+/**
+ * Keeps track of individual Euglena from frame to frame so that each one keeps the same ID while
+ * it swims around, even when it passes close to another one.
+ *
+ * Every frame, each track predicts where its Euglena should be from its last position and
+ * velocity. Detections within a gating distance of a prediction are candidates for that track,
+ * found through the spatial grid of the frame's detections. Candidate pairs are then assigned
+ * greedily from the closest pair outward, so each track and each detection is used at most once.
+ * Tracks without a detection coast on their velocity for a few frames before they are dropped, and
+ * detections without a track start new tracks.
+ *
+ * All track tables and scratch buffers are allocated up front, so updating does not allocate.
+ * Tracks are addressed by slot (0 to getTrackCount() - 1), which can change from one update to
+ * the next, and identified by their ID, which does not.
+ */
+public class EuglenaTracker {
+    public static final int NO_TRACK = -1;
+    public static final int DEFAULT_MAX_TRACKS = 256;
+    public static final int DEFAULT_MAX_MISSED_FRAMES = 5;
+
+    /**
+     * How much of the newly measured displacement goes into the velocity estimate each frame.
+     */
+    private static final double VELOCITY_SMOOTHING = 0.5;
+    private static final int MAX_CANDIDATES_PER_TRACK = 16;
+
+    private final int mMaxTracks;
+    private final int mMaxMissedFrames;
+    private final double mGateDistance;
+
+    private int[] mIds;
+    private double[] mXs;
+    private double[] mYs;
+    private double[] mVelocityXs;
+    private double[] mVelocityYs;
+    private int[] mAges;
+    private int[] mMissedFrames;
+    private int mTrackCount;
+    private int mNextId;
+
+    // Candidate (track, detection) pairs of the current update.
+    private int[] mPairTracks;
+    private int[] mPairDetections;
+    private double[] mPairDistances;
+    private int[] mPairOrder;
+    private int mPairCount;
+
+    private int[] mCandidates;
+    private boolean[] mTrackAssigned;
+    private boolean[] mDetectionAssigned;
+
+    /**
+     * @param gateDistance How far a detection may be from a track's predicted position and still
+     *                     be assigned to it, in pixels.
+     */
+    public EuglenaTracker(double gateDistance) {
+        this(gateDistance, DEFAULT_MAX_TRACKS, DEFAULT_MAX_MISSED_FRAMES);
+    }
+
+    public EuglenaTracker(double gateDistance, int maxTracks, int maxMissedFrames) {
+        mGateDistance = gateDistance;
+        mMaxTracks = maxTracks;
+        mMaxMissedFrames = maxMissedFrames;
+
+        mIds = new int[maxTracks];
+        mXs = new double[maxTracks];
+        mYs = new double[maxTracks];
+        mVelocityXs = new double[maxTracks];
+        mVelocityYs = new double[maxTracks];
+        mAges = new int[maxTracks];
+        mMissedFrames = new int[maxTracks];
+
+        int maxPairs = maxTracks * MAX_CANDIDATES_PER_TRACK;
+        mPairTracks = new int[maxPairs];
+        mPairDetections = new int[maxPairs];
+        mPairDistances = new double[maxPairs];
+        mPairOrder = new int[maxPairs];
+
+        mCandidates = new int[MAX_CANDIDATES_PER_TRACK];
+        mTrackAssigned = new boolean[maxTracks];
+        mDetectionAssigned = new boolean[0];
+    }
+
+    /**
+     * Advances all tracks by one frame using the detections indexed in the given grid.
+     */
+    public void update(SpatialGrid detections) {
+        int detectionCount = detections.getPointCount();
+        if (mDetectionAssigned.length < detectionCount) {
+            // Only grows until the busiest frame has been seen.
+            mDetectionAssigned = new boolean[detectionCount * 2];
+        }
+        for (int i = 0; i < detectionCount; i++) {
+            mDetectionAssigned[i] = false;
+        }
+
+        collectCandidatePairs(detections);
+        assignPairs(detections);
+
+        // Tracks that did not get a detection coast on their velocity, or are dropped once they
+        // have been missing for too long.
+        for (int track = mTrackCount - 1; track >= 0; track--) {
+            if (mTrackAssigned[track]) {
+                continue;
+            }
+            mMissedFrames[track]++;
+            if (mMissedFrames[track] > mMaxMissedFrames) {
+                removeTrack(track);
+            } else {
+                mXs[track] += mVelocityXs[track];
+                mYs[track] += mVelocityYs[track];
+                mAges[track]++;
+            }
+        }
+
+        // Every detection that was not claimed by an existing track starts a new one.
+        for (int detection = 0; detection < detectionCount && mTrackCount < mMaxTracks;
+             detection++) {
+            if (!mDetectionAssigned[detection]) {
+                addTrack(detections.getX(detection), detections.getY(detection));
+            }
+        }
+    }
+
+    /**
+     * Drops all tracks.
+     */
+    public void clear() {
+        mTrackCount = 0;
+    }
+
+    public int getTrackCount() {
+        return mTrackCount;
+    }
+
+    public int getId(int slot) {
+        return mIds[slot];
+    }
+
+    public double getX(int slot) {
+        return mXs[slot];
+    }
+
+    public double getY(int slot) {
+        return mYs[slot];
+    }
+
+    public double getVelocityX(int slot) {
+        return mVelocityXs[slot];
+    }
+
+    public double getVelocityY(int slot) {
+        return mVelocityYs[slot];
+    }
+
+    /**
+     * @return How many frames the track in this slot has existed for.
+     */
+    public int getAge(int slot) {
+        return mAges[slot];
+    }
+
+    /**
+     * @return How many consecutive frames the track in this slot has gone without a detection. 0
+     * means its position was measured in the latest frame.
+     */
+    public int getMissedFrames(int slot) {
+        return mMissedFrames[slot];
+    }
+
+    /**
+     * @return The slot of the track with the given ID, or NO_TRACK if it no longer exists.
+     */
+    public int findSlot(int id) {
+        for (int slot = 0; slot < mTrackCount; slot++) {
+            if (mIds[slot] == id) {
+                return slot;
+            }
+        }
+        return NO_TRACK;
+    }
+
+    /**
+     * @return The ID of the currently detected track closest to (x, y) within maxDistance, or
+     * NO_TRACK if there is none.
+     */
+    public int findNearestId(double x, double y, double maxDistance) {
+        int nearestId = NO_TRACK;
+        double nearestDistanceSquared = maxDistance * maxDistance;
+        for (int slot = 0; slot < mTrackCount; slot++) {
+            if (mMissedFrames[slot] > 0) {
+                continue;
+            }
+            double dx = mXs[slot] - x;
+            double dy = mYs[slot] - y;
+            double distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared <= nearestDistanceSquared) {
+                nearestDistanceSquared = distanceSquared;
+                nearestId = mIds[slot];
+            }
+        }
+        return nearestId;
+    }
+
+    private void collectCandidatePairs(SpatialGrid detections) {
+        mPairCount = 0;
+        for (int track = 0; track < mTrackCount; track++) {
+            mTrackAssigned[track] = false;
+
+            double predictedX = mXs[track] + mVelocityXs[track];
+            double predictedY = mYs[track] + mVelocityYs[track];
+            int found = Math.min(detections.findWithinRadius(predictedX, predictedY,
+                    mGateDistance, mCandidates), mCandidates.length);
+
+            for (int i = 0; i < found; i++) {
+                int detection = mCandidates[i];
+                double dx = detections.getX(detection) - predictedX;
+                double dy = detections.getY(detection) - predictedY;
+
+                mPairTracks[mPairCount] = track;
+                mPairDetections[mPairCount] = detection;
+                mPairDistances[mPairCount] = dx * dx + dy * dy;
+                mPairOrder[mPairCount] = mPairCount;
+                mPairCount++;
+            }
+        }
+    }
+
+    private void assignPairs(SpatialGrid detections) {
+        sortPairs(0, mPairCount - 1);
+
+        for (int i = 0; i < mPairCount; i++) {
+            int pair = mPairOrder[i];
+            int track = mPairTracks[pair];
+            int detection = mPairDetections[pair];
+            if (mTrackAssigned[track] || mDetectionAssigned[detection]) {
+                continue;
+            }
+            mTrackAssigned[track] = true;
+            mDetectionAssigned[detection] = true;
+
+            double x = detections.getX(detection);
+            double y = detections.getY(detection);
+            mVelocityXs[track] += VELOCITY_SMOOTHING * (x - mXs[track] - mVelocityXs[track]);
+            mVelocityYs[track] += VELOCITY_SMOOTHING * (y - mYs[track] - mVelocityYs[track]);
+            mXs[track] = x;
+            mYs[track] = y;
+            mAges[track]++;
+            mMissedFrames[track] = 0;
+        }
+    }
+
+    /**
+     * Sorts mPairOrder[low..high] by ascending pair distance.
+     */
+    private void sortPairs(int low, int high) {
+        while (low < high) {
+            double pivot = mPairDistances[mPairOrder[(low + high) >>> 1]];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (mPairDistances[mPairOrder[i]] < pivot) {
+                    i++;
+                }
+                while (mPairDistances[mPairOrder[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = mPairOrder[i];
+                    mPairOrder[i] = mPairOrder[j];
+                    mPairOrder[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+
+            // Recurse into the smaller half and loop on the larger one to bound the stack depth.
+            if (j - low < high - i) {
+                sortPairs(low, j);
+                low = i;
+            } else {
+                sortPairs(i, high);
+                high = j;
+            }
+        }
+    }
+
+    private void addTrack(double x, double y) {
+        int slot = mTrackCount++;
+        mIds[slot] = mNextId++;
+        mXs[slot] = x;
+        mYs[slot] = y;
+        mVelocityXs[slot] = 0;
+        mVelocityYs[slot] = 0;
+        mAges[slot] = 1;
+        mMissedFrames[slot] = 0;
+        mTrackAssigned[slot] = true;
+    }
+
+    /**
+     * Removes a track by moving the last track into its slot.
+     */
+    private void removeTrack(int slot) {
+        int last = --mTrackCount;
+        mIds[slot] = mIds[last];
+        mXs[slot] = mXs[last];
+        mYs[slot] = mYs[last];
+        mVelocityXs[slot] = mVelocityXs[last];
+        mVelocityYs[slot] = mVelocityYs[last];
+        mAges[slot] = mAges[last];
+        mMissedFrames[slot] = mMissedFrames[last];
+        mTrackAssigned[slot] = mTrackAssigned[last];
+    }
+}
@@ -0,0 +1,40 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+
+/**
+ * Draws shapes onto frames from plain coordinates. The Points handed to OpenCV are reused between
+ * calls, so drawing does not allocate. A FramePainter must only be used from one thread.
+ */
+public class FramePainter {
+    private final Point mPoint1 = new Point();
+    private final Point mPoint2 = new Point();
+
+    public void drawCircle(Mat frame, double centerX, double centerY, int radius, Scalar color,
+                           int thickness) {
+        mPoint1.x = centerX;
+        mPoint1.y = centerY;
+        Core.circle(frame, mPoint1, radius, color, thickness);
+    }
+
+    public void drawLine(Mat frame, double x1, double y1, double x2, double y2, Scalar color,
+                         int thickness) {
+        mPoint1.x = x1;
+        mPoint1.y = y1;
+        mPoint2.x = x2;
+        mPoint2.y = y2;
+        Core.line(frame, mPoint1, mPoint2, color, thickness);
+    }
+
+    public void drawRectangle(Mat frame, double left, double top, double right, double bottom,
+                              Scalar color, int thickness) {
+        mPoint1.x = left;
+        mPoint1.y = top;
+        mPoint2.x = right;
+        mPoint2.y = bottom;
+        Core.rectangle(frame, mPoint1, mPoint2, color, thickness);
+    }
+}
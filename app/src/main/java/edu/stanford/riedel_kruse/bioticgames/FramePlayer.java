@@ -0,0 +1,123 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Mat;
+
+/**
+ * Drives a GameLoop with the frames of a FrameSource, the way the camera view drives the game:
+ * updateGame(), then drawGame(), once per frame.
+ *
+ * The time between frames that the game sees is taken from the source's timestamps, not from the
+ * clock, so playing the same recording gives the same game at either pace. At FULL_SPEED frames
+ * are played as fast as the game can process them, for benchmarks and tests; at REAL_TIME they
+ * are played no faster than they were captured.
+ */
+public class FramePlayer {
+    public enum Pace {
+        FULL_SPEED, REAL_TIME
+    }
+
+    private final FrameSource mSource;
+    private final GameLoop mGameLoop;
+    private final Pace mPace;
+
+    private final Mat mFrame = new Mat();
+    private Mat mDrawnFrame;
+
+    private int mFrameCount;
+    private long mLastTimestamp;
+    private long mStartTime;
+    private long mProcessingTime;
+
+    public FramePlayer(FrameSource source, GameLoop gameLoop, Pace pace) {
+        mSource = source;
+        mGameLoop = gameLoop;
+        mPace = pace;
+    }
+
+    /**
+     * Plays the next frame of the source.
+     *
+     * @return false if the source has no more frames.
+     */
+    public boolean playFrame() {
+        if (!mSource.next(mFrame)) {
+            return false;
+        }
+
+        long timestamp = mSource.getTimestamp();
+        long elapsed = mFrameCount == 0 ? 0 : timestamp - mLastTimestamp;
+        mLastTimestamp = timestamp;
+
+        if (mFrameCount == 0) {
+            mStartTime = System.nanoTime();
+        } else if (mPace == Pace.REAL_TIME) {
+            waitUntil(mStartTime + timestamp);
+        }
+
+        long start = System.nanoTime();
+        mGameLoop.updateGame(mFrame, elapsed);
+        mDrawnFrame = mGameLoop.drawGame(mFrame);
+        mProcessingTime += System.nanoTime() - start;
+
+        mFrameCount++;
+        return true;
+    }
+
+    /**
+     * Plays frames until the source runs out or maxFrames have been played.
+     *
+     * @param maxFrames The most frames to play, or a negative number for all of them.
+     * @return The number of frames played.
+     */
+    public int play(int maxFrames) {
+        int played = 0;
+        while ((maxFrames < 0 || played < maxFrames) && playFrame()) {
+            played++;
+        }
+        return played;
+    }
+
+    private static void waitUntil(long time) {
+        long remaining = time - System.nanoTime();
+        if (remaining <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The frame drawGame() returned for the last frame played, or null if none has been
+     * played yet.
+     */
+    public Mat getDrawnFrame() {
+        return mDrawnFrame;
+    }
+
+    /**
+     * @return The number of frames played so far.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The nanoseconds spent in updateGame() and drawGame() so far, without reading the
+     * frames and waiting for them.
+     */
+    public long getProcessingTime() {
+        return mProcessingTime;
+    }
+
+    /**
+     * Frees the frame buffer. The source and the game loop are left to their owners.
+     */
+    public void release() {
+        mFrame.release();
+        mDrawnFrame = null;
+    }
+}
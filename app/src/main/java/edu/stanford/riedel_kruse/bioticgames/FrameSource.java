@@ -0,0 +1,33 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Mat;
+
+/**
+ * A stream of recorded RGBA frames to run the game on. Together with a FramePlayer, any source
+ * drives a GameLoop without a camera view, so tracking can be tuned, profiled and
+ * regression-tested on recorded microscope video. On the phone the camera view drives the game
+ * itself.
+ */
+public interface FrameSource {
+    public int getWidth();
+
+    public int getHeight();
+
+    /**
+     * Reads the next frame into the given Mat, (re)allocating it as needed.
+     *
+     * @return false if there are no more frames.
+     */
+    public boolean next(Mat rgba);
+
+    /**
+     * @return When the frame last read by next() was captured, in nanoseconds since the first
+     * frame.
+     */
+    public long getTimestamp();
+
+    /**
+     * Frees the resources held by the source. It cannot be read from afterwards.
+     */
+    public void release();
+}
@@ -1,76 +1,126 @@
 package edu.stanford.riedel_kruse.bioticgames;
 
 import android.app.AlertDialog;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
 import android.widget.LinearLayout.LayoutParams;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.opencv.core.Core;
+import java.io.File;
+import java.io.IOException;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.FrameProfiler;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-
-import java.util.List;
 
 import edu.stanford.riedel_kruse.bioticgamessdk.BioticGameActivity;
-import edu.stanford.riedel_kruse.bioticgamessdk.ImageProcessing;
-import edu.stanford.riedel_kruse.bioticgamessdk.MathUtil;
 
 public class GameActivity extends BioticGameActivity implements SoccerGameDelegate {
     public static final String TAG = "edu.stanford.riedel-kruse.bioticgames.GameActivity";
     public static final String EXTRA_TUTORIAL_MODE =
             "edu.stanford.riedel-kruse.bioticgames.GameActivity.TUTORIAL_MODE";
     public static final boolean DEBUG_MODE = true;
+    /**
+     * Whether to record the per stage frame times, draw them on top of the game and write them to
+     * FRAME_PROFILE_FILE in the app's external files directory when the camera stops. Off unless
+     * the intent sets it; in debug mode ACTION_PROFILE_FRAMES switches it while the game runs.
+     */
+    public static final String EXTRA_PROFILE_FRAMES =
+            "edu.stanford.riedel-kruse.bioticgames.GameActivity.PROFILE_FRAMES";
+    /**
+     * Broadcast that turns frame profiling on, or off if its EXTRA_PROFILE_FRAMES is false. Sent
+     * with adb shell am broadcast -a followed by the action, and --ez, the extra and false to turn
+     * it off.
+     */
+    public static final String ACTION_PROFILE_FRAMES =
+            "edu.stanford.riedel-kruse.bioticgames.GameActivity.ACTION_PROFILE_FRAMES";
+    /**
+     * Broadcast that writes the frame profile to FRAME_PROFILE_FILE right away. Sent with adb
+     * shell am broadcast -a followed by the action.
+     */
+    public static final String ACTION_DUMP_FRAME_PROFILE =
+            "edu.stanford.riedel-kruse.bioticgames.GameActivity.ACTION_DUMP_FRAME_PROFILE";
+    public static final String FRAME_PROFILE_FILE = "frame_profile.tsv";
+    /**
+     * Whether to copy the drawn frames straight into the surface instead of going through a
+     * Bitmap. With frame profiling on the render stage times of either path are logged when the
+     * camera stops, so the two can be compared by switching this. Off until the direct path has
+     * been measured on a device.
+     */
+    public static final boolean DIRECT_BLIT = false;
+    /**
+     * Whether to record the raw camera frames and the game events of every session to a new
+     * directory under SESSIONS_DIRECTORY in the app's external files directory.
+     */
+    public static final boolean RECORD_SESSIONS = false;
+    public static final String SESSIONS_DIRECTORY = "sessions";
     public static final int NUM_DEBUG_VIEWS = 1;
-    public static final int GOAL_HEIGHT = 400;
-    public static final int GOAL_WIDTH = 10;
-    public static final int GOAL_EMPTY_WIDTH = 40;  //Width of empty space of the goal
-    public static final int SWAP_TIME = 5000;
+    public static final int GOAL_HEIGHT = GameRenderer.GOAL_HEIGHT;
+    public static final int GOAL_WIDTH = GameRenderer.GOAL_WIDTH;
+    public static final int GOAL_EMPTY_WIDTH = GameRenderer.GOAL_EMPTY_WIDTH;
+    public static final int SWAP_TIME = SoccerGameLoop.SWAP_TIME;
     public static final int MILLISECONDS_BEFORE_BALL_AUTO_ASSIGN = 5000;
 
     private Tutorial mTutorial;
     private boolean mTutorialMode;
 
-    private boolean mDrawBall;
-    private boolean mTracking;
-    private boolean mDrawDirection;
-    private boolean mDrawGoals;
-    private boolean mDisplayVelocity;
-    private boolean mDrawBlinkingArrow;
-    private boolean mCountingDown;
-
+    private SoccerGameLoop mGameLoop;
+    /**
+     * System.nanoTime() of the last frame, 0 before the first one.
+     */
+    private long mLastFrameTime;
     private SoccerGame mSoccerGame;
+    private HudPublisher mHud;
+    /**
+     * Takes the game's events off the camera thread, for the Toasts and dialogs that show them and
+     * for the session recorder.
+     */
+    private final GameEventBus mEvents = new GameEventBus();
+    /**
+     * The players' stats at the end of the last game, read on the camera thread before the game
+     * is reset, for the game over dialog.
+     */
+    private volatile String mGameOverStats;
 
-    private ImageView[] mDebugImageViews;
-
-    private boolean mSwapping;
-    private long mSwapCountdown;
+    private FrameProfiler mFrameProfiler;
+    private boolean mProfileFrames;
+    private int mFlipStage;
+    private int mTrackStage;
+    private int mUpdateStage;
+    private int mDrawStage;
 
-    private Point mGoal1TopLeft;
-    private Point mGoal1BottomRight;
-    private Point mGoal1LArmTopLeft;
-    private Point mGoal1LArmBottomRight;
-    private Point mGoal1RArmTopLeft;
-    private Point mGoal1RArmBottomRight;
+    private ImageView[] mDebugImageViews;
 
-    private Point mGoal2TopLeft;
-    private Point mGoal2BottomRight;
-    private Point mGoal2LArmTopLeft;
-    private Point mGoal2LArmBottomRight;
-    private Point mGoal2RArmTopLeft;
-    private Point mGoal2RArmBottomRight;
+    private CameraView mCameraView;
+    /**
+     * Handles ACTION_PROFILE_FRAMES and ACTION_DUMP_FRAME_PROFILE while the activity is resumed.
+     */
+    private final BroadcastReceiver mProfileReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (ACTION_DUMP_FRAME_PROFILE.equals(intent.getAction())) {
+                dumpFrameProfile();
+            } else if (ACTION_PROFILE_FRAMES.equals(intent.getAction())) {
+                setFrameProfiling(intent.getBooleanExtra(EXTRA_PROFILE_FRAMES, true));
+            }
+        }
+    };
+    private volatile SessionRecorder mSessionRecorder;
+    private final Point mRecordedBallLocation = new Point();
 
     public float tapX = 0;
     public float tapY = 0;
@@ -87,29 +137,63 @@ public class GameActivity extends BioticGameActivity implements SoccerGameDelega
         Intent intent = getIntent();
         mTutorialMode = intent.getBooleanExtra(EXTRA_TUTORIAL_MODE, false);
 
-        mDrawBall = true;
-        mTracking = true;
-        mDrawDirection = true;
-        mDrawGoals = true;
-        mDisplayVelocity = true;
-        mDrawBlinkingArrow = true;
-        mCountingDown = true;
+        mGameLoop = new SoccerGameLoop(this);
+        mEvents.addSubscriber(new GameEventBus.Subscriber() {
+            @Override
+            public void onGameEvent(int type, int value, int points, long time) {
+                showGameEvent(type, value, points);
+            }
+        });
+        mHud = new HudPublisher((TextView) findViewById(R.id.countDown),
+                (TextView) findViewById(R.id.rPoints), (TextView) findViewById(R.id.bPoints),
+                findViewById(R.id.tutorialLayout));
 
         // If we're in tutorial mode, show the tutorial layout.
         if (mTutorialMode) {
             mTutorial = new Tutorial();
-            findViewById(R.id.tutorialLayout).setVisibility(View.VISIBLE);
+            mHud.setTutorialVisible(true);
             updateTutorialViews();
         }
 
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
+        // Capture the next frame while the current one is tracked and the previous one is drawn.
+        // The game itself still runs on a single thread, the one calling onCameraFrame.
+        mCameraView = (CameraView) findViewById(R.id.camera_view);
+        mCameraView.setPipelined(true);
+        mCameraView.setDirectBlit(DIRECT_BLIT);
+
+        mFrameProfiler = mCameraView.getFrameProfiler();
+        mFlipStage = mFrameProfiler.addStage("flip");
+        mTrackStage = mFrameProfiler.addStage("track");
+        mUpdateStage = mFrameProfiler.addStage("update");
+        mDrawStage = mFrameProfiler.addStage("drawGame");
+        setFrameProfiling(intent.getBooleanExtra(EXTRA_PROFILE_FRAMES, false));
+
         if (DEBUG_MODE) {
             mDebugImageViews = new ImageView[NUM_DEBUG_VIEWS];
             createDebugViews(NUM_DEBUG_VIEWS);
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (DEBUG_MODE) {
+            IntentFilter filter = new IntentFilter(ACTION_PROFILE_FRAMES);
+            filter.addAction(ACTION_DUMP_FRAME_PROFILE);
+            registerReceiver(mProfileReceiver, filter);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        if (DEBUG_MODE) {
+            unregisterReceiver(mProfileReceiver);
+        }
+        super.onPause();
+    }
+
     private void createDebugViews(int numViews) {
         RelativeLayout layout = (RelativeLayout) findViewById(R.id.zoomView);
 
@@ -122,91 +206,152 @@ public class GameActivity extends BioticGameActivity implements SoccerGameDelega
         }
     }
 
-    private Point findClosestEuglenaToBall(Mat frame) {
-        // Get the model data about the ball.
-        Point ballLocation = mSoccerGame.getBallLocation();
-        int ballRadius = mSoccerGame.getBallRadius();
-
-        // Create a region of interest based on the location of the ball.
-        Rect roi = new Rect();
-        roi.x = Math.max((int) ballLocation.x - ballRadius, 0);
-        roi.y = Math.max((int) ballLocation.y - ballRadius, 0);
-        roi.width = Math.min(ballRadius * 2, mSoccerGame.getFieldWidth() - roi.x);
-        roi.height = Math.min(ballRadius * 2, mSoccerGame.getFieldHeight() - roi.y);
-
-        // Find all things that look like Euglena in the region of interest.
-        List<Point> euglenaLocations = ImageProcessing.findEuglenaInRoi(frame, roi);
+    @Override
+    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        mGameLoop.setYuvFrame(inputFrame.yuv());
+        return super.onCameraFrame(inputFrame);
+    }
 
-        // Find the location of the Euglena that is closest to the ball.
-        return MathUtil.findClosestPoint(ballLocation, euglenaLocations);
+    @Override
+    public void onCameraViewStarted(int width, int height) {
+        super.onCameraViewStarted(width, height);
+        mEvents.start();
+        if (RECORD_SESSIONS) {
+            startSessionRecording(width, height);
+        }
     }
 
     @Override
-    protected void updateGame(Mat frame, long timeDelta) {
-        // Flip the input frame so that it's orientation matches the orientation of the phone
-        // TODO: This sort of operation should be handled by the SDK automatically depending on
-        // the orientation of the phone.
-        Core.flip(frame, frame, -1);
+    public void onCameraViewStopped() {
+        super.onCameraViewStopped();
+        mGameLoop.release();
+        if (mProfileFrames) {
+            dumpFrameProfile();
+        }
+        // Hands the last events to the recorder before it stops.
+        mEvents.stop();
+        stopSessionRecording();
+    }
 
-        // TODO: Is there a way to pre-init this without having to do a check on every frame?
-        initSoccerGame(frame.cols(), frame.rows());
+    /**
+     * Starts recording the camera frames and the game events to a new directory under
+     * SESSIONS_DIRECTORY in the app's external files directory.
+     */
+    private void startSessionRecording(int width, int height) {
+        File directory = getExternalFilesDir(SESSIONS_DIRECTORY);
+        if (directory == null) {
+            Log.w(TAG, "No external files directory to record the session to");
+            return;
+        }
 
-        // If the game is over, then there's no need to process anything.
-        if (mSoccerGame.isGameOver()) {
+        SessionRecorder recorder = new SessionRecorder(
+                new File(directory, Long.toString(System.currentTimeMillis())), width, height);
+        try {
+            recorder.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start recording the session", e);
             return;
         }
+        mSessionRecorder = recorder;
+        mCameraView.setSessionRecorder(recorder);
+        mEvents.addSubscriber(recorder);
+    }
 
-        // If we're swapping, the game is essentially paused, so just update the swap countdown and
-        // return early.
-        if (mSwapping) {
-            mSwapCountdown -= timeDelta;
-            mSwapping = mSwapCountdown > 0;
+    private void stopSessionRecording() {
+        SessionRecorder recorder = mSessionRecorder;
+        if (recorder == null) {
             return;
         }
-        // If we're passing the ball, then just tell the game how much time has passed.
-        else if (mSoccerGame.isPassing()) {
-            mSoccerGame.moveBallDuringPass(timeDelta);
+
+        mSessionRecorder = null;
+        mCameraView.setSessionRecorder(null);
+        mEvents.removeSubscriber(recorder);
+        recorder.stop();
+        if (recorder.getWriteError() != null) {
+            Log.e(TAG, "Could not write the session", recorder.getWriteError());
+        }
+        Log.i(TAG, "Recorded " + recorder.getRecordedFrameCount() + " frames to " +
+                recorder.getDirectory() + ", dropped " + recorder.getDroppedFrameCount());
+    }
+
+    /**
+     * Turns recording the per stage frame times and drawing them on top of the game on or off.
+     * Turning it on starts over with empty histograms.
+     */
+    public void setFrameProfiling(boolean enabled) {
+        if (enabled && !mProfileFrames) {
+            mFrameProfiler.reset();
+        }
+        mProfileFrames = enabled;
+        mFrameProfiler.setEnabled(enabled);
+        if (enabled) {
+            mCameraView.enableProfilerOverlay();
+        } else {
+            mCameraView.disableProfilerOverlay();
         }
-        // If we're not passing and we are tracking, then go ahead and find the closest Euglena to
-        // the ball.
-        else if (mTracking) {
-            Point closestEuglenaLocation = findClosestEuglenaToBall(frame);
+    }
+
+    /**
+     * Logs the average time of each pipeline stage and writes the p50/p99/max time of every
+     * frame processing stage to FRAME_PROFILE_FILE in the app's external files directory.
+     *
+     * @return The file written, or null if it could not be written.
+     */
+    public File dumpFrameProfile() {
+        Log.i(TAG, (DIRECT_BLIT ? "Direct blit" : "Bitmap") + " rendering: " +
+                mCameraView.getPipelineStats());
 
-            // Update the ball's location to be at the closest Euglena's location.
-            mSoccerGame.updateBallLocation(closestEuglenaLocation);
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            Log.w(TAG, "No external files directory to write the frame profile to");
+            return null;
         }
 
-        mSoccerGame.checkCollisions();
-        mSoccerGame.updateTime(timeDelta);
+        File file = new File(directory, FRAME_PROFILE_FILE);
+        try {
+            mFrameProfiler.dumpToFile(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write the frame profile", e);
+            return null;
+        }
+        return file;
     }
 
     @Override
-    protected Mat drawGame(Mat frame) {
-        if (mCountingDown && !mSoccerGame.isPassing()) {
-            blinkingArrow(frame);
-        }
+    protected void updateGame(Mat frame, long timeDelta) {
+        // The SDK measures timeDelta in whole milliseconds of the wall clock, which loses time to
+        // rounding on every frame and jumps when the clock is set, so measure it again here.
+        long now = System.nanoTime();
+        long elapsed = mLastFrameTime == 0 ? 0 : now - mLastFrameTime;
+        mLastFrameTime = now;
+        mGameLoop.updateGame(frame, elapsed);
+        mSoccerGame = mGameLoop.getSoccerGame();
+        // Cheap when the scores did not change, and catches resets requested by the UI.
+        updateScoreViews();
 
-        drawBallBlinker(frame);
-        drawGoals(frame);
-        drawPassingDirection(frame);
-        if (mSwapping) {
-            updateSwapCountdown();
-        } else {
-            updateCountdown();
+        mFrameProfiler.record(mFlipStage, mGameLoop.getFlipTime());
+        if (mGameLoop.getTrackTime() > 0) {
+            mFrameProfiler.record(mTrackStage, mGameLoop.getTrackTime());
+        }
+        if (mGameLoop.getUpdateTime() > 0) {
+            mFrameProfiler.record(mUpdateStage, mGameLoop.getUpdateTime());
         }
 
-        displayVelocity(frame);
-        drawScaleBar(frame);
-        return frame;
+        SessionRecorder sessionRecorder = mSessionRecorder;
+        if (sessionRecorder != null) {
+            mSoccerGame.getBallLocation(mRecordedBallLocation);
+            sessionRecorder.recordBallLocation(mRecordedBallLocation.x, mRecordedBallLocation.y,
+                    mSoccerGame.getBallTrackId());
+        }
     }
 
-    private void initSoccerGame(int cols, int rows) {
-        if (mSoccerGame == null) {
-            mSoccerGame = new SoccerGame(cols, rows, this);
-            if (!mCountingDown) {
-                mSoccerGame.pauseCountdown();
-            }
-        }
+    @Override
+    protected Mat drawGame(Mat frame) {
+        mGameLoop.drawGame(frame);
+        updateCountdown();
+        mFrameProfiler.record(mDrawStage, mGameLoop.getDrawTime());
+
+        return frame;
     }
 
     @Override
@@ -215,201 +360,94 @@ public class GameActivity extends BioticGameActivity implements SoccerGameDelega
     }
 
     public void onChangedTurn(final SoccerGame.Turn currentTurn) {
+        mEvents.post(SessionRecorder.EVENT_TURN_CHANGED, currentTurn.ordinal(), 0);
         // TODO: Freeze the game for some time so players can switch without stress.
-        mSwapping = true;
-        mSwapCountdown = SWAP_TIME;
-        updateSwapCountdown();
+        mGameLoop.startSwap();
+        updateCountdown();
     }
 
-    public void onGoalScored(final SoccerGame.Turn currentTurn) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                String message = "";
-                if (currentTurn == SoccerGame.Turn.RED) {
-                    message += "Red";
-                } else {
-                    message += "Blue";
-                }
-
-                message += " Player Scored ";
-                message += mSoccerGame.getPointsScored() + " Points!";
-
-                Toast toast = Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT);
-                toast.setGravity(Gravity.CENTER, 0, 0);
-                toast.show();
-            }
-        });
+    /**
+     * Shows the time left in the turn, or in the swap between players, on the HUD. Cheap when the
+     * displayed second does not change, so it is called on every frame.
+     */
+    private void updateCountdown() {
+        if (mGameLoop.isSwapping()) {
+            mHud.setCountdown(HudPublisher.COUNTDOWN_SWAP, mGameLoop.getSwapCountdown() / 1000);
+        } else {
+            mHud.setCountdown(HudPublisher.COUNTDOWN_TURN,
+                    mSoccerGame.getTimeLeftInTurn() / 1000);
+        }
+    }
 
+    public void onGoalScored(final SoccerGame.Turn currentTurn) {
+        mEvents.post(SessionRecorder.EVENT_GOAL_SCORED, currentTurn.ordinal(),
+                mGameLoop.getSoccerGame().getPointsScored());
         updateScoreViews();
     }
 
     public void onPickupButtonPressed(final SoccerGame.Turn currentTurn) {
+        mEvents.post(SessionRecorder.EVENT_PICKUP, currentTurn.ordinal(),
+                mGameLoop.getSoccerGame().getPointsScored());
         updateScoreViews();
     }
 
     public void onOutOfBounds() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-
-                Toast toast = Toast.makeText(getApplicationContext(), "Out of Bounds!", Toast.LENGTH_SHORT);
-                toast.setGravity(Gravity.CENTER, 0, 0);
-                toast.show();
-            }
-        });
-    }
-
-    private void drawBall(Mat img) {
-        if (!mDrawBall) {
-            return;
-        }
-
-        Scalar color;
-        SoccerGame.Turn currentTurn = mSoccerGame.getCurrentTurn();
-        if (currentTurn == SoccerGame.Turn.RED) {
-            // Red
-            color = new Scalar(255, 68, 68);
-        } else {
-            // Blue
-            color = new Scalar(51, 181, 229);
-        }
-        Core.circle(img, mSoccerGame.getBallLocation(), mSoccerGame.getBallRadius(), color, 10);
+        mEvents.post(SessionRecorder.EVENT_OUT_OF_BOUNDS, 0, 0);
     }
 
-    private void drawGoals(Mat img) {
-        if (!mDrawGoals) {
-            return;
-        }
-
-        int height = mSoccerGame.getFieldHeight();
-        float margin = (height - GOAL_HEIGHT) / 2;
-
-
-        //draw GOAL 1
-        if (mGoal1TopLeft == null) {
-            mGoal1TopLeft = new Point(0, margin);
-        }
-
-        if (mGoal1BottomRight == null) {
-            mGoal1BottomRight = new Point(GOAL_WIDTH, GOAL_HEIGHT + margin);
-        }
-
-        if (mGoal1LArmTopLeft == null) {
-            mGoal1LArmTopLeft = new Point(GOAL_WIDTH, margin);
-        }
-
-        if (mGoal1LArmBottomRight == null) {
-            mGoal1LArmBottomRight = new Point(GOAL_WIDTH + GOAL_EMPTY_WIDTH, GOAL_WIDTH + margin);
-        }
-
-        if (mGoal1RArmTopLeft == null) {
-            mGoal1RArmTopLeft = new Point(GOAL_WIDTH, GOAL_HEIGHT - GOAL_WIDTH + margin);
-        }
-
-        if (mGoal1RArmBottomRight == null) {
-            mGoal1RArmBottomRight = new Point(GOAL_WIDTH + GOAL_EMPTY_WIDTH, GOAL_HEIGHT + margin);
-        }
-
-
-        //draw GOAL 2
-        if (mGoal2TopLeft == null) {
-            mGoal2TopLeft = new Point(img.cols() - GOAL_WIDTH, margin);
-        }
-
-        if (mGoal2BottomRight == null) {
-            mGoal2BottomRight = new Point(img.cols(), GOAL_HEIGHT + margin);
-        }
-
-        if (mGoal2LArmTopLeft == null) {
-            mGoal2LArmTopLeft = new Point(img.cols() - GOAL_WIDTH - GOAL_EMPTY_WIDTH, margin);
-        }
-
-        if (mGoal2LArmBottomRight == null) {
-            mGoal2LArmBottomRight = new Point(img.cols() - GOAL_WIDTH, GOAL_WIDTH + margin);
-        }
-
-        if (mGoal2RArmTopLeft == null) {
-            mGoal2RArmTopLeft = new Point(img.cols() - GOAL_WIDTH - GOAL_EMPTY_WIDTH,
-                    GOAL_HEIGHT - GOAL_WIDTH + margin);
-        }
-
-        if (mGoal2RArmBottomRight == null) {
-            mGoal2RArmBottomRight = new Point(img.cols() - GOAL_WIDTH, GOAL_HEIGHT + margin);
-        }
+    /**
+     * Shows a game event to the players. Called on the event bus's thread.
+     */
+    private void showGameEvent(int type, int value, final int points) {
+        if (type == SessionRecorder.EVENT_GOAL_SCORED) {
+            final SoccerGame.Turn currentTurn = SoccerGame.Turn.values()[value];
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    String message = "";
+                    if (currentTurn == SoccerGame.Turn.RED) {
+                        message += "Red";
+                    } else {
+                        message += "Blue";
+                    }
 
-        Core.rectangle(img, mGoal1TopLeft, mGoal1BottomRight, new Scalar(51, 181, 229), -1);
-        Core.rectangle(img, mGoal1LArmTopLeft, mGoal1LArmBottomRight, new Scalar(51, 181, 229), -1);
-        Core.rectangle(img, mGoal1RArmTopLeft, mGoal1RArmBottomRight, new Scalar(51, 181, 229), -1);
+                    message += " Player Scored ";
+                    message += points + " Points!";
 
-        Core.rectangle(img, mGoal2TopLeft, mGoal2BottomRight, new Scalar(255, 68, 68), -1);
-        Core.rectangle(img, mGoal2LArmTopLeft, mGoal2LArmBottomRight, new Scalar(255, 68, 68), -1);
-        Core.rectangle(img, mGoal2RArmTopLeft, mGoal2RArmBottomRight, new Scalar(255, 68, 68), -1);
-    }
+                    Toast toast = Toast.makeText(getApplicationContext(), message,
+                            Toast.LENGTH_SHORT);
+                    toast.setGravity(Gravity.CENTER, 0, 0);
+                    toast.show();
+                }
+            });
+        } else if (type == SessionRecorder.EVENT_OUT_OF_BOUNDS) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
 
-    private void drawPassingDirection(Mat img) {
-        if (!mDrawDirection) {
-            return;
+                    Toast toast = Toast.makeText(getApplicationContext(), "Out of Bounds!", Toast.LENGTH_SHORT);
+                    toast.setGravity(Gravity.CENTER, 0, 0);
+                    toast.show();
+                }
+            });
+        } else if (type == SessionRecorder.EVENT_GAME_OVER) {
+            showGameOver(value < 0 ? null : SoccerGame.Turn.values()[value]);
         }
-
-        Point ballLocation = mSoccerGame.getBallLocation();
-        Point passingDirection = mSoccerGame.getPassingDirection();
-        int ballRadius = mSoccerGame.getBallRadius();
-
-        passingDirection.x *= ballRadius;
-        passingDirection.y *= ballRadius;
-
-        Point endPoint = new Point(ballLocation.x, ballLocation.y);
-        endPoint.x += passingDirection.x;
-        endPoint.y += passingDirection.y;
-
-        Core.line(img, ballLocation, endPoint, new Scalar(0, 255, 0));
-    }
-
-    private void updateCountdown() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                long timeLeft = mSoccerGame.getTimeLeftInTurn() / 1000;
-                TextView countView = (TextView) findViewById(R.id.countDown);
-                countView.setText("Countdown: " + timeLeft);
-            }
-        });
-
-    }
-
-    private void updateSwapCountdown() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                long timeLeft = mSwapCountdown / 1000;
-                TextView countView = (TextView) findViewById(R.id.countDown);
-                countView.setText("Swap: " + timeLeft);
-            }
-        });
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        mSoccerGame.passBall();
+        // The game may not exist yet, and is only ever changed on the camera thread.
+        mGameLoop.requestPass();
         return super.onTouchEvent(event);
     }
 
     public void updateScoreViews() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                TextView textView = (TextView) findViewById(R.id.bPoints);
-                textView.setText("  " + mSoccerGame.getBluePlayerPoints());
-                TextView textView2 = (TextView) findViewById(R.id.rPoints);
-                textView2.setText(mSoccerGame.getRedPlayerPoints() + "  ");
-            }
-        });
+        mHud.setScores(mSoccerGame.getRedPlayerPoints(), mSoccerGame.getBluePlayerPoints());
     }
 
     public void onNewGamePressed(View v) {
-        mSoccerGame.reset();
-        updateScoreViews();
+        mGameLoop.requestReset();
     }
 
     public void onInstructionsPressed(View v) {
@@ -458,40 +496,6 @@ public class GameActivity extends BioticGameActivity implements SoccerGameDelega
         builder.show();
     }
 
-    public void blinkingArrow(Mat img) {
-        if (!mDrawBlinkingArrow) {
-            return;
-        }
-
-        // TODO: It's not clear what this if statement is trying to accomplish. Needs a refactor or
-        // a comment.
-        if ((mSoccerGame.getTimeLeftInTurn() / 1000) % 2 == 0) {
-            Scalar color;
-            SoccerGame.Turn currentTurn = mSoccerGame.getCurrentTurn();
-            if (currentTurn == SoccerGame.Turn.RED) {
-                // Red
-                color = new Scalar(255, 68, 68);
-                Point point1 = new Point(img.cols() / 2 - 100, img.rows() / 2);
-                Point point2 = new Point(img.cols() / 2 + 100, img.rows() / 2);
-                Core.line(img, point1, point2, color, 3);
-                Point point3 = new Point(img.cols() / 2 + 50, img.rows() / 2 + 50);
-                Point point4 = new Point(img.cols() / 2 + 50, img.rows() / 2 - 50);
-                Core.line(img, point3, point2, color, 3);
-                Core.line(img, point4, point2, color, 3);
-            } else {
-                // Blue
-                color = new Scalar(51, 181, 229);
-                Point point1 = new Point(img.cols() / 2 - 100, img.rows() / 2);
-                Point point2 = new Point(img.cols() / 2 + 100, img.rows() / 2);
-                Core.line(img, point1, point2, color, 3);
-                Point point3 = new Point(img.cols() / 2 - 50, img.rows() / 2 + 50);
-                Point point4 = new Point(img.cols() / 2 - 50, img.rows() / 2 - 50);
-                Core.line(img, point3, point1, color, 3);
-                Core.line(img, point4, point1, color, 3);
-            }
-        }
-    }
-
     public void troubleShootButtonPressed(View v) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Troubleshooting");
@@ -508,21 +512,23 @@ public class GameActivity extends BioticGameActivity implements SoccerGameDelega
         builder.show();
     }
 
-    public void drawBallBlinker(Mat img) {
-        if ((mSoccerGame.getTimeLeftInTurn() / 1000) > 5) {
-            drawBall(img);
-        } else {
-            if ((mSoccerGame.getTimeLeftInTurn() / 200) % 2 == 1) {
-                drawBall(img);
-            }
-        }
+    public void onGameOver() {
+        // The dialog is shown on the UI thread while the game may already be reset, so take what
+        // it shows from the game here, on the camera thread.
+        mGameOverStats = mSoccerGame.getPlayerStats();
+        SoccerGame.Turn winner = mSoccerGame.getWinner();
+        mEvents.post(SessionRecorder.EVENT_GAME_OVER, winner == null ? -1 : winner.ordinal(), 0);
     }
 
-    public void onGameOver() {
+    /**
+     * @param winner The player who won, or null if it is a tie.
+     */
+    private void showGameOver(final SoccerGame.Turn winner) {
+        final String stats = mGameOverStats;
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                String msg = mSoccerGame.getWinningPlayer();
+                String msg = SoccerGame.getWinnerMessage(winner) + "\n\n" + stats;
 
                 AlertDialog.Builder builder = new AlertDialog.Builder(GameActivity.this);
                 builder.setTitle("Game Over!");
@@ -531,37 +537,16 @@ public class GameActivity extends BioticGameActivity implements SoccerGameDelega
                 builder.setCancelable(false);
                 builder.setPositiveButton("Keep playing!", new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int id) {
-                        mSoccerGame.resumeCountdown();
+                        mGameLoop.requestResume();
                     }
                 });
                 builder.show();
 
-                mSoccerGame.reset();
-                updateScoreViews();
+                mGameLoop.requestReset();
             }
         });
     }
 
-    public void displayVelocity(Mat img) {
-        if (!mDisplayVelocity) {
-            return;
-        }
-
-        String velocityString = Double.toString(mSoccerGame.getSpeed());
-        Point mStringLocation = new Point(mSoccerGame.getFieldWidth() / 10, mSoccerGame.getFieldHeight() / 1.05);
-
-        Core.putText(img, velocityString + "um/sec", mStringLocation,
-                1, 4, new Scalar(200, 200, 250), 5);
-    }
-
-    public void drawScaleBar(Mat img) {
-        Core.line(img, new Point(mSoccerGame.getFieldWidth() / 1.3, mSoccerGame.getFieldHeight() / 1.1),
-                new Point(mSoccerGame.getFieldWidth() / 1.3 + 150, mSoccerGame.getFieldHeight() / 1.1),
-                new Scalar(200, 200, 250), 3);
-        Core.putText(img, "100 um", new Point(mSoccerGame.getFieldWidth() / 1.33, mSoccerGame.getFieldHeight() / 1.04),
-                1, 3, new Scalar(200, 200, 250), 4);
-    }
-
     public void updateTutorialViews() {
         if (!mTutorialMode) {
             return;
@@ -570,51 +555,16 @@ public class GameActivity extends BioticGameActivity implements SoccerGameDelega
         TextView tutorialTextView = (TextView) findViewById(R.id.tutorialText);
         tutorialTextView.setText(mTutorial.getCurrentStringResource());
         tutorialTextView.setTextSize(20);
-        mDrawBall = mTutorial.shouldDrawBall();
-        mDrawDirection = mTutorial.shouldDrawDirection();
-        mTracking = mTutorial.shouldTrack();
-        mDrawGoals = mTutorial.shouldDrawGoals();
-        mDrawBlinkingArrow = mTutorial.shouldDrawBlinkingArrow();
-        mCountingDown = mTutorial.shouldCountDown();
-        if (mCountingDown) {
-            if (mSoccerGame != null) {
-                mSoccerGame.resumeCountdown();
-            }
-        } else {
-            if (mSoccerGame != null) {
-                mSoccerGame.pauseCountdown();
-            }
-        }
-        final boolean displayScores = mTutorial.shouldDisplayScores();
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                TextView redScore = (TextView) findViewById(R.id.rPoints);
-                TextView blueScore = (TextView) findViewById(R.id.bPoints);
-
-                if (displayScores) {
-                    redScore.setVisibility(View.VISIBLE);
-                    blueScore.setVisibility(View.VISIBLE);
-                } else {
-                    redScore.setVisibility(View.INVISIBLE);
-                    blueScore.setVisibility(View.INVISIBLE);
-                }
-            }
-        });
-        final boolean displayCountdown = mTutorial.shouldDisplayCountdown();
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                TextView countdown = (TextView) findViewById(R.id.countDown);
-
-                if (displayCountdown) {
-                    countdown.setVisibility(View.VISIBLE);
-                } else {
-                    countdown.setVisibility(View.INVISIBLE);
-                }
-            }
-        });
-        mDisplayVelocity = mTutorial.shouldDisplayVelocity();
+        GameRenderer renderer = mGameLoop.getRenderer();
+        renderer.setDrawBall(mTutorial.shouldDrawBall());
+        renderer.setDrawDirection(mTutorial.shouldDrawDirection());
+        mGameLoop.setTracking(mTutorial.shouldTrack());
+        renderer.setDrawGoals(mTutorial.shouldDrawGoals());
+        renderer.setDrawBlinkingArrow(mTutorial.shouldDrawBlinkingArrow());
+        mGameLoop.setCountingDown(mTutorial.shouldCountDown());
+        mHud.setScoresVisible(mTutorial.shouldDisplayScores());
+        mHud.setCountdownVisible(mTutorial.shouldDisplayCountdown());
+        renderer.setDisplayVelocity(mTutorial.shouldDisplayVelocity());
 
         runOnUiThread(new Runnable() {
             @Override
@@ -636,13 +586,7 @@ public class GameActivity extends BioticGameActivity implements SoccerGameDelega
 
         if (mTutorial.finished()) {
             mTutorialMode = false;
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    LinearLayout tutorialLayout = (LinearLayout) findViewById(R.id.tutorialLayout);
-                    tutorialLayout.setVisibility(View.GONE);
-                }
-            });
+            mHud.setTutorialVisible(false);
 
             backToMainMenu(view);
         }
@@ -0,0 +1,108 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+/**
+ * Turns the uneven time between camera frames into a steady series of fixed-length game ticks, so
+ * that the game plays the same whether detection runs at 15 or at 30 frames per second.
+ *
+ * Elapsed time is added up in nanoseconds and as many whole ticks as fit are taken out of it. The
+ * rest carries over to the next frame, so no time is lost to rounding, and as a fraction of a
+ * tick it says how far the game is between its last tick and the next one, for drawing moving
+ * objects in between. Times should come from System.nanoTime(), which unlike
+ * System.currentTimeMillis() does not jump when the wall clock is set.
+ */
+public class GameClock {
+    /**
+     * The length of a tick: 100 ticks per second, more than any camera delivers frames.
+     */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+    public static final long NANOSECONDS_PER_MILLISECOND = 1000000;
+    /**
+     * The most time a single frame can add. After a longer stall, e.g. while the app was in the
+     * background, the game skips ahead instead of running hundreds of ticks to catch up.
+     */
+    public static final long MAX_FRAME_NANOSECONDS = 250 * NANOSECONDS_PER_MILLISECOND;
+
+    private final long mTickMillis;
+    private final long mTickNanoseconds;
+
+    private boolean mStarted;
+    private long mLastTime;
+    private long mAccumulatedTime;
+    private long mTickCount;
+
+    public GameClock() {
+        this(DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * @param tickMillis The length of a tick in milliseconds.
+     */
+    public GameClock(long tickMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("The tick length must be positive: " + tickMillis);
+        }
+        mTickMillis = tickMillis;
+        mTickNanoseconds = tickMillis * NANOSECONDS_PER_MILLISECOND;
+    }
+
+    /**
+     * Advances the clock to the given time. The first call after construction or reset() only
+     * starts the clock.
+     *
+     * @param time A time from System.nanoTime().
+     * @return The number of ticks to run.
+     */
+    public int advanceTo(long time) {
+        if (!mStarted) {
+            mStarted = true;
+            mLastTime = time;
+            return 0;
+        }
+
+        long elapsed = time - mLastTime;
+        mLastTime = time;
+        return advance(elapsed);
+    }
+
+    /**
+     * Advances the clock by the given time, at most MAX_FRAME_NANOSECONDS.
+     *
+     * @param elapsed Nanoseconds since the last frame.
+     * @return The number of ticks to run.
+     */
+    public int advance(long elapsed) {
+        mAccumulatedTime += Math.min(Math.max(elapsed, 0), MAX_FRAME_NANOSECONDS);
+        int ticks = (int) (mAccumulatedTime / mTickNanoseconds);
+        mAccumulatedTime -= ticks * mTickNanoseconds;
+        mTickCount += ticks;
+        return ticks;
+    }
+
+    /**
+     * Drops the time that has not made up a whole tick yet and stops the clock until the next
+     * call to advanceTo().
+     */
+    public void reset() {
+        mStarted = false;
+        mAccumulatedTime = 0;
+    }
+
+    /**
+     * @return How far the clock is between the last tick and the next one, from 0 to just below
+     * 1.
+     */
+    public double getAlpha() {
+        return (double) mAccumulatedTime / mTickNanoseconds;
+    }
+
+    public long getTickMillis() {
+        return mTickMillis;
+    }
+
+    /**
+     * @return The number of ticks run since the clock was created.
+     */
+    public long getTickCount() {
+        return mTickCount;
+    }
+}
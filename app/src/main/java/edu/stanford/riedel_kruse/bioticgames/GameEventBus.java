@@ -0,0 +1,232 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the game's events from the game thread to subscribers on a thread of their own, so that
+ * showing a Toast, writing a recording or playing a sound never holds up a frame.
+ *
+ * post() writes an event into a fixed ring of primitive arrays and returns: it does not allocate,
+ * lock or wait. A dispatcher thread reads the events back out and hands them to every subscriber
+ * in the order they were posted. The ring has a single writer and a single reader that each only
+ * move their own position forward, so they synchronize through two AtomicLongs alone: the writer
+ * publishes an event by moving the tail past it, and the reader frees the event's slot by moving
+ * the head past it before the subscribers see it. If the subscribers fall so far behind that the
+ * ring fills up, new events are dropped and counted instead of making the game wait.
+ *
+ * Events must be posted from a single thread, the one running the game. Without start() they
+ * can be dispatched by calling dispatch() instead, but only ever from one thread at a time.
+ */
+public class GameEventBus {
+    /**
+     * Receives the events of a GameEventBus, on its dispatcher thread.
+     */
+    public interface Subscriber {
+        /**
+         * @param type   One of SessionRecorder's EVENT_ constants.
+         * @param value  The ordinal of the SoccerGame.Turn the event is about for turn changes,
+         *               goals and pickups, 0 otherwise.
+         * @param points The points scored by a goal or lost by a pickup, 0 for other events.
+         * @param time   System.nanoTime() when the event was posted.
+         */
+        public void onGameEvent(int type, int value, int points, long time);
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int mMask;
+    private final int[] mTypes;
+    private final int[] mValues;
+    private final int[] mPoints;
+    private final long[] mTimes;
+
+    /**
+     * The next event to dispatch, only moved by the dispatching thread.
+     */
+    private final AtomicLong mHead = new AtomicLong();
+    /**
+     * The next slot to post to, only moved by the game thread.
+     */
+    private final AtomicLong mTail = new AtomicLong();
+    /**
+     * The head as the game thread last read it, so that it only has to read the shared one when
+     * the ring looks full.
+     */
+    private long mCachedHead;
+    /**
+     * Only written by the game thread.
+     */
+    private volatile long mDroppedEventCount;
+
+    /**
+     * Replaced as a whole when subscribers are added or removed, so dispatching can go through it
+     * without locking.
+     */
+    private volatile Subscriber[] mSubscribers = new Subscriber[0];
+
+    private volatile Thread mDispatcher;
+    private volatile boolean mRunning;
+
+    public GameEventBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity How many events may wait for the subscribers at once. Rounded up to a power
+     *                 of two.
+     */
+    public GameEventBus(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mTypes = new int[size];
+        mValues = new int[size];
+        mPoints = new int[size];
+        mTimes = new long[size];
+    }
+
+    public synchronized void addSubscriber(Subscriber subscriber) {
+        Subscriber[] subscribers = Arrays.copyOf(mSubscribers, mSubscribers.length + 1);
+        subscribers[subscribers.length - 1] = subscriber;
+        mSubscribers = subscribers;
+    }
+
+    public synchronized void removeSubscriber(Subscriber subscriber) {
+        Subscriber[] subscribers = mSubscribers;
+        for (int i = 0; i < subscribers.length; i++) {
+            if (subscribers[i] == subscriber) {
+                Subscriber[] remaining = new Subscriber[subscribers.length - 1];
+                System.arraycopy(subscribers, 0, remaining, 0, i);
+                System.arraycopy(subscribers, i + 1, remaining, i, remaining.length - i);
+                mSubscribers = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts a dispatcher thread that hands the events to the subscribers as they are posted.
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+
+        mRunning = true;
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mRunning) {
+                    if (dispatch() == 0) {
+                        LockSupport.park(GameEventBus.this);
+                    }
+                }
+            }
+        }, "GameEventBus");
+        mDispatcher = dispatcher;
+        dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher thread, then hands the events that are still waiting to the
+     * subscribers on the calling thread.
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+
+        mRunning = false;
+        Thread dispatcher = mDispatcher;
+        mDispatcher = null;
+        LockSupport.unpark(dispatcher);
+        boolean interrupted = false;
+        while (dispatcher.isAlive()) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        dispatch();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Posts an event from the game thread.
+     *
+     * @return false if the ring was full and the event was dropped.
+     */
+    public boolean post(int type, int value, int points) {
+        long tail = mTail.get();
+        if (tail - mCachedHead > mMask) {
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead > mMask) {
+                mDroppedEventCount++;
+                return false;
+            }
+        }
+
+        int slot = (int) tail & mMask;
+        mTypes[slot] = type;
+        mValues[slot] = value;
+        mPoints[slot] = points;
+        mTimes[slot] = System.nanoTime();
+        // Makes the slot's values visible to the dispatcher before the event itself.
+        mTail.lazySet(tail + 1);
+
+        Thread dispatcher = mDispatcher;
+        if (dispatcher != null) {
+            LockSupport.unpark(dispatcher);
+        }
+        return true;
+    }
+
+    /**
+     * Hands the events posted so far to the subscribers. Called by the dispatcher thread, or by
+     * the owner of a bus that was not started.
+     *
+     * @return The number of events dispatched.
+     */
+    public int dispatch() {
+        long head = mHead.get();
+        long tail = mTail.get();
+        for (long next = head; next < tail; next++) {
+            int slot = (int) next & mMask;
+            int type = mTypes[slot];
+            int value = mValues[slot];
+            int points = mPoints[slot];
+            long time = mTimes[slot];
+            // The slot is free again as soon as it has been read, so a slow subscriber does not
+            // keep the game from posting.
+            mHead.lazySet(next + 1);
+
+            Subscriber[] subscribers = mSubscribers;
+            for (int i = 0; i < subscribers.length; i++) {
+                subscribers[i].onGameEvent(type, value, points, time);
+            }
+        }
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return The number of events that were dropped because the ring was full.
+     */
+    public long getDroppedEventCount() {
+        return mDroppedEventCount;
+    }
+}
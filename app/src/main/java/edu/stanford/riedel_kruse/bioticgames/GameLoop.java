@@ -0,0 +1,22 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Mat;
+
+/**
+ * A game that is driven one frame at a time, the way BioticGameActivity drives its subclasses:
+ * updateGame() with the new frame and the time since the previous one, then drawGame() for what
+ * to display. Unlike BioticGameActivity, which measures the time in whole milliseconds of the
+ * wall clock, the time is given in nanoseconds of a monotonic clock.
+ */
+public interface GameLoop {
+    /**
+     * @param frame The RGBA frame.
+     * @param elapsed Nanoseconds since the previous frame, 0 for the first one.
+     */
+    public void updateGame(Mat frame, long elapsed);
+
+    /**
+     * @return The frame to display.
+     */
+    public Mat drawGame(Mat frame);
+}
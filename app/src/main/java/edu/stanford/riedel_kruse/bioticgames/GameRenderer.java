@@ -0,0 +1,286 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+
+/**
+ * Draws the soccer game on top of the camera frames.
+ *
+ * Once the field size is known, drawing a frame does not allocate any Java objects, except when
+ * the speed readout is refreshed: colors and positions are cached, the ball and the passing
+ * direction are read into reused points and drawn through a FramePainter, and everything that does
+ * not move is composited from retained overlay layers. The speed changes on almost every frame
+ * during play, so the readout is refreshed at most every SPEED_REFRESH_FRAMES frames.
+ */
+public class GameRenderer {
+    public static final int GOAL_HEIGHT = 400;
+    public static final int GOAL_WIDTH = 10;
+    public static final int GOAL_EMPTY_WIDTH = 40;  //Width of empty space of the goal
+
+    private static final Scalar RED_COLOR = new Scalar(255, 68, 68);
+    private static final Scalar BLUE_COLOR = new Scalar(51, 181, 229);
+    private static final Scalar DIRECTION_COLOR = new Scalar(0, 255, 0);
+    private static final Scalar LABEL_COLOR = new Scalar(200, 200, 250);
+
+    private static final int BALL_THICKNESS = 10;
+    private static final int ARROW_THICKNESS = 3;
+    /**
+     * How many frames the speed readout is kept for before it shows a new speed, about three
+     * times a second at the camera's frame rate. Faster than that it cannot be read anyway.
+     */
+    static final int SPEED_REFRESH_FRAMES = 10;
+
+    private boolean mDrawBall = true;
+    private boolean mDrawDirection = true;
+    private boolean mDrawGoals = true;
+    private boolean mDisplayVelocity = true;
+    private boolean mDrawBlinkingArrow = true;
+
+    private final FramePainter mPainter = new FramePainter();
+    private final Point mBallLocation = new Point();
+    private final Point mPassingDirection = new Point();
+
+    private int mFieldWidth;
+    private int mFieldHeight;
+    private Point mVelocityOrigin;
+
+    /**
+     * The goals and the scale bar, which only change with the field size or when the tutorial
+     * hides the goals, rasterized once and composited onto every frame.
+     */
+    private final OverlayLayer mStaticOverlay = new OverlayLayer();
+    private boolean mStaticOverlayHasGoals;
+    private final OverlayLayer mRedArrowOverlay = new OverlayLayer();
+    private final OverlayLayer mBlueArrowOverlay = new OverlayLayer();
+    private final OverlayText mVelocityText = new OverlayText(1, 4, LABEL_COLOR, 5);
+    private final StringBuilder mVelocityString = new StringBuilder();
+    private double mDisplayedSpeed;
+    private boolean mVelocityTextValid;
+    private int mFramesSinceSpeedRefresh;
+
+    public void setDrawBall(boolean drawBall) {
+        mDrawBall = drawBall;
+    }
+
+    public void setDrawDirection(boolean drawDirection) {
+        mDrawDirection = drawDirection;
+    }
+
+    public void setDrawGoals(boolean drawGoals) {
+        mDrawGoals = drawGoals;
+    }
+
+    public void setDisplayVelocity(boolean displayVelocity) {
+        mDisplayVelocity = displayVelocity;
+    }
+
+    public void setDrawBlinkingArrow(boolean drawBlinkingArrow) {
+        mDrawBlinkingArrow = drawBlinkingArrow;
+    }
+
+    /**
+     * Draws the game onto the frame.
+     *
+     * @param showArrow Whether the blinking arrow pointing at the goal to attack may be shown.
+     */
+    public void draw(Mat frame, SoccerGame game, boolean showArrow) {
+        draw(frame, game, showArrow, null);
+    }
+
+    /**
+     * Draws the game onto the frame, with the ball at the given location instead of the game's.
+     *
+     * @param showArrow    Whether the blinking arrow pointing at the goal to attack may be shown.
+     * @param ballLocation Where to draw the ball, or null for where the game has it.
+     */
+    public void draw(Mat frame, SoccerGame game, boolean showArrow, Point ballLocation) {
+        updateFieldSize(game);
+        if (ballLocation != null) {
+            mBallLocation.x = ballLocation.x;
+            mBallLocation.y = ballLocation.y;
+        } else {
+            game.getBallLocation(mBallLocation);
+        }
+
+        if (showArrow) {
+            drawBlinkingArrow(frame, game);
+        }
+
+        drawBallBlinker(frame, game);
+        drawStaticOverlay(frame, game);
+        drawPassingDirection(frame, game);
+        drawVelocity(frame, game);
+    }
+
+    /**
+     * Frees the cached overlays. They are created again on the next call to draw().
+     */
+    public void release() {
+        mStaticOverlay.release();
+        mRedArrowOverlay.release();
+        mBlueArrowOverlay.release();
+        mVelocityText.release();
+        mVelocityTextValid = false;
+    }
+
+    private void updateFieldSize(SoccerGame game) {
+        if (game.getFieldWidth() == mFieldWidth && game.getFieldHeight() == mFieldHeight) {
+            return;
+        }
+
+        mFieldWidth = game.getFieldWidth();
+        mFieldHeight = game.getFieldHeight();
+        mVelocityOrigin = new Point(mFieldWidth / 10, mFieldHeight / 1.05);
+        mStaticOverlay.release();
+        mVelocityTextValid = false;
+    }
+
+    private void drawBallBlinker(Mat frame, SoccerGame game) {
+        if ((game.getTimeLeftInTurn() / 1000) > 5) {
+            drawBall(frame, game);
+        } else {
+            if ((game.getTimeLeftInTurn() / 200) % 2 == 1) {
+                drawBall(frame, game);
+            }
+        }
+    }
+
+    private void drawBall(Mat frame, SoccerGame game) {
+        if (!mDrawBall) {
+            return;
+        }
+
+        Scalar color = game.getCurrentTurn() == SoccerGame.Turn.RED ? RED_COLOR : BLUE_COLOR;
+        mPainter.drawCircle(frame, mBallLocation.x, mBallLocation.y, game.getBallRadius(), color,
+                BALL_THICKNESS);
+    }
+
+    private void drawStaticOverlay(Mat frame, SoccerGame game) {
+        boolean cleared = mStaticOverlay.fitTo(frame);
+        if (cleared || mStaticOverlayHasGoals != mDrawGoals) {
+            mStaticOverlay.clear();
+            if (mDrawGoals) {
+                drawGoals(mStaticOverlay);
+            }
+            drawScaleBar(mStaticOverlay);
+            mStaticOverlayHasGoals = mDrawGoals;
+        }
+
+        mStaticOverlay.compositeOnto(frame);
+    }
+
+    private void drawGoals(OverlayLayer layer) {
+        int goalWidth = GOAL_WIDTH;
+        int goalHeight = GOAL_HEIGHT;
+        int emptyWidth = GOAL_EMPTY_WIDTH;
+        float margin = (mFieldHeight - goalHeight) / 2;
+
+        layer.drawRectangle(new Point(0, margin), new Point(goalWidth, goalHeight + margin),
+                BLUE_COLOR, -1);
+        layer.drawRectangle(new Point(goalWidth, margin),
+                new Point(goalWidth + emptyWidth, goalWidth + margin), BLUE_COLOR, -1);
+        layer.drawRectangle(new Point(goalWidth, goalHeight - goalWidth + margin),
+                new Point(goalWidth + emptyWidth, goalHeight + margin), BLUE_COLOR, -1);
+
+        layer.drawRectangle(new Point(mFieldWidth - goalWidth, margin),
+                new Point(mFieldWidth, goalHeight + margin), RED_COLOR, -1);
+        layer.drawRectangle(new Point(mFieldWidth - goalWidth - emptyWidth, margin),
+                new Point(mFieldWidth - goalWidth, goalWidth + margin), RED_COLOR, -1);
+        layer.drawRectangle(
+                new Point(mFieldWidth - goalWidth - emptyWidth, goalHeight - goalWidth + margin),
+                new Point(mFieldWidth - goalWidth, goalHeight + margin), RED_COLOR, -1);
+    }
+
+    private void drawScaleBar(OverlayLayer layer) {
+        layer.drawLine(new Point(mFieldWidth / 1.3, mFieldHeight / 1.1),
+                new Point(mFieldWidth / 1.3 + 150, mFieldHeight / 1.1), LABEL_COLOR, 3);
+        layer.drawText("100 um", new Point(mFieldWidth / 1.33, mFieldHeight / 1.04), 1, 3,
+                LABEL_COLOR, 4);
+    }
+
+    private void drawPassingDirection(Mat frame, SoccerGame game) {
+        if (!mDrawDirection) {
+            return;
+        }
+
+        game.getPassingDirection(mPassingDirection);
+        int ballRadius = game.getBallRadius();
+
+        mPainter.drawLine(frame, mBallLocation.x, mBallLocation.y,
+                mBallLocation.x + mPassingDirection.x * ballRadius,
+                mBallLocation.y + mPassingDirection.y * ballRadius, DIRECTION_COLOR, 1);
+    }
+
+    private void drawBlinkingArrow(Mat frame, SoccerGame game) {
+        if (!mDrawBlinkingArrow) {
+            return;
+        }
+
+        // The arrow is shown during even seconds of the countdown, so it blinks once a second.
+        if ((game.getTimeLeftInTurn() / 1000) % 2 == 0) {
+            if (mRedArrowOverlay.fitTo(frame)) {
+                drawArrow(mRedArrowOverlay, frame.cols(), frame.rows(), true, RED_COLOR);
+            }
+            if (mBlueArrowOverlay.fitTo(frame)) {
+                drawArrow(mBlueArrowOverlay, frame.cols(), frame.rows(), false, BLUE_COLOR);
+            }
+
+            if (game.getCurrentTurn() == SoccerGame.Turn.RED) {
+                mRedArrowOverlay.compositeOnto(frame);
+            } else {
+                mBlueArrowOverlay.compositeOnto(frame);
+            }
+        }
+    }
+
+    /**
+     * Draws a horizontal arrow across the middle of the field pointing right, or left.
+     */
+    private void drawArrow(OverlayLayer layer, int cols, int rows, boolean pointRight,
+                           Scalar color) {
+        Point point1 = new Point(cols / 2 - 100, rows / 2);
+        Point point2 = new Point(cols / 2 + 100, rows / 2);
+        layer.drawLine(point1, point2, color, ARROW_THICKNESS);
+
+        Point tip = pointRight ? point2 : point1;
+        int headX = pointRight ? cols / 2 + 50 : cols / 2 - 50;
+        layer.drawLine(new Point(headX, rows / 2 + 50), tip, color, ARROW_THICKNESS);
+        layer.drawLine(new Point(headX, rows / 2 - 50), tip, color, ARROW_THICKNESS);
+    }
+
+    private void drawVelocity(Mat frame, SoccerGame game) {
+        if (!mDisplayVelocity) {
+            return;
+        }
+
+        // Only format the speed again when it changes and the readout has been shown long
+        // enough; the text layer then redraws it.
+        double speed = game.getSpeed();
+        if (!mVelocityTextValid ||
+                (speed != mDisplayedSpeed && mFramesSinceSpeedRefresh >= SPEED_REFRESH_FRAMES)) {
+            formatSpeed(speed);
+            mVelocityText.setText(mVelocityString, mVelocityOrigin, frame.type());
+            mDisplayedSpeed = speed;
+            mVelocityTextValid = true;
+            mFramesSinceSpeedRefresh = 0;
+        } else if (mFramesSinceSpeedRefresh < SPEED_REFRESH_FRAMES) {
+            mFramesSinceSpeedRefresh++;
+        }
+        mVelocityText.compositeOnto(frame);
+    }
+
+    /**
+     * Writes the speed, which SoccerGame rounds down to two decimals, with both decimals into the
+     * reused string builder.
+     */
+    private void formatSpeed(double speed) {
+        long hundredths = Math.round(speed * 100);
+        mVelocityString.setLength(0);
+        mVelocityString.append(hundredths / 100).append('.');
+        if (hundredths % 100 < 10) {
+            mVelocityString.append('0');
+        }
+        mVelocityString.append(hundredths % 100).append("um/sec");
+    }
+}
@@ -0,0 +1,206 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Publishes the game's heads-up display (countdown, scores and which parts of it are visible) to
+ * its views.
+ *
+ * The game thread sets values as often as it likes; setting a value that did not change costs a
+ * comparison. Changes are collected into a versioned snapshot of the HUD state, and at most one
+ * update is posted to the UI thread at a time, no sooner than the minimum publish interval after
+ * the previous one. The UI thread then applies the latest snapshot, touching only the views whose
+ * values changed since it last applied one.
+ */
+public class HudPublisher {
+    public static final int COUNTDOWN_TURN = 0;
+    public static final int COUNTDOWN_SWAP = 1;
+
+    public static final long DEFAULT_MIN_PUBLISH_INTERVAL_MILLIS = 100;
+
+    /**
+     * The values shown by the HUD. The version is bumped on every change.
+     */
+    private static class HudState {
+        int version;
+        int countdownKind = COUNTDOWN_TURN;
+        long countdownSeconds = -1;
+        int redPoints = -1;
+        int bluePoints = -1;
+        boolean countdownVisible;
+        boolean scoresVisible;
+        boolean tutorialVisible;
+
+        void copyFrom(HudState other) {
+            version = other.version;
+            countdownKind = other.countdownKind;
+            countdownSeconds = other.countdownSeconds;
+            redPoints = other.redPoints;
+            bluePoints = other.bluePoints;
+            countdownVisible = other.countdownVisible;
+            scoresVisible = other.scoresVisible;
+            tutorialVisible = other.tutorialVisible;
+        }
+    }
+
+    private final TextView mCountdownView;
+    private final TextView mRedScoreView;
+    private final TextView mBlueScoreView;
+    private final View mTutorialLayout;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mPublishRunnable = new Runnable() {
+        @Override
+        public void run() {
+            publish();
+        }
+    };
+
+    /**
+     * The latest state set by the game. Guarded by this.
+     */
+    private final HudState mPending = new HudState();
+    private boolean mPosted;
+    private long mLastPublishTime;
+    private long mMinPublishInterval = DEFAULT_MIN_PUBLISH_INTERVAL_MILLIS;
+
+    /**
+     * The state the views currently show. Only used on the UI thread.
+     */
+    private final HudState mShown = new HudState();
+    private final HudState mSnapshot = new HudState();
+
+    /**
+     * Must be created on the UI thread. The views' current visibility is taken as the initial
+     * state.
+     */
+    public HudPublisher(TextView countdownView, TextView redScoreView, TextView blueScoreView,
+                        View tutorialLayout) {
+        mCountdownView = countdownView;
+        mRedScoreView = redScoreView;
+        mBlueScoreView = blueScoreView;
+        mTutorialLayout = tutorialLayout;
+
+        mPending.countdownVisible = countdownView.getVisibility() == View.VISIBLE;
+        mPending.scoresVisible = redScoreView.getVisibility() == View.VISIBLE;
+        mPending.tutorialVisible = tutorialLayout.getVisibility() == View.VISIBLE;
+        mShown.copyFrom(mPending);
+    }
+
+    /**
+     * Sets how long to wait at least between two updates of the views.
+     */
+    public synchronized void setMinPublishInterval(long millis) {
+        mMinPublishInterval = millis;
+    }
+
+    /**
+     * @param kind COUNTDOWN_TURN or COUNTDOWN_SWAP.
+     */
+    public synchronized void setCountdown(int kind, long seconds) {
+        if (mPending.countdownKind == kind && mPending.countdownSeconds == seconds) {
+            return;
+        }
+        mPending.countdownKind = kind;
+        mPending.countdownSeconds = seconds;
+        changed();
+    }
+
+    public synchronized void setScores(int redPoints, int bluePoints) {
+        if (mPending.redPoints == redPoints && mPending.bluePoints == bluePoints) {
+            return;
+        }
+        mPending.redPoints = redPoints;
+        mPending.bluePoints = bluePoints;
+        changed();
+    }
+
+    public synchronized void setCountdownVisible(boolean visible) {
+        if (mPending.countdownVisible == visible) {
+            return;
+        }
+        mPending.countdownVisible = visible;
+        changed();
+    }
+
+    public synchronized void setScoresVisible(boolean visible) {
+        if (mPending.scoresVisible == visible) {
+            return;
+        }
+        mPending.scoresVisible = visible;
+        changed();
+    }
+
+    public synchronized void setTutorialVisible(boolean visible) {
+        if (mPending.tutorialVisible == visible) {
+            return;
+        }
+        mPending.tutorialVisible = visible;
+        changed();
+    }
+
+    /**
+     * Drops a pending update. Values set afterwards are published as usual.
+     */
+    public synchronized void cancel() {
+        mHandler.removeCallbacks(mPublishRunnable);
+        mPosted = false;
+    }
+
+    private void changed() {
+        mPending.version++;
+        if (mPosted) {
+            // The posted update will pick up this change too.
+            return;
+        }
+
+        mPosted = true;
+        long delay = mLastPublishTime + mMinPublishInterval - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mPublishRunnable, Math.max(delay, 0));
+    }
+
+    private void publish() {
+        synchronized (this) {
+            mSnapshot.copyFrom(mPending);
+            mPosted = false;
+            mLastPublishTime = SystemClock.uptimeMillis();
+        }
+
+        if (mSnapshot.version == mShown.version) {
+            return;
+        }
+
+        if (mSnapshot.countdownKind != mShown.countdownKind ||
+                mSnapshot.countdownSeconds != mShown.countdownSeconds) {
+            if (mSnapshot.countdownKind == COUNTDOWN_SWAP) {
+                mCountdownView.setText("Swap: " + mSnapshot.countdownSeconds);
+            } else {
+                mCountdownView.setText("Countdown: " + mSnapshot.countdownSeconds);
+            }
+        }
+        if (mSnapshot.bluePoints != mShown.bluePoints) {
+            mBlueScoreView.setText("  " + mSnapshot.bluePoints);
+        }
+        if (mSnapshot.redPoints != mShown.redPoints) {
+            mRedScoreView.setText(mSnapshot.redPoints + "  ");
+        }
+        if (mSnapshot.countdownVisible != mShown.countdownVisible) {
+            mCountdownView.setVisibility(mSnapshot.countdownVisible ? View.VISIBLE :
+                    View.INVISIBLE);
+        }
+        if (mSnapshot.scoresVisible != mShown.scoresVisible) {
+            int visibility = mSnapshot.scoresVisible ? View.VISIBLE : View.INVISIBLE;
+            mRedScoreView.setVisibility(visibility);
+            mBlueScoreView.setVisibility(visibility);
+        }
+        if (mSnapshot.tutorialVisible != mShown.tutorialVisible) {
+            mTutorialLayout.setVisibility(mSnapshot.tutorialVisible ? View.VISIBLE : View.GONE);
+        }
+
+        mShown.copyFrom(mSnapshot);
+    }
+}
@@ -0,0 +1,114 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
+/**
+ * Plays the images in a directory as frames, in the order of their file names, at a fixed frame
+ * rate. Name the images so that they sort in capture order, e.g. frame_00001.png.
+ */
+public class ImageSequenceFrameSource implements FrameSource {
+    private static final String[] IMAGE_EXTENSIONS = {
+            ".png", ".jpg", ".jpeg", ".bmp", ".tif", ".tiff"
+    };
+
+    private final File[] mFiles;
+    private final long mFrameInterval;
+    private final Mat mImage = new Mat();
+    private int mWidth;
+    private int mHeight;
+    private int mIndex = -1;
+
+    /**
+     * @param fps The frame rate the images were captured at.
+     */
+    public ImageSequenceFrameSource(File directory, double fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("The frame rate must be positive: " + fps);
+        }
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return isImage(name);
+            }
+        });
+        if (files == null || files.length == 0) {
+            throw new IllegalArgumentException("No images in " + directory);
+        }
+        Arrays.sort(files);
+        mFiles = files;
+        mFrameInterval = (long) (1000000000 / fps);
+
+        // The first image determines the size of all frames.
+        read(mFiles[0]);
+        mWidth = mImage.cols();
+        mHeight = mImage.rows();
+    }
+
+    private static boolean isImage(String name) {
+        String lowerCaseName = name.toLowerCase();
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (lowerCaseName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void read(File file) {
+        Mat image = Highgui.imread(file.getPath(), Highgui.IMREAD_COLOR);
+        if (image.empty()) {
+            throw new IllegalStateException("Cannot read " + file);
+        }
+        image.copyTo(mImage);
+        image.release();
+    }
+
+    /**
+     * @return The number of images in the sequence.
+     */
+    public int getFrameCount() {
+        return mFiles.length;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public boolean next(Mat rgba) {
+        if (mIndex + 1 >= mFiles.length) {
+            return false;
+        }
+
+        mIndex++;
+        // The first image is already loaded from measuring the frame size.
+        if (mIndex > 0) {
+            read(mFiles[mIndex]);
+        }
+        Imgproc.cvtColor(mImage, rgba, Imgproc.COLOR_BGR2RGBA);
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return Math.max(mIndex, 0) * mFrameInterval;
+    }
+
+    @Override
+    public void release() {
+        mImage.release();
+    }
+}
@@ -1,14 +1,18 @@
 package edu.stanford.riedel_kruse.bioticgames;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 /**
  * Created by dchiu on 11/8/14.
  */
 public abstract class Modifier {
     protected int mDuration;
 
+    /**
+     * Where the game's ModifierScheduler keeps this modifier while it is active, -1 otherwise.
+     */
+    int mSchedulerIndex = -1;
+    long mExpiryTime;
+    long mSequence;
+
     /**
      * Constructor for the modifier object.
      *
@@ -19,21 +23,26 @@ public abstract class Modifier {
         mDuration = duration;
     }
 
+    /**
+     * Applies the modifier to the game. Subclasses apply their effect and call through to this
+     * method, which has the game call reset() on its own thread once the duration is over.
+     * Applying a modifier that is still active extends it by the duration, so subclasses should
+     * only apply their effect if isActive() is false.
+     */
     public void apply(SoccerGame game) {
         // Call the reset function after the duration is over to reverse the effects of this
         // modifier.
         if (mDuration > 0) {
-            new Timer().schedule(
-                    new TimerTask() {
-                        @Override
-                        public void run() {
-                            reset();
-                        }
-                    },
-                    mDuration
-            );
+            game.getModifierScheduler().schedule(this, mDuration);
         }
     }
 
+    /**
+     * @return true if the modifier has been applied and has not been reset yet.
+     */
+    public boolean isActive() {
+        return mSchedulerIndex >= 0;
+    }
+
     public abstract void reset();
 }
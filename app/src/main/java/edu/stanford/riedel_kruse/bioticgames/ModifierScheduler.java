@@ -0,0 +1,172 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import java.util.Arrays;
+
+/**
+ * Expires time-based Modifiers on game time. The game advances the scheduler from updateTime(),
+ * so modifiers are reset on the game thread, between ticks, in a deterministic order: the one
+ * expiring first is reset first, and modifiers expiring at the same time are reset in the order
+ * they were applied.
+ *
+ * The active modifiers are kept in a binary heap ordered by expiry time. Every modifier knows its
+ * place in the heap, so it can be found, extended or cancelled without searching. Once the heap
+ * has grown to the number of modifiers active at once, nothing allocates.
+ */
+public class ModifierScheduler {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Modifier[] mHeap = new Modifier[INITIAL_CAPACITY];
+    private int mSize;
+    /**
+     * Milliseconds of game time since the scheduler was created.
+     */
+    private long mTime;
+    /**
+     * Counts the modifiers scheduled, to break ties between equal expiry times.
+     */
+    private long mSequence;
+
+    /**
+     * Schedules the modifier to be reset after the given duration. If it is already active, its
+     * remaining time is extended by the duration instead, so applying a modifier again stacks its
+     * duration but reverses its effect only once.
+     *
+     * @param duration Milliseconds of game time, at least 1.
+     */
+    public void schedule(Modifier modifier, long duration) {
+        if (modifier.mSchedulerIndex >= 0) {
+            modifier.mExpiryTime += duration;
+            siftDown(modifier.mSchedulerIndex);
+            return;
+        }
+
+        if (mSize == mHeap.length) {
+            mHeap = Arrays.copyOf(mHeap, mSize * 2);
+        }
+        modifier.mExpiryTime = mTime + duration;
+        modifier.mSequence = mSequence++;
+        mHeap[mSize] = modifier;
+        modifier.mSchedulerIndex = mSize;
+        mSize++;
+        siftUp(mSize - 1);
+    }
+
+    /**
+     * Ends the modifier's effect now by resetting it.
+     *
+     * @return false if the modifier was not active.
+     */
+    public boolean cancel(Modifier modifier) {
+        if (!remove(modifier)) {
+            return false;
+        }
+        modifier.reset();
+        return true;
+    }
+
+    /**
+     * Advances game time and resets every modifier that has expired by then.
+     *
+     * @param timeDelta Milliseconds of game time since the last call.
+     */
+    public void advance(long timeDelta) {
+        mTime += timeDelta;
+        // A modifier is taken out before it is reset, so that reset() may apply modifiers again.
+        while (mSize > 0 && mHeap[0].mExpiryTime <= mTime) {
+            Modifier modifier = mHeap[0];
+            remove(modifier);
+            modifier.reset();
+        }
+    }
+
+    /**
+     * Resets all active modifiers, in the order they would have expired.
+     */
+    public void clear() {
+        while (mSize > 0) {
+            Modifier modifier = mHeap[0];
+            remove(modifier);
+            modifier.reset();
+        }
+    }
+
+    /**
+     * @return The number of active modifiers.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The milliseconds of game time left until the modifier is reset, or 0 if it is not
+     * active.
+     */
+    public long getTimeLeft(Modifier modifier) {
+        if (modifier.mSchedulerIndex < 0) {
+            return 0;
+        }
+        return modifier.mExpiryTime - mTime;
+    }
+
+    private boolean remove(Modifier modifier) {
+        int index = modifier.mSchedulerIndex;
+        if (index < 0) {
+            return false;
+        }
+
+        mSize--;
+        Modifier last = mHeap[mSize];
+        mHeap[mSize] = null;
+        modifier.mSchedulerIndex = -1;
+        if (index < mSize) {
+            mHeap[index] = last;
+            last.mSchedulerIndex = index;
+            siftDown(index);
+            siftUp(last.mSchedulerIndex);
+        }
+        return true;
+    }
+
+    private void siftUp(int index) {
+        Modifier modifier = mHeap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!expiresBefore(modifier, mHeap[parent])) {
+                break;
+            }
+            mHeap[index] = mHeap[parent];
+            mHeap[index].mSchedulerIndex = index;
+            index = parent;
+        }
+        mHeap[index] = modifier;
+        modifier.mSchedulerIndex = index;
+    }
+
+    private void siftDown(int index) {
+        Modifier modifier = mHeap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= mSize) {
+                break;
+            }
+            if (child + 1 < mSize && expiresBefore(mHeap[child + 1], mHeap[child])) {
+                child++;
+            }
+            if (!expiresBefore(mHeap[child], modifier)) {
+                break;
+            }
+            mHeap[index] = mHeap[child];
+            mHeap[index].mSchedulerIndex = index;
+            index = child;
+        }
+        mHeap[index] = modifier;
+        modifier.mSchedulerIndex = index;
+    }
+
+    private static boolean expiresBefore(Modifier a, Modifier b) {
+        if (a.mExpiryTime != b.mExpiryTime) {
+            return a.mExpiryTime < b.mExpiryTime;
+        }
+        return a.mSequence < b.mSequence;
+    }
+}
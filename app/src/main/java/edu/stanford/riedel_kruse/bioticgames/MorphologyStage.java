@@ -0,0 +1,58 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Cleans up a thresholded mask by closing small gaps and then removing small specks.
+ *
+ * With the default settings this produces exactly the same mask as the
+ * dilate, erode, erode, dilate chain used by ImageProcessing: a closing is a dilation followed by
+ * an erosion and an opening is an erosion followed by a dilation, so the close + open pair is that
+ * chain. Running it as two morphologyEx calls halves the number of trips through JNI and lets the
+ * kernel be configured in one place. Choosing MORPH_RECT as the shape lets OpenCV run each pass as
+ * a separable row and column filter, which is faster but no longer matches the elliptical default.
+ */
+public class MorphologyStage {
+    public static final int DEFAULT_SHAPE = Imgproc.MORPH_ELLIPSE;
+    public static final int DEFAULT_SIZE = 5;
+    public static final int DEFAULT_ITERATIONS = 1;
+
+    private static final Point DEFAULT_ANCHOR = new Point(-1, -1);
+
+    private Mat mStructuringElement;
+    private int mIterations;
+
+    public MorphologyStage() {
+        this(DEFAULT_SHAPE, DEFAULT_SIZE, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param shape      The structuring element shape, one of the Imgproc.MORPH_* shapes.
+     * @param size       The width and height of the structuring element in pixels.
+     * @param iterations How many times each dilation and erosion is applied.
+     */
+    public MorphologyStage(int shape, int size, int iterations) {
+        mStructuringElement = Imgproc.getStructuringElement(shape, new Size(size, size));
+        mIterations = iterations;
+    }
+
+    /**
+     * Closes and then opens the given mask in place.
+     */
+    public void apply(Mat mask) {
+        Imgproc.morphologyEx(mask, mask, Imgproc.MORPH_CLOSE, mStructuringElement,
+                DEFAULT_ANCHOR, mIterations);
+        Imgproc.morphologyEx(mask, mask, Imgproc.MORPH_OPEN, mStructuringElement,
+                DEFAULT_ANCHOR, mIterations);
+    }
+
+    /**
+     * Frees the structuring element. The stage must not be used afterwards.
+     */
+    public void release() {
+        mStructuringElement.release();
+    }
+}
@@ -0,0 +1,153 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Scalar;
+
+/**
+ * Thresholds NV21 frames on their Y and VU planes, with the same result as converting them with
+ * COLOR_YUV2RGB_NV21, then with COLOR_BGR2HSV, and applying Core.inRange to the HSV image.
+ *
+ * Whether a pixel is inside an HSV window depends on its luma and on the chroma of its 2x2 block.
+ * The window cannot be written as a range of Y per chroma pair: where a hue lies on one of the
+ * bounds, OpenCV's integer conversions round it in and out of the window as Y changes. So the
+ * constructor runs every (Y, U, V) combination through the same fixed point arithmetic as OpenCV's
+ * reference conversions and keeps the answers in a bit table of 2 MB. Thresholding a frame is then
+ * a single pass over its planes with one table lookup per pixel, and neither an RGB nor an HSV
+ * image is ever built.
+ *
+ * Building the table takes a moment, so a threshold is meant to be created once and shared. Once
+ * built it is immutable and can be used from any thread.
+ */
+public class Nv21Threshold {
+    /**
+     * Fixed point coefficients of OpenCV's BT.601 YUV to RGB conversion.
+     */
+    private static final int YUV_SHIFT = 20;
+    private static final int YUV_CY = 1220542;
+    private static final int YUV_CUB = 2116026;
+    private static final int YUV_CUG = -409993;
+    private static final int YUV_CVG = -852492;
+    private static final int YUV_CVR = 1673527;
+
+    /**
+     * Fixed point division tables of OpenCV's 8-bit RGB to HSV conversion, with hue in [0, 180).
+     */
+    private static final int HSV_SHIFT = 12;
+    private static final int[] SATURATION_DIVISORS = new int[256];
+    private static final int[] HUE_DIVISORS = new int[256];
+
+    static {
+        for (int i = 1; i < 256; i++) {
+            SATURATION_DIVISORS[i] = (int) Math.rint((255 << HSV_SHIFT) / (double) i);
+            HUE_DIVISORS[i] = (int) Math.rint((180 << HSV_SHIFT) / (6.0 * i));
+        }
+    }
+
+    /**
+     * One bit per (U, V, Y) combination, indexed by (U << 16) | (V << 8) | Y.
+     */
+    private final long[] mTable = new long[(1 << 24) / 64];
+
+    /**
+     * @param lowerHsv The inclusive lower bounds on hue, saturation and value, as for inRange.
+     * @param upperHsv The inclusive upper bounds on hue, saturation and value.
+     */
+    public Nv21Threshold(Scalar lowerHsv, Scalar upperHsv) {
+        int[] lower = toBounds(lowerHsv);
+        int[] upper = toBounds(upperHsv);
+
+        for (int u = 0; u < 256; u++) {
+            for (int v = 0; v < 256; v++) {
+                int chroma = (u << 16) | (v << 8);
+                int ruv = (1 << (YUV_SHIFT - 1)) + YUV_CVR * (v - 128);
+                int guv = (1 << (YUV_SHIFT - 1)) + YUV_CVG * (v - 128) + YUV_CUG * (u - 128);
+                int buv = (1 << (YUV_SHIFT - 1)) + YUV_CUB * (u - 128);
+
+                for (int y = 0; y < 256; y++) {
+                    int luma = Math.max(0, y - 16) * YUV_CY;
+                    int red = clamp((luma + ruv) >> YUV_SHIFT);
+                    int green = clamp((luma + guv) >> YUV_SHIFT);
+                    int blue = clamp((luma + buv) >> YUV_SHIFT);
+
+                    // COLOR_BGR2HSV is applied to RGB data, so red is read as blue and vice
+                    // versa, just like ImageProcessing does it on RGBA frames.
+                    if (isInWindow(red, green, blue, lower, upper)) {
+                        int index = chroma | y;
+                        mTable[index >>> 6] |= 1L << index;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Thresholds an NV21 frame stored in a byte array into a mask stored row by row.
+     *
+     * @param nv21   The frame: height rows of Y followed by height / 2 rows of interleaved V and U.
+     * @param width  The width of the frame, which has to be even, as does its height.
+     * @param height The height of the frame without the chroma rows.
+     * @param mask   At least width * height bytes, set to 255 inside the window and 0 elsewhere.
+     */
+    public void apply(byte[] nv21, int width, int height, byte[] mask) {
+        int chromaOffset = width * height;
+        for (int row = 0; row < height; row += 2) {
+            int top = row * width;
+            int bottom = top + width;
+            int chromaRow = chromaOffset + (row / 2) * width;
+
+            // Each V, U pair covers a 2x2 block of luma samples.
+            for (int column = 0; column < width; column += 2) {
+                int v = nv21[chromaRow + column] & 0xff;
+                int u = nv21[chromaRow + column + 1] & 0xff;
+                int chroma = (u << 16) | (v << 8);
+
+                mask[top + column] = lookUp(chroma | (nv21[top + column] & 0xff));
+                mask[top + column + 1] = lookUp(chroma | (nv21[top + column + 1] & 0xff));
+                mask[bottom + column] = lookUp(chroma | (nv21[bottom + column] & 0xff));
+                mask[bottom + column + 1] =
+                        lookUp(chroma | (nv21[bottom + column + 1] & 0xff));
+            }
+        }
+    }
+
+    private byte lookUp(int index) {
+        return (mTable[index >>> 6] & (1L << index)) != 0 ? (byte) 255 : 0;
+    }
+
+    /**
+     * Converts an 8-bit color to HSV the way OpenCV's RGB to HSV conversion does, reading the
+     * channels in the order given, and checks it against the window.
+     */
+    private static boolean isInWindow(int b, int g, int r, int[] lower, int[] upper) {
+        int value = Math.max(b, Math.max(g, r));
+        int diff = value - Math.min(b, Math.min(g, r));
+        int valueIsR = value == r ? -1 : 0;
+        int valueIsG = value == g ? -1 : 0;
+
+        int saturation = (diff * SATURATION_DIVISORS[value] + (1 << (HSV_SHIFT - 1))) >>
+                HSV_SHIFT;
+        int hue = (valueIsR & (g - b)) + (~valueIsR & ((valueIsG & (b - r + 2 * diff)) +
+                (~valueIsG & (r - g + 4 * diff))));
+        hue = (hue * HUE_DIVISORS[diff] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+        if (hue < 0) {
+            hue += 180;
+        }
+
+        return hue >= lower[0] && hue <= upper[0] && saturation >= lower[1] &&
+                saturation <= upper[1] && value >= lower[2] && value <= upper[2];
+    }
+
+    /**
+     * Rounds the bounds of an HSV window to the 8-bit values inRange compares against.
+     */
+    private static int[] toBounds(Scalar hsv) {
+        int[] bounds = new int[3];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = (int) Math.rint(hsv.val[i]);
+        }
+        return bounds;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
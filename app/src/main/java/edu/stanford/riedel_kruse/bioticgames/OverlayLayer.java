@@ -0,0 +1,372 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A retained drawing layer that is rasterized once and then composited onto every camera frame.
+ *
+ * Shapes are drawn into a cached color image and, at the same time, into a mask that marks which
+ * pixels they cover. Compositing copies the covered pixels onto the frame with one masked copy per
+ * dirty region, the bounding boxes of everything drawn so far, merged where they touch. Pixels are
+ * copied exactly as drawn, so compositing gives the same result as drawing the shapes onto the
+ * frame directly.
+ *
+ * The layer covers a rectangle of the frame given to setBounds(). All drawing coordinates are in
+ * frame coordinates.
+ *
+ * The frame regions the patches are copied to are kept for the last few frame buffers, so that
+ * compositing onto the camera's recycled frames does not allocate. Drawing inside the existing
+ * dirty regions, e.g. after erase(), keeps both the patches and the frame regions.
+ */
+public class OverlayLayer {
+    private static final Scalar MASK_SET = new Scalar(255);
+    private static final Scalar MASK_CLEAR = Scalar.all(0);
+    /**
+     * How many frame buffers to keep target regions for. The camera pipeline cycles through at
+     * most this many.
+     */
+    private static final int TARGET_CACHE_SIZE = 8;
+
+    private int mX;
+    private int mY;
+    private int mWidth;
+    private int mHeight;
+    private int mType = -1;
+
+    private Mat mColor;
+    private Mat mMask;
+
+    private List<Rect> mDirtyRects = new ArrayList<Rect>();
+    /**
+     * Rects no longer in mDirtyRects, reused for the next dirty regions.
+     */
+    private List<Rect> mSpareRects = new ArrayList<Rect>();
+    private List<Mat> mColorPatches = new ArrayList<Mat>();
+    private List<Mat> mMaskPatches = new ArrayList<Mat>();
+    private boolean mPatchesValid;
+
+    private final long[] mTargetAddresses = new long[TARGET_CACHE_SIZE];
+    private final int[] mTargetCols = new int[TARGET_CACHE_SIZE];
+    private final int[] mTargetRows = new int[TARGET_CACHE_SIZE];
+    private final Mat[][] mTargets = new Mat[TARGET_CACHE_SIZE][];
+    private final boolean[] mTargetsValid = new boolean[TARGET_CACHE_SIZE];
+    private int mNextTarget;
+
+    private final Point mLocalStart = new Point();
+    private final Point mLocalEnd = new Point();
+    private final int[] mBaseline = new int[1];
+
+    /**
+     * Positions the layer on the frame. If the size or type changes, the cached images are
+     * reallocated and the layer is cleared.
+     *
+     * @param type The OpenCV type of the frames the layer will be composited onto.
+     * @return true if the layer was cleared and needs to be drawn again.
+     */
+    public boolean setBounds(int x, int y, int width, int height, int type) {
+        if (x != mX || y != mY) {
+            mX = x;
+            mY = y;
+            releaseAllTargets();
+        }
+        if (mColor != null && width == mWidth && height == mHeight && type == mType) {
+            return false;
+        }
+
+        release();
+        mWidth = width;
+        mHeight = height;
+        mType = type;
+        mColor = Mat.zeros(height, width, type);
+        mMask = Mat.zeros(height, width, CvType.CV_8UC1);
+        return true;
+    }
+
+    /**
+     * Makes the layer cover the whole frame.
+     *
+     * @return true if the layer was cleared and needs to be drawn again.
+     */
+    public boolean fitTo(Mat frame) {
+        return setBounds(0, 0, frame.cols(), frame.rows(), frame.type());
+    }
+
+    /**
+     * Erases everything drawn on the layer.
+     */
+    public void clear() {
+        if (mColor == null) {
+            return;
+        }
+        erase();
+        clearDirtyRects();
+        releasePatches();
+    }
+
+    /**
+     * Erases everything drawn on the layer, but keeps compositing the same regions of it. Drawing
+     * inside them again then needs no new patches or frame regions.
+     */
+    public void erase() {
+        if (mColor == null) {
+            return;
+        }
+        mColor.setTo(MASK_CLEAR);
+        mMask.setTo(MASK_CLEAR);
+    }
+
+    /**
+     * Composites the whole layer from now on, so that whatever is drawn on it later lies inside
+     * the dirty regions.
+     */
+    public void markAllDirty() {
+        if (mColor == null) {
+            return;
+        }
+        markDirty(mX, mY, mX + mWidth - 1, mY + mHeight - 1, 0);
+    }
+
+    public void drawRectangle(Point topLeft, Point bottomRight, Scalar color, int thickness) {
+        toLocal(topLeft, mLocalStart);
+        toLocal(bottomRight, mLocalEnd);
+        Core.rectangle(mColor, mLocalStart, mLocalEnd, color, thickness);
+        Core.rectangle(mMask, mLocalStart, mLocalEnd, MASK_SET, thickness);
+        markDirty(Math.min(topLeft.x, bottomRight.x), Math.min(topLeft.y, bottomRight.y),
+                Math.max(topLeft.x, bottomRight.x), Math.max(topLeft.y, bottomRight.y),
+                thickness);
+    }
+
+    public void drawLine(Point start, Point end, Scalar color, int thickness) {
+        toLocal(start, mLocalStart);
+        toLocal(end, mLocalEnd);
+        Core.line(mColor, mLocalStart, mLocalEnd, color, thickness);
+        Core.line(mMask, mLocalStart, mLocalEnd, MASK_SET, thickness);
+        markDirty(Math.min(start.x, end.x), Math.min(start.y, end.y), Math.max(start.x, end.x),
+                Math.max(start.y, end.y), thickness);
+    }
+
+    public void drawText(String text, Point origin, int fontFace, double fontScale, Scalar color,
+                         int thickness) {
+        toLocal(origin, mLocalStart);
+        Core.putText(mColor, text, mLocalStart, fontFace, fontScale, color, thickness);
+        Core.putText(mMask, text, mLocalStart, fontFace, fontScale, MASK_SET, thickness);
+
+        Size size = Core.getTextSize(text, fontFace, fontScale, thickness, mBaseline);
+        markDirty(origin.x, origin.y - size.height, origin.x + size.width,
+                origin.y + mBaseline[0], thickness);
+    }
+
+    /**
+     * Copies everything drawn on the layer onto the frame.
+     */
+    public void compositeOnto(Mat frame) {
+        if (mColor == null || mDirtyRects.isEmpty()) {
+            return;
+        }
+        if (!mPatchesValid) {
+            createPatches();
+        }
+
+        Mat[] targets = findTargets(frame);
+        for (int i = 0; i < mDirtyRects.size(); i++) {
+            if (targets[i] != null) {
+                mColorPatches.get(i).copyTo(targets[i], mMaskPatches.get(i));
+            } else {
+                compositeClipped(frame, mDirtyRects.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the regions of the frame the patches are copied to, creating them the first time a
+     * frame buffer is seen. A region is null if its patch does not lie entirely on the frame.
+     * The cached regions keep a reference to the frame's pixels, so a buffer address cannot be
+     * reused by another frame while it is in the cache.
+     */
+    private Mat[] findTargets(Mat frame) {
+        long address = frame.dataAddr();
+        int cols = frame.cols();
+        int rows = frame.rows();
+        for (int i = 0; i < TARGET_CACHE_SIZE; i++) {
+            if (mTargetsValid[i] && mTargetAddresses[i] == address && mTargetCols[i] == cols &&
+                    mTargetRows[i] == rows) {
+                return mTargets[i];
+            }
+        }
+
+        int slot = mNextTarget;
+        mNextTarget = (mNextTarget + 1) % TARGET_CACHE_SIZE;
+        releaseTargets(slot);
+
+        // The array of a released slot is reused if it is large enough.
+        int count = mDirtyRects.size();
+        Mat[] targets = mTargets[slot];
+        if (targets == null || targets.length < count) {
+            targets = new Mat[count];
+        }
+        for (int i = 0; i < count; i++) {
+            Rect rect = mDirtyRects.get(i);
+            int left = mX + rect.x;
+            int top = mY + rect.y;
+            int right = left + rect.width;
+            int bottom = top + rect.height;
+            if (left >= 0 && top >= 0 && right <= cols && bottom <= rows) {
+                targets[i] = frame.submat(top, bottom, left, right);
+            }
+        }
+        mTargetAddresses[slot] = address;
+        mTargetCols[slot] = cols;
+        mTargetRows[slot] = rows;
+        mTargets[slot] = targets;
+        mTargetsValid[slot] = true;
+        return targets;
+    }
+
+    /**
+     * Frees the cached images. The layer can be used again after calling setBounds().
+     */
+    public void release() {
+        releasePatches();
+        clearDirtyRects();
+        if (mColor != null) {
+            mColor.release();
+            mMask.release();
+            mColor = null;
+            mMask = null;
+        }
+    }
+
+    /**
+     * Composites the part of a dirty region that lies on the frame, for layers that hang off its
+     * edges.
+     */
+    private void compositeClipped(Mat frame, Rect rect) {
+        int left = Math.max(mX + rect.x, 0);
+        int top = Math.max(mY + rect.y, 0);
+        int right = Math.min(mX + rect.x + rect.width, frame.cols());
+        int bottom = Math.min(mY + rect.y + rect.height, frame.rows());
+        if (right <= left || bottom <= top) {
+            return;
+        }
+
+        Mat target = frame.submat(top, bottom, left, right);
+        Mat color = mColor.submat(top - mY, bottom - mY, left - mX, right - mX);
+        Mat mask = mMask.submat(top - mY, bottom - mY, left - mX, right - mX);
+        color.copyTo(target, mask);
+        mask.release();
+        color.release();
+        target.release();
+    }
+
+    private void toLocal(Point point, Point out) {
+        out.x = point.x - mX;
+        out.y = point.y - mY;
+    }
+
+    /**
+     * Adds the given frame area, grown by the line thickness, to the dirty regions and merges it
+     * with every region it touches. An area inside one of the regions changes nothing.
+     */
+    private void markDirty(double left, double top, double right, double bottom, int thickness) {
+        int margin = Math.max(thickness, 1);
+        int x0 = Math.max((int) Math.floor(left) - margin - mX, 0);
+        int y0 = Math.max((int) Math.floor(top) - margin - mY, 0);
+        int x1 = Math.min((int) Math.ceil(right) + margin + 1 - mX, mWidth);
+        int y1 = Math.min((int) Math.ceil(bottom) + margin + 1 - mY, mHeight);
+        if (x1 <= x0 || y1 <= y0) {
+            return;
+        }
+
+        for (int i = 0; i < mDirtyRects.size(); i++) {
+            Rect other = mDirtyRects.get(i);
+            if (x0 >= other.x && y0 >= other.y && x1 <= other.x + other.width &&
+                    y1 <= other.y + other.height) {
+                return;
+            }
+        }
+
+        boolean merged;
+        do {
+            merged = false;
+            for (int i = 0; i < mDirtyRects.size(); i++) {
+                Rect other = mDirtyRects.get(i);
+                if (x0 <= other.x + other.width && other.x <= x1 &&
+                        y0 <= other.y + other.height && other.y <= y1) {
+                    x0 = Math.min(x0, other.x);
+                    y0 = Math.min(y0, other.y);
+                    x1 = Math.max(x1, other.x + other.width);
+                    y1 = Math.max(y1, other.y + other.height);
+                    mSpareRects.add(mDirtyRects.remove(i));
+                    merged = true;
+                    break;
+                }
+            }
+        } while (merged);
+
+        Rect dirty = mSpareRects.isEmpty() ? new Rect() :
+                mSpareRects.remove(mSpareRects.size() - 1);
+        dirty.x = x0;
+        dirty.y = y0;
+        dirty.width = x1 - x0;
+        dirty.height = y1 - y0;
+        mDirtyRects.add(dirty);
+        releasePatches();
+    }
+
+    private void clearDirtyRects() {
+        for (int i = mDirtyRects.size() - 1; i >= 0; i--) {
+            mSpareRects.add(mDirtyRects.remove(i));
+        }
+    }
+
+    private void createPatches() {
+        for (int i = 0; i < mDirtyRects.size(); i++) {
+            Rect rect = mDirtyRects.get(i);
+            mColorPatches.add(mColor.submat(rect));
+            mMaskPatches.add(mMask.submat(rect));
+        }
+        mPatchesValid = true;
+    }
+
+    private void releasePatches() {
+        for (int i = 0; i < mColorPatches.size(); i++) {
+            mColorPatches.get(i).release();
+        }
+        for (int i = 0; i < mMaskPatches.size(); i++) {
+            mMaskPatches.get(i).release();
+        }
+        mColorPatches.clear();
+        mMaskPatches.clear();
+        mPatchesValid = false;
+        releaseAllTargets();
+    }
+
+    private void releaseAllTargets() {
+        for (int i = 0; i < TARGET_CACHE_SIZE; i++) {
+            releaseTargets(i);
+        }
+    }
+
+    private void releaseTargets(int slot) {
+        if (!mTargetsValid[slot]) {
+            return;
+        }
+        Mat[] targets = mTargets[slot];
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] != null) {
+                targets[i].release();
+                targets[i] = null;
+            }
+        }
+        mTargetsValid[slot] = false;
+    }
+}
@@ -0,0 +1,88 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+/**
+ * A line of text drawn on the camera frames that is only rasterized again when its value
+ * changes. In between, the cached pixels are composited onto each frame.
+ *
+ * The whole layer is composited, so new text of about the same length is drawn into the same
+ * layer and frame regions, and only the new String and OpenCV's text size allocate.
+ */
+public class OverlayText {
+    /**
+     * The layer width is rounded up to a multiple of this so that small changes in the length of
+     * the text do not reallocate it.
+     */
+    private static final int WIDTH_GRANULARITY = 64;
+
+    private final int mFontFace;
+    private final double mFontScale;
+    private final Scalar mColor;
+    private final int mThickness;
+
+    private final OverlayLayer mLayer = new OverlayLayer();
+    private final int[] mBaseline = new int[1];
+
+    private String mText;
+    private double mOriginX;
+    private double mOriginY;
+    private int mType;
+
+    public OverlayText(int fontFace, double fontScale, Scalar color, int thickness) {
+        mFontFace = fontFace;
+        mFontScale = fontScale;
+        mColor = color;
+        mThickness = thickness;
+    }
+
+    /**
+     * Sets the text and where it is drawn, with the same meaning of origin as Core.putText().
+     *
+     * @param text The text to draw. It is compared with the current text before it is copied, so
+     *             callers may format it into a reused buffer.
+     * @param type The OpenCV type of the frames the text will be composited onto.
+     * @return true if the text had to be rasterized again.
+     */
+    public boolean setText(CharSequence text, Point origin, int type) {
+        if (mText != null && mText.contentEquals(text) && origin.x == mOriginX &&
+                origin.y == mOriginY && type == mType) {
+            return false;
+        }
+
+        String string = text.toString();
+        Size size = Core.getTextSize(string, mFontFace, mFontScale, mThickness, mBaseline);
+        int margin = mThickness + 1;
+        int width = (int) Math.ceil(size.width) + 2 * margin;
+        width = (width + WIDTH_GRANULARITY - 1) / WIDTH_GRANULARITY * WIDTH_GRANULARITY;
+        int height = (int) Math.ceil(size.height) + mBaseline[0] + 2 * margin;
+        int x = (int) Math.floor(origin.x) - margin;
+        int y = (int) Math.floor(origin.y - size.height) - margin;
+
+        if (mLayer.setBounds(x, y, width, height, type)) {
+            mLayer.markAllDirty();
+        } else {
+            mLayer.erase();
+        }
+        mLayer.drawText(string, origin, mFontFace, mFontScale, mColor, mThickness);
+
+        mText = string;
+        mOriginX = origin.x;
+        mOriginY = origin.y;
+        mType = type;
+        return true;
+    }
+
+    public void compositeOnto(Mat frame) {
+        mLayer.compositeOnto(frame);
+    }
+
+    public void release() {
+        mLayer.release();
+        mText = null;
+    }
+}
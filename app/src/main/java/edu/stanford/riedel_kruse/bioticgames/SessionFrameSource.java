@@ -0,0 +1,133 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays the frames of a session written by SessionRecorder, at the times they were recorded.
+ *
+ * Besides the RGBA frame, the raw NV21 data of the last frame read is available from
+ * getYuvFrame(), so the game can track on it the same way it does on the camera.
+ */
+public class SessionFrameSource implements FrameSource {
+    private final FileChannel mChannel;
+    private final int mWidth;
+    private final int mHeight;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(SessionRecorder.FRAME_HEADER_SIZE);
+    private final ByteBuffer mData;
+    private final Mat mYuvFrame;
+    private long mTimestamp;
+    private long mFirstTimestamp = -1;
+
+    /**
+     * @param directory A directory written by SessionRecorder.
+     */
+    public SessionFrameSource(File directory) throws IOException {
+        mChannel = new FileInputStream(new File(directory, SessionRecorder.FRAMES_FILE))
+                .getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(16);
+        if (!readFully(header) || header.getInt() != SessionRecorder.FRAMES_MAGIC) {
+            mChannel.close();
+            throw new IOException("Not a recorded session: " + directory);
+        }
+        int version = header.getInt();
+        if (version != SessionRecorder.VERSION) {
+            mChannel.close();
+            throw new IOException("Unsupported session version " + version);
+        }
+        mWidth = header.getInt();
+        mHeight = header.getInt();
+
+        mData = ByteBuffer.allocate(mWidth * mHeight * 3 / 2);
+        mYuvFrame = new Mat(mHeight * 3 / 2, mWidth, CvType.CV_8UC1);
+    }
+
+    /**
+     * @return Whether the directory holds a session written by SessionRecorder.
+     */
+    public static boolean isSession(File directory) {
+        return new File(directory, SessionRecorder.FRAMES_FILE).isFile();
+    }
+
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * @return The NV21 data of the last frame read. The same Mat is refilled by every call to
+     * next().
+     */
+    public Mat getYuvFrame() {
+        return mYuvFrame;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public boolean next(Mat rgba) {
+        try {
+            if (!readFully(mHeader)) {
+                return false;
+            }
+            long timestamp = mHeader.getLong();
+            int length = mHeader.getInt();
+            if (length != mData.capacity()) {
+                throw new IllegalStateException("Frame of " + length + " bytes in a " + mWidth +
+                        "x" + mHeight + " session");
+            }
+            // A frame cut short by the end of the file is not played.
+            if (!readFully(mData)) {
+                return false;
+            }
+
+            if (mFirstTimestamp < 0) {
+                mFirstTimestamp = timestamp;
+            }
+            mTimestamp = timestamp - mFirstTimestamp;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the session", e);
+        }
+
+        mYuvFrame.put(0, 0, mData.array());
+        Imgproc.cvtColor(mYuvFrame, rgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    @Override
+    public void release() {
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            // Nothing is lost, the session was only read.
+        }
+        mYuvFrame.release();
+    }
+}
@@ -0,0 +1,414 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records a session to a directory so that tracking failures can be looked into afterwards: the
+ * raw NV21 preview frames in FRAMES_FILE and the game events and ball locations in EVENTS_FILE.
+ * Both files are append-only and start with a header; all values are big-endian and timestamps
+ * are nanoseconds since the recorder was started.
+ *
+ * FRAMES_FILE: the FRAMES_MAGIC int, the VERSION, width and height ints, then for every frame
+ * its timestamp as a long, its length as an int and its NV21 bytes.
+ *
+ * EVENTS_FILE: the EVENTS_MAGIC int and the EVENTS_VERSION int, then EVENT_RECORD_SIZE byte
+ * records of a long timestamp, an int event type, an int value and two floats x and y.
+ *
+ * Nothing in here waits for the disk. Frames are copied into a fixed pool of buffers and written
+ * by a background thread through a FileChannel; when the disk cannot keep up and the pool runs
+ * out, new frames are dropped and an EVENT_FRAMES_DROPPED is logged instead. Events go into a
+ * buffer that the background thread swaps out and writes regularly, and are dropped the same way
+ * if it fills up.
+ */
+public class SessionRecorder implements GameEventBus.Subscriber {
+    public static final String FRAMES_FILE = "frames.nv21";
+    public static final String EVENTS_FILE = "events.bin";
+
+    public static final int FRAMES_MAGIC = 0x42474652; // "BGFR"
+    public static final int EVENTS_MAGIC = 0x42474556; // "BGEV"
+    public static final int VERSION = 1;
+    /**
+     * Version 1 of EVENTS_FILE left x at 0 for EVENT_GOAL_SCORED and EVENT_PICKUP.
+     */
+    public static final int EVENTS_VERSION = 2;
+
+    public static final int FRAME_HEADER_SIZE = 12;
+    public static final int EVENT_RECORD_SIZE = 24;
+
+    /**
+     * The value is the turn that started, as a SoccerGame.Turn ordinal.
+     */
+    public static final int EVENT_TURN_CHANGED = 1;
+    /**
+     * The value is the turn that scored, as a SoccerGame.Turn ordinal, and x the points it got.
+     */
+    public static final int EVENT_GOAL_SCORED = 2;
+    public static final int EVENT_OUT_OF_BOUNDS = 3;
+    /**
+     * The value is the turn that picked up the ball, as a SoccerGame.Turn ordinal, and x the
+     * points it got.
+     */
+    public static final int EVENT_PICKUP = 4;
+    /**
+     * The value is the winner as a SoccerGame.Turn ordinal, or -1 for a tie.
+     */
+    public static final int EVENT_GAME_OVER = 5;
+    /**
+     * x and y are the ball location in field coordinates. The value is the id of the tracked
+     * Euglena carrying it.
+     */
+    public static final int EVENT_BALL_LOCATION = 6;
+    /**
+     * The value is the number of frames dropped since the last frame that was recorded.
+     */
+    public static final int EVENT_FRAMES_DROPPED = 7;
+
+    public static final int DEFAULT_FRAME_BUFFER_COUNT = 8;
+    public static final int DEFAULT_EVENT_BUFFER_CAPACITY = 4096;
+
+    /**
+     * How long the writer waits for a frame before it writes out the pending events anyway.
+     */
+    private static final long EVENT_FLUSH_INTERVAL_MILLIS = 100;
+
+    private static class FrameBuffer {
+        final byte[] data;
+        final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        final ByteBuffer[] buffers;
+        int length;
+
+        FrameBuffer(int size) {
+            data = new byte[size];
+            buffers = new ByteBuffer[] { header, ByteBuffer.wrap(data) };
+        }
+    }
+
+    private final File mDirectory;
+    private final int mWidth;
+    private final int mHeight;
+    private final BlockingQueue<FrameBuffer> mFreeFrames;
+    private final BlockingQueue<FrameBuffer> mPendingFrames;
+
+    private final Object mEventLock = new Object();
+    private ByteBuffer mEvents;
+    private ByteBuffer mWritingEvents;
+
+    private long mStartTime;
+    private volatile boolean mRunning;
+    private Thread mWriterThread;
+    private FileChannel mFrameChannel;
+    private FileChannel mEventChannel;
+
+    private long mRecordedFrameCount;
+    private long mDroppedFrameCount;
+    private long mDroppedFramesToLog;
+    private long mDroppedEventCount;
+    private volatile IOException mWriteError;
+
+    /**
+     * @param directory Where to write the session, created if needed.
+     * @param width The width of the preview frames.
+     * @param height The height of the preview frames.
+     */
+    public SessionRecorder(File directory, int width, int height) {
+        this(directory, width, height, DEFAULT_FRAME_BUFFER_COUNT, DEFAULT_EVENT_BUFFER_CAPACITY);
+    }
+
+    /**
+     * @param frameBufferCount How many frames may wait for the disk before frames are dropped.
+     * @param eventBufferCapacity How many events may wait for the disk before events are
+     * dropped.
+     */
+    public SessionRecorder(File directory, int width, int height, int frameBufferCount,
+                           int eventBufferCapacity) {
+        mDirectory = directory;
+        mWidth = width;
+        mHeight = height;
+
+        // NV21 has a full resolution luma plane and a half resolution interleaved chroma plane.
+        int frameSize = width * height * 3 / 2;
+        mFreeFrames = new ArrayBlockingQueue<FrameBuffer>(frameBufferCount);
+        mPendingFrames = new ArrayBlockingQueue<FrameBuffer>(frameBufferCount);
+        for (int i = 0; i < frameBufferCount; i++) {
+            mFreeFrames.add(new FrameBuffer(frameSize));
+        }
+
+        mEvents = ByteBuffer.allocate(eventBufferCapacity * EVENT_RECORD_SIZE);
+        mWritingEvents = ByteBuffer.allocate(eventBufferCapacity * EVENT_RECORD_SIZE);
+    }
+
+    /**
+     * Creates the session files and starts the writer thread.
+     */
+    public synchronized void start() throws IOException {
+        if (mRunning) {
+            return;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        mFrameChannel = new FileOutputStream(new File(mDirectory, FRAMES_FILE)).getChannel();
+        mEventChannel = null;
+        try {
+            mEventChannel = new FileOutputStream(new File(mDirectory, EVENTS_FILE)).getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(FRAMES_MAGIC).putInt(VERSION).putInt(mWidth).putInt(mHeight);
+            header.flip();
+            writeFully(mFrameChannel, header);
+            header.clear();
+            header.putInt(EVENTS_MAGIC).putInt(EVENTS_VERSION);
+            header.flip();
+            writeFully(mEventChannel, header);
+        } catch (IOException e) {
+            // The writer thread closes the files, but it is never started.
+            closeQuietly(mFrameChannel);
+            if (mEventChannel != null) {
+                closeQuietly(mEventChannel);
+            }
+            throw e;
+        }
+
+        // A frame recorded while the previous session was stopping may have been left behind.
+        FrameBuffer frame;
+        while ((frame = mPendingFrames.poll()) != null) {
+            mFreeFrames.offer(frame);
+        }
+
+        mStartTime = System.nanoTime();
+        mRunning = true;
+        mWriterThread = new Thread(new Writer(), "SessionRecorder");
+        mWriterThread.start();
+    }
+
+    /**
+     * Writes out everything recorded so far, then closes the files. Waits for the writer thread.
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+
+        mRunning = false;
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mWriterThread = null;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Records a preview frame. Called on the camera thread with the buffer the camera filled; the
+     * data is copied, so the buffer can go back to the camera right after this returns.
+     */
+    public void recordFrame(byte[] data) {
+        if (!mRunning) {
+            return;
+        }
+
+        long timestamp = System.nanoTime() - mStartTime;
+        FrameBuffer frame = mFreeFrames.poll();
+        if (frame == null) {
+            synchronized (mEventLock) {
+                mDroppedFrameCount++;
+                mDroppedFramesToLog++;
+            }
+            return;
+        }
+
+        frame.length = Math.min(data.length, frame.data.length);
+        System.arraycopy(data, 0, frame.data, 0, frame.length);
+        frame.header.clear();
+        frame.header.putLong(timestamp).putInt(frame.length);
+        frame.header.flip();
+
+        long dropped;
+        synchronized (mEventLock) {
+            mRecordedFrameCount++;
+            dropped = mDroppedFramesToLog;
+            mDroppedFramesToLog = 0;
+        }
+        if (dropped > 0) {
+            recordEvent(EVENT_FRAMES_DROPPED, (int) dropped, 0, 0);
+        }
+
+        // There are as many pending slots as buffers, so this always succeeds.
+        mPendingFrames.offer(frame);
+    }
+
+    /**
+     * Records a game event. Cheap enough to call from the game thread on every frame.
+     *
+     * @param type One of the EVENT_ constants.
+     */
+    public void recordEvent(int type, int value, float x, float y) {
+        recordEventAt(System.nanoTime(), type, value, x, y);
+    }
+
+    /**
+     * Records a game event that happened at the given time, for events that reach the recorder
+     * some time after they happened.
+     *
+     * @param time System.nanoTime() when the event happened.
+     */
+    public void recordEventAt(long time, int type, int value, float x, float y) {
+        if (!mRunning) {
+            return;
+        }
+
+        long timestamp = time - mStartTime;
+        synchronized (mEventLock) {
+            if (mEvents.remaining() < EVENT_RECORD_SIZE) {
+                mDroppedEventCount++;
+                return;
+            }
+            mEvents.putLong(timestamp).putInt(type).putInt(value).putFloat(x).putFloat(y);
+        }
+    }
+
+    public void recordEvent(int type, int value) {
+        recordEvent(type, value, 0, 0);
+    }
+
+    /**
+     * Records an event of the game's GameEventBus, at the time it was posted, with its points
+     * as x.
+     */
+    @Override
+    public void onGameEvent(int type, int value, int points, long time) {
+        recordEventAt(time, type, value, points, 0);
+    }
+
+    /**
+     * Records where the ball is and which tracked Euglena carries it.
+     */
+    public void recordBallLocation(double x, double y, int trackId) {
+        recordEvent(EVENT_BALL_LOCATION, trackId, (float) x, (float) y);
+    }
+
+    public long getRecordedFrameCount() {
+        synchronized (mEventLock) {
+            return mRecordedFrameCount;
+        }
+    }
+
+    public long getDroppedFrameCount() {
+        synchronized (mEventLock) {
+            return mDroppedFrameCount;
+        }
+    }
+
+    public long getDroppedEventCount() {
+        synchronized (mEventLock) {
+            return mDroppedEventCount;
+        }
+    }
+
+    /**
+     * @return The error that stopped the writer, or null if there was none.
+     */
+    public IOException getWriteError() {
+        return mWriteError;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already failing; the first error is the one that is reported.
+        }
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (mRunning) {
+                    FrameBuffer frame = mPendingFrames.poll(EVENT_FLUSH_INTERVAL_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                    if (frame != null) {
+                        writeFrame(frame);
+                    }
+                    writeEvents();
+                }
+
+                // Drain what was recorded before stop() was called.
+                FrameBuffer frame;
+                while ((frame = mPendingFrames.poll()) != null) {
+                    writeFrame(frame);
+                }
+                writeEvents();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                mWriteError = e;
+            } finally {
+                // Frames recorded from now on are dropped instead of piling up.
+                mRunning = false;
+                close(mFrameChannel);
+                close(mEventChannel);
+            }
+        }
+
+        private void writeFrame(FrameBuffer frame) throws IOException {
+            try {
+                frame.buffers[1].clear();
+                frame.buffers[1].limit(frame.length);
+                while (frame.buffers[1].hasRemaining()) {
+                    mFrameChannel.write(frame.buffers);
+                }
+            } finally {
+                mFreeFrames.offer(frame);
+            }
+        }
+
+        private void writeEvents() throws IOException {
+            ByteBuffer events;
+            synchronized (mEventLock) {
+                if (mEvents.position() == 0) {
+                    return;
+                }
+                events = mEvents;
+                mEvents = mWritingEvents;
+                mWritingEvents = events;
+            }
+
+            events.flip();
+            writeFully(mEventChannel, events);
+            events.clear();
+        }
+
+        private void close(FileChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (mWriteError == null) {
+                    mWriteError = e;
+                }
+            }
+        }
+    }
+}
@@ -3,11 +3,6 @@ package edu.stanford.riedel_kruse.bioticgames;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import edu.stanford.riedel_kruse.bioticgamessdk.MathUtil;
-
 /**
  * Created by dchiu on 11/8/14.
  */
@@ -24,12 +19,22 @@ public class SoccerGame {
     public static final int BOUNDS_BUFFER = 10;
     public static final int PREVIOUS_LOCATIONS_TO_TRACK = 20;
     public static final int PREVIOUS_LOCATIONS_TO_TRACK_SPEED = 30;
+    /**
+     * Scales the average ball velocity in pixels per frame to the displayed speed, matching
+     * MathUtil.computeAverageSpeed.
+     */
+    public static final double SPEED_SCALE = 10;
     public static final long MILLISECONDS_PER_PASS = 3 * 1000;
     // TODO: Need to play with this value to see what feels right.
     public static final double PASS_SPEED = 1;
     public static final String TAG = "edu.stanford.riedel-kruse.bioticgames.SoccerGame";
     public static final int NO_PASS_POINTS = 3;
     public static final int NUM_TURNS_PER_GAME = 6;
+    /**
+     * The most goal and wall collisions a pass resolves per frame. A ball cannot hit more than a
+     * few walls in a frame unless it is stuck in a corner, which this keeps from looping forever.
+     */
+    private static final int MAX_PASS_COLLISIONS = 16;
 
     public enum Turn {
         RED,
@@ -40,7 +45,17 @@ public class SoccerGame {
     private int mFieldHeight;
     private int mBallRadius;
     private Point mBallLocation;
-    private List<Point> mPreviousBallLocations;
+    /**
+     * ID of the tracked Euglena that is carrying the ball, or EuglenaTracker.NO_TRACK if the ball
+     * is not attached to one.
+     */
+    private int mBallTrackId;
+    private BallStateEstimator mBallEstimator;
+    /**
+     * Where followBallEuglena() found the Euglena carrying the ball, reused on every frame.
+     */
+    private final Point mBallEuglenaLocation = new Point();
+    private BallLocationHistory mPreviousBallLocations;
     private Point mPassingDirection;
     private int mRedPlayerPoints;
     private int mBluePlayerPoints;
@@ -58,6 +73,7 @@ public class SoccerGame {
     private boolean mGameOver;
 
     private SoccerGameDelegate mDelegate;
+    private final ModifierScheduler mModifierScheduler = new ModifierScheduler();
 
     private Rect mRedGoal;
     private Rect mBlueGoal;
@@ -68,8 +84,11 @@ public class SoccerGame {
 
         mDelegate = delegate;
 
+        mBallLocation = new Point();
         mPassingDirection = new Point(0, 0);
-        mPreviousBallLocations = new ArrayList<Point>();
+        mBallEstimator = new BallStateEstimator();
+        mPreviousBallLocations = new BallLocationHistory(
+                Math.max(PREVIOUS_LOCATIONS_TO_TRACK, PREVIOUS_LOCATIONS_TO_TRACK_SPEED));
 
         mCountdownPaused = false;
 
@@ -82,19 +101,17 @@ public class SoccerGame {
      * Resets the game state.
      */
     public void reset() {
+        // Reverse the modifiers of the last game before its state is reset.
+        mModifierScheduler.clear();
         resetBall();
         mBallRadius = DEFAULT_BALL_RADIUS;
         mRedPlayerPoints = 0;
         mBluePlayerPoints = 0;
         mTurnCount = 0;
-        if (mCurrentTurn != Turn.RED) {
-            changeTurn();
-        }
-        // TODO: This is pretty hacky
-        else {
-            changeTurn();
-            changeTurn();
-        }
+        // Red always starts. Changing the turn once counts it as the first turn of the game, so
+        // every game has NUM_TURNS_PER_GAME turns no matter whose turn it was before.
+        mCurrentTurn = Turn.BLUE;
+        changeTurn();
         mTimeLeftInTurn = MILLISECONDS_PER_TURN;
 
         // Reset the goal locations, heights, and widths.
@@ -115,12 +132,55 @@ public class SoccerGame {
         mSpeed = 0;
         mPassing = true;
         mPassingTime = 0;
+        // The ball leaves the Euglena that was carrying it.
+        mBallTrackId = EuglenaTracker.NO_TRACK;
+        mBallEstimator.reset();
     }
 
     public Point getBallLocation() {
         return mBallLocation.clone();
     }
 
+    /**
+     * Copies the ball's location into the given point. Unlike getBallLocation() this does not
+     * allocate, for callers that run on every frame.
+     */
+    public void getBallLocation(Point out) {
+        out.x = mBallLocation.x;
+        out.y = mBallLocation.y;
+    }
+
+    /**
+     * @return The ID of the tracked Euglena carrying the ball, or EuglenaTracker.NO_TRACK if the
+     * ball has not been attached to one since it was last reset or passed.
+     */
+    public int getBallTrackId() {
+        return mBallTrackId;
+    }
+
+    /**
+     * Copies where the ball is expected to be in the next frame into the given point, without
+     * allocating.
+     *
+     * @return false, leaving the point unchanged, if there is no estimate since the ball was last
+     * reset, passed or handed to another Euglena.
+     */
+    public boolean getPredictedBallLocation(Point out) {
+        if (!mBallEstimator.isInitialized()) {
+            return false;
+        }
+        out.x = mBallEstimator.getPredictedX();
+        out.y = mBallEstimator.getPredictedY();
+        return true;
+    }
+
+    /**
+     * @return The standard deviation in pixels of getPredictedBallLocation(Point) along each axis.
+     */
+    public double getBallPredictionError() {
+        return mBallEstimator.getPredictionError();
+    }
+
     public int getBallRadius() {
         return mBallRadius;
     }
@@ -149,6 +209,14 @@ public class SoccerGame {
         return mPassingDirection.clone();
     }
 
+    /**
+     * Copies the passing direction into the given point without allocating.
+     */
+    public void getPassingDirection(Point out) {
+        out.x = mPassingDirection.x;
+        out.y = mPassingDirection.y;
+    }
+
     public long getTimeLeftInTurn() {
         return mTimeLeftInTurn;
     }
@@ -161,12 +229,23 @@ public class SoccerGame {
         return mGameOver;
     }
 
+    /**
+     * @return The scheduler that resets the game's time-based modifiers as updateTime() advances
+     * the game.
+     */
+    public ModifierScheduler getModifierScheduler() {
+        return mModifierScheduler;
+    }
+
     /**
      * Resets the ball by settings its location to the center of the field, clearing the movement
      * direction, and clearing all previously stored ball locations.
      */
     private void resetBall() {
-        mBallLocation = new Point(mFieldWidth / 2.0, mFieldHeight / 2.0);
+        mBallLocation.x = mFieldWidth / 2.0;
+        mBallLocation.y = mFieldHeight / 2.0;
+        mBallTrackId = EuglenaTracker.NO_TRACK;
+        mBallEstimator.reset();
         resetPassingDirection();
         mPassing = false;
     }
@@ -178,6 +257,9 @@ public class SoccerGame {
     }
 
     public void updateTime(long timeDelta) {
+        // Modifiers run on game time, even while the turn countdown is paused.
+        mModifierScheduler.advance(timeDelta);
+
         if (!mCountdownPaused) {
             mTimeLeftInTurn -= timeDelta;
         }
@@ -190,44 +272,207 @@ public class SoccerGame {
     /**
      * Updates the internal state of the soccer game with a new location for the ball.
      *
-     * @param newLocation The new location of the ball.
+     * @param newLocation The new location of the ball. It is copied, so the caller may reuse it.
      */
     public void updateBallLocation(Point newLocation) {
         checkIfPickupButtonPressed();
 
         if (newLocation == null) {
             mSpeed = 0;
+            mBallEstimator.coast();
 
             return;
         }
 
-        mBallLocation = newLocation;
+        mBallLocation.x = newLocation.x;
+        mBallLocation.y = newLocation.y;
+        mBallEstimator.update(newLocation.x, newLocation.y);
         updatePassingDirection();
         updateSpeed();
     }
 
-    public void moveBallDuringPass(long timeDelta) {
-        // Using constant for how fast ball should move when passed, figure out how far ball would
-        // move in the amount of time elapsed in timeDelta
-        // Then move the ball that distance.
+    /**
+     * Moves the ball along with the tracked Euglena that is carrying it. If that Euglena has been
+     * lost, or the ball is not attached to one yet, the ball is handed to the detected Euglena
+     * closest to it. Called once per frame, after the tracker has been updated with the frame's
+     * detections.
+     */
+    public void followBallEuglena(EuglenaTracker tracker) {
+        int trackId = mBallTrackId;
+        int slot = tracker.findSlot(trackId);
+        if (slot == EuglenaTracker.NO_TRACK) {
+            trackId = tracker.findNearestId(mBallLocation.x, mBallLocation.y, Double.MAX_VALUE);
+            slot = tracker.findSlot(trackId);
+        }
 
-        double distance = PASS_SPEED * timeDelta;
+        if (slot == EuglenaTracker.NO_TRACK) {
+            updateBallLocation(null);
+        }
+        // The Euglena was not seen in this frame but may still turn up again, so hold the ball
+        // where it is instead of handing it to a neighbour.
+        else if (tracker.getMissedFrames(slot) > 0) {
+            updateBallLocation(null, trackId);
+        } else {
+            mBallEuglenaLocation.x = tracker.getX(slot);
+            mBallEuglenaLocation.y = tracker.getY(slot);
+            updateBallLocation(mBallEuglenaLocation, trackId);
+        }
+    }
 
-        // TODO: Check this math. This doesn't look quite right.
-        mBallLocation.x += distance * mPassingDirection.x;
-        mBallLocation.y += distance * mPassingDirection.y;
+    /**
+     * Updates the internal state of the soccer game with a new location for the ball, taken from
+     * the tracked Euglena that is carrying it.
+     *
+     * @param newLocation The new location of the ball, or null if the Euglena was not detected in
+     *                    the current frame.
+     * @param trackId     The ID of the tracked Euglena carrying the ball.
+     */
+    public void updateBallLocation(Point newLocation, int trackId) {
+        // A different Euglena has its own position and velocity, so the estimate and the history
+        // of the previous one would only make the ball jump.
+        if (trackId != mBallTrackId) {
+            mBallTrackId = trackId;
+            mBallEstimator.reset();
+            mPreviousBallLocations.clear();
+        }
+        updateBallLocation(newLocation);
+    }
 
-        // TODO: Ball should move for a certain amount of time each pass. If that much time has
-        // elapsed, stop passing.
+    /**
+     * Moves a passed ball along its path for the given time. The ball stops where it enters the
+     * goal it is passed towards, so checkCollisions() scores it however far it would have gone in
+     * this frame, and it bounces off the walls BOUNDS_BUFFER pixels from the edges of the field
+     * where its path meets them. A pass lasts MILLISECONDS_PER_PASS and covers the same path no
+     * matter how that time is split into frames.
+     */
+    public void moveBallDuringPass(long timeDelta) {
+        // Only the part of the frame that is still within the pass moves the ball.
+        long moveTime = Math.min(timeDelta, MILLISECONDS_PER_PASS - mPassingTime);
+        boolean enteredGoal = moveTime > 0 && sweepBall(PASS_SPEED * moveTime);
 
         mPassingTime += timeDelta;
-        if (mPassingTime >= MILLISECONDS_PER_PASS) {
+        // A ball that has entered the goal is still being passed when checkCollisions() scores
+        // it, even if the pass ran out of time in the same frame.
+        if (mPassingTime >= MILLISECONDS_PER_PASS && !enteredGoal) {
             mPassing = false;
             mPassingTime = 0;
             resetPassingDirection();
         }
     }
 
+    /**
+     * Moves the ball the given distance along the passing direction, from one collision to the
+     * next: the path is cut where it enters the goal being attacked, which stops the ball, or where
+     * it meets a wall, which reflects the passing direction. A path that meets two walls at once
+     * in a corner is reflected along both axes.
+     *
+     * @return true if the ball entered the goal.
+     */
+    private boolean sweepBall(double distance) {
+        Rect goal = mCurrentTurn == Turn.RED ? mBlueGoal : mRedGoal;
+
+        for (int i = 0; i < MAX_PASS_COLLISIONS && distance > 0; i++) {
+            double directionX = mPassingDirection.x;
+            double directionY = mPassingDirection.y;
+            if (directionX == 0 && directionY == 0) {
+                return false;
+            }
+
+            double goalDistance = distanceToEnter(goal, mBallLocation.x, mBallLocation.y,
+                    directionX, directionY);
+            double wallDistanceX = distanceToWall(mBallLocation.x, directionX, mFieldWidth);
+            double wallDistanceY = distanceToWall(mBallLocation.y, directionY, mFieldHeight);
+            double wallDistance = Math.min(wallDistanceX, wallDistanceY);
+
+            if (goalDistance <= distance && goalDistance <= wallDistance) {
+                mBallLocation.x += goalDistance * directionX;
+                mBallLocation.y += goalDistance * directionY;
+                moveInside(mBallLocation, goal);
+                return true;
+            }
+
+            if (wallDistance > distance) {
+                mBallLocation.x += distance * directionX;
+                mBallLocation.y += distance * directionY;
+                return false;
+            }
+
+            mBallLocation.x += wallDistance * directionX;
+            mBallLocation.y += wallDistance * directionY;
+            distance -= wallDistance;
+            // Put the ball exactly on the wall it hit, so rounding cannot leave it behind the wall.
+            if (wallDistanceX == wallDistance) {
+                mBallLocation.x = directionX < 0 ? BOUNDS_BUFFER : mFieldWidth - BOUNDS_BUFFER;
+                mPassingDirection.x = -directionX;
+            }
+            if (wallDistanceY == wallDistance) {
+                mBallLocation.y = directionY < 0 ? BOUNDS_BUFFER : mFieldHeight - BOUNDS_BUFFER;
+                mPassingDirection.y = -directionY;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return How far a ball at the given coordinate moving in the given direction along one axis
+     * travels before it meets the wall BOUNDS_BUFFER pixels inside the edge it moves towards, 0 if
+     * it is already at or past that wall, or infinity if it does not move along the axis.
+     */
+    private static double distanceToWall(double position, double direction, int size) {
+        if (direction < 0) {
+            return Math.max((position - BOUNDS_BUFFER) / -direction, 0);
+        } else if (direction > 0) {
+            return Math.max((size - BOUNDS_BUFFER - position) / direction, 0);
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return How far a point moving from (x, y) in the given direction travels before it enters
+     * the rectangle, 0 if it starts inside, or infinity if it misses the rectangle or only grazes
+     * its corner.
+     */
+    private static double distanceToEnter(Rect rect, double x, double y, double directionX,
+                                          double directionY) {
+        double near = 0;
+        double far = Double.POSITIVE_INFINITY;
+
+        if (directionX == 0) {
+            if (x < rect.x || x >= rect.x + rect.width) {
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            double first = (rect.x - x) / directionX;
+            double second = (rect.x + rect.width - x) / directionX;
+            near = Math.max(near, Math.min(first, second));
+            far = Math.min(far, Math.max(first, second));
+        }
+
+        if (directionY == 0) {
+            if (y < rect.y || y >= rect.y + rect.height) {
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            double first = (rect.y - y) / directionY;
+            double second = (rect.y + rect.height - y) / directionY;
+            near = Math.max(near, Math.min(first, second));
+            far = Math.min(far, Math.max(first, second));
+        }
+
+        return near < far ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Moves a point on the edge of the rectangle inside it as Point.inside() sees it, which leaves
+     * the right and bottom edges out, by at most the smallest step a double can take.
+     */
+    private static void moveInside(Point point, Rect rect) {
+        point.x = Math.min(Math.max(point.x, rect.x),
+                Math.nextAfter((double) (rect.x + rect.width), Double.NEGATIVE_INFINITY));
+        point.y = Math.min(Math.max(point.y, rect.y),
+                Math.nextAfter((double) (rect.y + rect.height), Double.NEGATIVE_INFINITY));
+    }
+
     public void checkCollisions() {
         // If a goal is scored.
         if (checkForGoal()) {
@@ -235,26 +480,17 @@ public class SoccerGame {
             return;
         }
 
-        boolean outOfBounds = checkForOutOfBounds();
-        // If we are in the middle of passing and the ball is out of bounds, then we should bounce
-        // off the walls.
-        if (mPassing && outOfBounds) {
-            bounceOffWalls();
-        } else if (!mPassing && outOfBounds) {
-            mDelegate.onOutOfBounds();
+        // A passed ball is kept inside the walls by moveBallDuringPass(), which bounces it off
+        // them, so only a ball that is being carried can go out of bounds.
+        if (!mPassing && checkForOutOfBounds()) {
+            if (mDelegate != null) {
+                mDelegate.onOutOfBounds();
+            }
             resetBall();
             changeTurn();
         }
     }
 
-    private void bounceOffWalls() {
-        if (mBallLocation.x < BOUNDS_BUFFER || mBallLocation.x > mFieldWidth - BOUNDS_BUFFER) {
-            mPassingDirection.x *= -1;
-        } else if (mBallLocation.y < BOUNDS_BUFFER || mBallLocation.y > mFieldHeight - BOUNDS_BUFFER) {
-            mPassingDirection.y *= -1;
-        }
-    }
-
     /**
      * Changes the turn to the next player.
      */
@@ -362,20 +598,18 @@ public class SoccerGame {
      * locations of the ball.
      */
     private void updatePassingDirection() {
-        // Add the current location to the previous locations list so it can be used for finding
-        // the movement direction of the ball.
-        mPreviousBallLocations.add(mBallLocation);
-
-        // If the number of stored previous locations has exceeded the defined limit, remove the
-        // oldest previous location.
-        if (mPreviousBallLocations.size() > PREVIOUS_LOCATIONS_TO_TRACK) {
-            mPreviousBallLocations.remove(0);
-        }
-
-        Point averageDirection = MathUtil.computeAverageDirection(mPreviousBallLocations);
-
-        if (averageDirection != null) {
-            mPassingDirection = averageDirection;
+        // Add the current location to the previous locations so it can be used for finding the
+        // movement direction of the ball. The history drops the oldest location by itself.
+        mPreviousBallLocations.add(mBallLocation.x, mBallLocation.y);
+
+        double velocityX = mPreviousBallLocations.getAverageVelocityX(PREVIOUS_LOCATIONS_TO_TRACK);
+        double velocityY = mPreviousBallLocations.getAverageVelocityY(PREVIOUS_LOCATIONS_TO_TRACK);
+        double length = Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+
+        // If the ball has not moved there is no direction to speak of, so keep the previous one.
+        if (length > 0) {
+            mPassingDirection.x = velocityX / length;
+            mPassingDirection.y = velocityY / length;
         }
     }
 
@@ -415,28 +649,46 @@ public class SoccerGame {
         return false;
     }
 
-    public String getWinningPlayer() {
+    /**
+     * @return The player with more points, or null if it is a tie.
+     */
+    public Turn getWinner() {
         if (mRedPlayerPoints > mBluePlayerPoints) {
-            return "Red Player Wins!\n\n" +
-                    "Red Player Stats:\n" + "   Points: " + mRedPlayerPoints +
-                    "\n   Max Speed: " + roundDown2(mMaxRedSpeed) + " um/s\n\n" +
-                    "Blue Player Stats:\n" + "   Points: " + mBluePlayerPoints +
-                    "\n   Max Speed: " + roundDown2(mMaxBlueSpeed) + " um/s";
+            return Turn.RED;
+        } else if (mBluePlayerPoints > mRedPlayerPoints) {
+            return Turn.BLUE;
         }
-        if (mBluePlayerPoints > mRedPlayerPoints) {
-            return "Blue Player Wins!\n\n" +
-                    "Red Player Stats:\n" + "   Points: " + mRedPlayerPoints +
-                    "\n   Max Speed: " + roundDown2(mMaxRedSpeed) + " um/s\n\n" +
-                    "Blue Player Stats:\n" + "   Points: " + mBluePlayerPoints +
-                    "\n   Max Speed: " + roundDown2(mMaxBlueSpeed) + " um/s";
-        } else {
-            return "Tie!\n\n" +
-                    "Red Player Stats:\n" + "   Points: " + mRedPlayerPoints +
-                    "\n   Max Speed: " + roundDown2(mMaxRedSpeed) + " um/s\n\n" +
-                    "Blue Player Stats:\n" + "   Points: " + mBluePlayerPoints +
-                    "\n   Max Speed: " + roundDown2(mMaxBlueSpeed) + " um/s";
+        return null;
+    }
+
+    /**
+     * @return The winner and both players' stats, for display.
+     */
+    public String getWinningPlayer() {
+        return getWinnerMessage(getWinner()) + "\n\n" + getPlayerStats();
+    }
 
+    /**
+     * @param winner The player with more points, or null if it is a tie.
+     * @return Who won, for display.
+     */
+    public static String getWinnerMessage(Turn winner) {
+        if (winner == Turn.RED) {
+            return "Red Player Wins!";
+        } else if (winner == Turn.BLUE) {
+            return "Blue Player Wins!";
         }
+        return "Tie!";
+    }
+
+    /**
+     * @return Both players' points and top speeds, for display.
+     */
+    public String getPlayerStats() {
+        return "Red Player Stats:\n" + "   Points: " + mRedPlayerPoints +
+                "\n   Max Speed: " + roundDown2(mMaxRedSpeed) + " um/s\n\n" +
+                "Blue Player Stats:\n" + "   Points: " + mBluePlayerPoints +
+                "\n   Max Speed: " + roundDown2(mMaxBlueSpeed) + " um/s";
     }
 
     public Rect returnMBlueGoal() {
@@ -444,11 +696,8 @@ public class SoccerGame {
     }
 
     public void updateSpeed() {
-        if (mPreviousBallLocations.size() > PREVIOUS_LOCATIONS_TO_TRACK_SPEED) {
-            mPreviousBallLocations.remove(0);
-        }
-
-        mSpeed = MathUtil.computeAverageSpeed(mPreviousBallLocations);
+        mSpeed = SPEED_SCALE *
+                mPreviousBallLocations.getAverageSpeed(PREVIOUS_LOCATIONS_TO_TRACK_SPEED);
 
         updateMaxSpeeds();
     }
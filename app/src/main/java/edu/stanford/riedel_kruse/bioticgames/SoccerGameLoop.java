@@ -0,0 +1,401 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+import java.util.List;
+
+import edu.stanford.riedel_kruse.bioticgamessdk.ImageProcessing;
+import edu.stanford.riedel_kruse.bioticgamessdk.MathUtil;
+
+/**
+ * Runs the soccer game on a stream of frames: tracks the Euglena carrying the ball, advances the
+ * game and draws it. It does not depend on Android, so the same loop runs in GameActivity on the
+ * camera and on the desktop on recorded frames.
+ *
+ * Tracking follows the frames, but the rules, the passed ball and the countdowns run on the
+ * fixed ticks of a GameClock, so that they do not depend on the frame rate. A passed ball is drawn
+ * between its positions at the last two ticks.
+ *
+ * The game is created from the size of the first frame. The time each part of the last frame
+ * took is available for profiling.
+ */
+public class SoccerGameLoop implements GameLoop {
+    /**
+     * How long the game pauses after a turn so the players can swap.
+     */
+    public static final int SWAP_TIME = 5000;
+    /**
+     * How far a Euglena may move between two frames and still be recognized as the same one.
+     */
+    public static final int TRACKING_GATE_DISTANCE = 25;
+    /**
+     * How many standard deviations of the ball's prediction error the tracking region covers on
+     * top of the gate distance.
+     */
+    public static final int PREDICTION_ERROR_MARGIN = 3;
+
+    private final SoccerGameDelegate mDelegate;
+    private final GameRenderer mRenderer = new GameRenderer();
+    private final GameClock mClock;
+
+    private SoccerGame mSoccerGame;
+
+    private boolean mTracking = true;
+    private boolean mCountingDown = true;
+    private boolean mFlipFrames = true;
+
+    private boolean mSwapping;
+    private long mSwapCountdown;
+    private volatile boolean mResetRequested;
+    private volatile boolean mResumeRequested;
+    private volatile boolean mPassRequested;
+
+    /**
+     * The ball's location before and after the last tick, and whether it was passed at both, in
+     * which case it is drawn in between.
+     */
+    private final Point mPreviousBallLocation = new Point();
+    private final Point mBallLocation = new Point();
+    private final Point mDrawnBallLocation = new Point();
+    private boolean mInterpolatingBall;
+
+    /**
+     * Raw NV21 data of the frame currently being processed, or null if the frame source does not
+     * expose it. When present, only the region around the ball is converted out of it for
+     * tracking.
+     */
+    private Mat mYuvFrame;
+    private EuglenaDetector mEuglenaDetector = new EuglenaDetector();
+    private SpatialGrid mEuglenaGrid;
+    private EuglenaTracker mEuglenaTracker;
+    /**
+     * Reused on every tracked frame so that tracking does not allocate: the ball's location, and
+     * the center and bounds of the region searched for it.
+     */
+    private final Point mTrackedBallLocation = new Point();
+    private final Point mBallRoiCenter = new Point();
+    private final Rect mBallRoi = new Rect();
+
+    private long mFlipTime;
+    private long mTrackTime;
+    private long mUpdateTime;
+    private long mDrawTime;
+
+    public SoccerGameLoop(SoccerGameDelegate delegate) {
+        this(delegate, new GameClock());
+    }
+
+    public SoccerGameLoop(SoccerGameDelegate delegate, GameClock clock) {
+        mDelegate = delegate;
+        mClock = clock;
+    }
+
+    /**
+     * Returns the game, or null until the first frame has been processed.
+     */
+    public SoccerGame getSoccerGame() {
+        return mSoccerGame;
+    }
+
+    public GameRenderer getRenderer() {
+        return mRenderer;
+    }
+
+    public GameClock getClock() {
+        return mClock;
+    }
+
+    public void setTracking(boolean tracking) {
+        mTracking = tracking;
+    }
+
+    /**
+     * Sets whether the turn countdown runs and the blinking arrow is shown.
+     */
+    public void setCountingDown(boolean countingDown) {
+        mCountingDown = countingDown;
+        if (mSoccerGame != null) {
+            if (countingDown) {
+                mSoccerGame.resumeCountdown();
+            } else {
+                mSoccerGame.pauseCountdown();
+            }
+        }
+    }
+
+    /**
+     * Sets whether frames are rotated by 180 degrees before they are processed, to match the
+     * orientation of the phone on the microscope. On by default. The raw NV21 frame is never
+     * rotated, so tracking maps the field into it either way.
+     */
+    public void setFlipFrames(boolean flipFrames) {
+        mFlipFrames = flipFrames;
+    }
+
+    /**
+     * Sets the raw NV21 data of the next frame, or null if there is none.
+     */
+    public void setYuvFrame(Mat yuvFrame) {
+        mYuvFrame = yuvFrame;
+    }
+
+    /**
+     * Resets the game at the start of the next frame. Safe to call from any thread: the game
+     * itself is only ever reset on the thread running the loop, so its delegate callbacks come
+     * from that thread too.
+     */
+    public void requestReset() {
+        mResetRequested = true;
+    }
+
+    /**
+     * Resumes the turn countdown at the start of the next frame, after a reset requested before
+     * it. Safe to call from any thread, like requestReset().
+     */
+    public void requestResume() {
+        mResumeRequested = true;
+    }
+
+    /**
+     * Passes the ball at the start of the next frame, unless the game is over by then. Safe to
+     * call from any thread, like requestReset().
+     */
+    public void requestPass() {
+        mPassRequested = true;
+    }
+
+    /**
+     * Pauses the game for SWAP_TIME milliseconds so the players can swap.
+     */
+    public void startSwap() {
+        mSwapping = true;
+        mSwapCountdown = SWAP_TIME;
+    }
+
+    public boolean isSwapping() {
+        return mSwapping;
+    }
+
+    /**
+     * Returns the milliseconds left until the players have to be swapped.
+     */
+    public long getSwapCountdown() {
+        return mSwapCountdown;
+    }
+
+    /**
+     * Nanoseconds the last frame spent on flipping.
+     */
+    public long getFlipTime() {
+        return mFlipTime;
+    }
+
+    /**
+     * Nanoseconds the last frame spent on tracking, 0 if it did not track.
+     */
+    public long getTrackTime() {
+        return mTrackTime;
+    }
+
+    /**
+     * Nanoseconds the last frame spent on the game logic, without flipping and tracking.
+     */
+    public long getUpdateTime() {
+        return mUpdateTime;
+    }
+
+    /**
+     * Nanoseconds the last frame spent in drawGame().
+     */
+    public long getDrawTime() {
+        return mDrawTime;
+    }
+
+    @Override
+    public void updateGame(Mat frame, long elapsed) {
+        long start = System.nanoTime();
+        if (mFlipFrames) {
+            // TODO: This sort of operation should be handled by the SDK automatically depending
+            // on the orientation of the phone.
+            Core.flip(frame, frame, -1);
+        }
+        long flipped = System.nanoTime();
+        mFlipTime = flipped - start;
+        mTrackTime = 0;
+        mUpdateTime = 0;
+
+        initSoccerGame(frame.cols(), frame.rows());
+        int ticks = mClock.advance(elapsed);
+        if (mResetRequested) {
+            mResetRequested = false;
+            mSoccerGame.reset();
+            mInterpolatingBall = false;
+        }
+        if (mResumeRequested) {
+            mResumeRequested = false;
+            mSoccerGame.resumeCountdown();
+        }
+        boolean passRequested = mPassRequested;
+        mPassRequested = false;
+
+        // If the game is over, then there's no need to process anything. No more ticks move the
+        // ball, so it is drawn where the game has it.
+        if (mSoccerGame.isGameOver()) {
+            mInterpolatingBall = false;
+            return;
+        }
+        if (passRequested) {
+            mSoccerGame.passBall();
+        }
+
+        // While swapping the game is essentially paused, and a passed ball moves by itself, so
+        // only a ball that is being carried follows the frames.
+        if (mTracking && !mSwapping && !mSoccerGame.isPassing()) {
+            long trackStart = System.nanoTime();
+            trackBall(frame);
+            mTrackTime = System.nanoTime() - trackStart;
+        }
+
+        for (int i = 0; i < ticks && !mSoccerGame.isGameOver(); i++) {
+            tick(mClock.getTickMillis());
+        }
+
+        mUpdateTime = System.nanoTime() - flipped - mTrackTime;
+    }
+
+    /**
+     * Advances the game by one tick of the clock.
+     */
+    private void tick(long tickMillis) {
+        // If we're swapping, the game is essentially paused, so just update the swap countdown.
+        if (mSwapping) {
+            mSwapCountdown -= tickMillis;
+            mSwapping = mSwapCountdown > 0;
+            mInterpolatingBall = false;
+            return;
+        }
+
+        boolean wasPassing = mSoccerGame.isPassing();
+        mSoccerGame.getBallLocation(mPreviousBallLocation);
+
+        // If we're passing the ball, then just tell the game how much time has passed.
+        if (wasPassing) {
+            mSoccerGame.moveBallDuringPass(tickMillis);
+        }
+
+        mSoccerGame.checkCollisions();
+        mSoccerGame.updateTime(tickMillis);
+
+        mSoccerGame.getBallLocation(mBallLocation);
+        // A ball that was scored or reset jumps, and a carried ball is drawn where it was seen.
+        mInterpolatingBall = wasPassing && mSoccerGame.isPassing();
+    }
+
+    /**
+     * Moves the ball along with the Euglena carrying it.
+     */
+    private void trackBall(Mat frame) {
+        if (mYuvFrame != null) {
+            followBallEuglena();
+        }
+        // Without the raw frame there is no tracker, so fall back to the closest Euglena to the
+        // ball.
+        else {
+            // Update the ball's location to be at the closest Euglena's location.
+            mSoccerGame.updateBallLocation(findClosestEuglenaToBall(frame));
+        }
+    }
+
+    @Override
+    public Mat drawGame(Mat frame) {
+        long start = System.nanoTime();
+        Point ballLocation = null;
+        if (mInterpolatingBall) {
+            double alpha = mClock.getAlpha();
+            mDrawnBallLocation.x = mPreviousBallLocation.x +
+                    (mBallLocation.x - mPreviousBallLocation.x) * alpha;
+            mDrawnBallLocation.y = mPreviousBallLocation.y +
+                    (mBallLocation.y - mPreviousBallLocation.y) * alpha;
+            ballLocation = mDrawnBallLocation;
+        }
+        mRenderer.draw(frame, mSoccerGame, mCountingDown && !mSoccerGame.isPassing(),
+                ballLocation);
+        mDrawTime = System.nanoTime() - start;
+        return frame;
+    }
+
+    /**
+     * Frees the native memory held for tracking and drawing. The loop can keep running
+     * afterwards; the buffers are allocated again as needed.
+     */
+    public void release() {
+        mEuglenaDetector.release();
+        mRenderer.release();
+    }
+
+    private void initSoccerGame(int cols, int rows) {
+        if (mSoccerGame == null) {
+            mSoccerGame = new SoccerGame(cols, rows, mDelegate);
+            mEuglenaGrid = new SpatialGrid(cols, rows, mSoccerGame.getBallRadius());
+            mEuglenaTracker = new EuglenaTracker(TRACKING_GATE_DISTANCE);
+            if (!mCountingDown) {
+                mSoccerGame.pauseCountdown();
+            }
+        }
+    }
+
+    /**
+     * @return The region around the ball to search for Euglena. The Rect is reused by the next
+     * call.
+     */
+    private Rect computeBallRoi() {
+        // Get the model data about the ball.
+        Point ballLocation = mBallRoiCenter;
+        int ballRadius = mSoccerGame.getBallRadius();
+
+        // While the Euglena carrying the ball is being followed, it can only be close to where
+        // the estimator expects it, so a smaller region around the prediction is enough.
+        if (mSoccerGame.getPredictedBallLocation(ballLocation)) {
+            // Keep the prediction on the field so the region never ends up empty.
+            ballLocation.x = Math.min(Math.max(ballLocation.x, 0),
+                    mSoccerGame.getFieldWidth() - 1);
+            ballLocation.y = Math.min(Math.max(ballLocation.y, 0),
+                    mSoccerGame.getFieldHeight() - 1);
+            ballRadius = (int) Math.min(ballRadius, TRACKING_GATE_DISTANCE +
+                    PREDICTION_ERROR_MARGIN * mSoccerGame.getBallPredictionError());
+        } else {
+            mSoccerGame.getBallLocation(ballLocation);
+        }
+
+        // Create a region of interest based on the location of the ball.
+        Rect roi = mBallRoi;
+        roi.x = Math.max((int) ballLocation.x - ballRadius, 0);
+        roi.y = Math.max((int) ballLocation.y - ballRadius, 0);
+        roi.width = Math.min(ballRadius * 2, mSoccerGame.getFieldWidth() - roi.x);
+        roi.height = Math.min(ballRadius * 2, mSoccerGame.getFieldHeight() - roi.y);
+        return roi;
+    }
+
+    private Point findClosestEuglenaToBall(Mat frame) {
+        // Find all things that look like Euglena in the region of interest.
+        List<Point> euglenaLocations = ImageProcessing.findEuglenaInRoi(frame, computeBallRoi());
+
+        // Find the location of the Euglena that is closest to the ball.
+        mSoccerGame.getBallLocation(mTrackedBallLocation);
+        return MathUtil.findClosestPoint(mTrackedBallLocation, euglenaLocations);
+    }
+
+    /**
+     * Detects the Euglena around the ball, updates their tracks and moves the ball along with the
+     * one carrying it.
+     */
+    private void followBallEuglena() {
+        mEuglenaDetector.findEuglenaInFieldRoi(mYuvFrame, computeBallRoi(), mFlipFrames);
+        mEuglenaDetector.indexEuglena(mEuglenaGrid);
+        mEuglenaTracker.update(mEuglenaGrid);
+        mSoccerGame.followBallEuglena(mEuglenaTracker);
+    }
+}
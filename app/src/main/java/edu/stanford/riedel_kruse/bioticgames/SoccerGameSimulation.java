@@ -0,0 +1,295 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Point;
+
+import java.util.Random;
+
+/**
+ * Plays SoccerGame without a camera: a synthetic Euglena carries the ball on a seeded random
+ * walk that drifts towards the goal being attacked and now and then passes it. Every tick feeds
+ * the game the same calls SoccerGameLoop makes for a frame, with a fixed time step, so a
+ * simulation with a given seed always plays out the same way. Ticks do not allocate and do not
+ * touch OpenCV's native code, so millions of them run per second on the desktop.
+ *
+ * With rule checking on, the simulation tracks the scores and turns from the delegate callbacks
+ * and throws an IllegalStateException as soon as the game breaks one of its rules:
+ * - A goal is only scored by the player whose turn it is, for NO_PASS_POINTS when carried in and
+ *   for 1 point when passed in.
+ * - Scores do not change without a goal being reported.
+ * - Turns alternate, and every turn starts with MILLISECONDS_PER_TURN on the clock.
+ * - The game ends after NUM_TURNS_PER_GAME turns.
+ * - A passed ball stays within the walls BOUNDS_BUFFER pixels inside the edges of the field.
+ *
+ * The swap pause between turns belongs to the game loop, not the game, and is not simulated.
+ */
+public class SoccerGameSimulation implements SoccerGameDelegate {
+    public static final int DEFAULT_FIELD_WIDTH = 1280;
+    public static final int DEFAULT_FIELD_HEIGHT = 720;
+    /**
+     * The time step of a tick: a 30 fps camera.
+     */
+    public static final long DEFAULT_TIME_STEP = 33;
+    /**
+     * Pixels a Euglena moves per tick.
+     */
+    public static final double DEFAULT_EUGLENA_SPEED = 3;
+    /**
+     * How strongly the walk is pulled towards the goal being attacked, as a fraction of the speed.
+     */
+    public static final double DEFAULT_DRIFT = 0.5;
+    /**
+     * Chance per tick that a ball being carried is passed.
+     */
+    public static final double DEFAULT_PASS_PROBABILITY = 0.005;
+    /**
+     * Standard deviation in radians of the heading change per tick.
+     */
+    private static final double HEADING_NOISE = 0.3;
+
+    private final Random mRandom;
+    private final SoccerGame mGame;
+    private final Point mBallLocation = new Point();
+
+    private long mTimeStep = DEFAULT_TIME_STEP;
+    private double mEuglenaSpeed = DEFAULT_EUGLENA_SPEED;
+    private double mDrift = DEFAULT_DRIFT;
+    private double mPassProbability = DEFAULT_PASS_PROBABILITY;
+    private boolean mCheckingRules;
+    private double mHeading;
+
+    private long mTicks;
+    private long mGoals;
+    private long mOutOfBounds;
+    private long mTurnChanges;
+    private long mGamesPlayed;
+
+    private int mExpectedRedPoints;
+    private int mExpectedBluePoints;
+    private SoccerGame.Turn mExpectedTurn;
+    private int mTurnsThisGame;
+    private boolean mResetting;
+
+    public SoccerGameSimulation(long seed) {
+        this(DEFAULT_FIELD_WIDTH, DEFAULT_FIELD_HEIGHT, seed);
+    }
+
+    public SoccerGameSimulation(int fieldWidth, int fieldHeight, long seed) {
+        mRandom = new Random(seed);
+        mGame = new SoccerGame(fieldWidth, fieldHeight, this);
+        startGame();
+    }
+
+    public SoccerGame getGame() {
+        return mGame;
+    }
+
+    /**
+     * @param timeStep Milliseconds of game time per tick.
+     */
+    public void setTimeStep(long timeStep) {
+        mTimeStep = timeStep;
+    }
+
+    public void setEuglenaSpeed(double euglenaSpeed) {
+        mEuglenaSpeed = euglenaSpeed;
+    }
+
+    public void setDrift(double drift) {
+        mDrift = drift;
+    }
+
+    public void setPassProbability(double passProbability) {
+        mPassProbability = passProbability;
+    }
+
+    /**
+     * Sets whether every tick checks the game's rules. Off by default, to measure the game alone.
+     */
+    public void setCheckingRules(boolean checkingRules) {
+        mCheckingRules = checkingRules;
+    }
+
+    /**
+     * Plays the given number of ticks. A game that ends is started over.
+     */
+    public void run(long ticks) {
+        for (long i = 0; i < ticks; i++) {
+            tick();
+        }
+    }
+
+    /**
+     * Plays one tick: moves the ball, checks for goals and the ball leaving the field and advances
+     * the turn clock, in the order SoccerGameLoop does for a frame.
+     */
+    public void tick() {
+        if (mGame.isGameOver()) {
+            mResetting = true;
+            mGame.reset();
+            mResetting = false;
+            startGame();
+        }
+
+        if (mGame.isPassing()) {
+            mGame.moveBallDuringPass(mTimeStep);
+        } else if (mRandom.nextDouble() < mPassProbability) {
+            mGame.passBall();
+        } else {
+            moveEuglena();
+            mGame.updateBallLocation(mBallLocation);
+        }
+
+        mGame.checkCollisions();
+        mGame.updateTime(mTimeStep);
+        mTicks++;
+
+        if (mCheckingRules) {
+            checkRules();
+        }
+    }
+
+    /**
+     * Moves the Euglena carrying the ball one step from where the ball is, into mBallLocation.
+     */
+    private void moveEuglena() {
+        mGame.getBallLocation(mBallLocation);
+
+        mHeading += mRandom.nextGaussian() * HEADING_NOISE;
+        double dx = Math.cos(mHeading);
+        double dy = Math.sin(mHeading);
+
+        // Red attacks the blue goal on the right, blue the red goal on the left, both at mid
+        // height.
+        double targetX = mGame.getCurrentTurn() == SoccerGame.Turn.RED ? mGame.getFieldWidth() : 0;
+        double toTargetX = targetX - mBallLocation.x;
+        double toTargetY = mGame.getFieldHeight() / 2.0 - mBallLocation.y;
+        double distance = Math.sqrt(toTargetX * toTargetX + toTargetY * toTargetY);
+        if (distance > 0) {
+            dx += mDrift * toTargetX / distance;
+            dy += mDrift * toTargetY / distance;
+        }
+
+        mBallLocation.x += mEuglenaSpeed * dx;
+        mBallLocation.y += mEuglenaSpeed * dy;
+    }
+
+    private void startGame() {
+        mExpectedRedPoints = mGame.getRedPlayerPoints();
+        mExpectedBluePoints = mGame.getBluePlayerPoints();
+        mExpectedTurn = mGame.getCurrentTurn();
+        mTurnsThisGame = 1;
+    }
+
+    private void checkRules() {
+        if (mGame.getRedPlayerPoints() != mExpectedRedPoints ||
+                mGame.getBluePlayerPoints() != mExpectedBluePoints) {
+            fail("Scores changed to " + mGame.getRedPlayerPoints() + ":" +
+                    mGame.getBluePlayerPoints() + " without a goal, expected " +
+                    mExpectedRedPoints + ":" + mExpectedBluePoints);
+        }
+        if (!mGame.isGameOver() && mGame.getCurrentTurn() != mExpectedTurn) {
+            fail("Turn changed to " + mGame.getCurrentTurn() + " without being reported");
+        }
+        if (mGame.getTimeLeftInTurn() > SoccerGame.MILLISECONDS_PER_TURN) {
+            fail(mGame.getTimeLeftInTurn() + " ms left in the turn");
+        }
+        if (mGame.isPassing()) {
+            mGame.getBallLocation(mBallLocation);
+            if (mBallLocation.x < SoccerGame.BOUNDS_BUFFER ||
+                    mBallLocation.y < SoccerGame.BOUNDS_BUFFER ||
+                    mBallLocation.x > mGame.getFieldWidth() - SoccerGame.BOUNDS_BUFFER ||
+                    mBallLocation.y > mGame.getFieldHeight() - SoccerGame.BOUNDS_BUFFER) {
+                fail("Passed ball left the field at " + mBallLocation);
+            }
+        }
+    }
+
+    private void fail(String message) {
+        throw new IllegalStateException("Tick " + mTicks + ": " + message);
+    }
+
+    public long getTicks() {
+        return mTicks;
+    }
+
+    public long getGoals() {
+        return mGoals;
+    }
+
+    public long getOutOfBounds() {
+        return mOutOfBounds;
+    }
+
+    public long getTurnChanges() {
+        return mTurnChanges;
+    }
+
+    /**
+     * @return The number of games that have ended.
+     */
+    public long getGamesPlayed() {
+        return mGamesPlayed;
+    }
+
+    @Override
+    public void onChangedTurn(SoccerGame.Turn currentTurn) {
+        // The game reports the first turn of a game from its constructor and from reset(), which
+        // startGame() picks up afterwards.
+        if (mGame == null || mResetting) {
+            return;
+        }
+
+        mTurnChanges++;
+        if (mCheckingRules) {
+            if (currentTurn == mExpectedTurn) {
+                fail("Turn changed from " + mExpectedTurn + " to itself");
+            }
+            if (mGame.getTimeLeftInTurn() != SoccerGame.MILLISECONDS_PER_TURN) {
+                fail("Turn started with " + mGame.getTimeLeftInTurn() + " ms");
+            }
+        }
+        mExpectedTurn = currentTurn;
+        mTurnsThisGame++;
+    }
+
+    @Override
+    public void onGoalScored(SoccerGame.Turn currentTurn) {
+        mGoals++;
+        if (mCheckingRules) {
+            if (currentTurn != mGame.getCurrentTurn()) {
+                fail(currentTurn + " scored during " + mGame.getCurrentTurn() + "'s turn");
+            }
+            int expectedPoints = mGame.isPassing() ? 1 : SoccerGame.NO_PASS_POINTS;
+            if (mGame.getPointsScored() != expectedPoints) {
+                fail("Goal scored " + mGame.getPointsScored() + " points instead of " +
+                        expectedPoints);
+            }
+        }
+
+        if (currentTurn == SoccerGame.Turn.RED) {
+            mExpectedRedPoints += mGame.getPointsScored();
+        } else {
+            mExpectedBluePoints += mGame.getPointsScored();
+        }
+    }
+
+    @Override
+    public void onOutOfBounds() {
+        mOutOfBounds++;
+    }
+
+    @Override
+    public void onPickupButtonPressed(SoccerGame.Turn currentTurn) {
+        // The simulation never presses the pickup button, so this only happens if the game is
+        // broken.
+        fail("Pickup reported without the button being pressed");
+    }
+
+    @Override
+    public void onGameOver() {
+        mGamesPlayed++;
+        if (mCheckingRules && mTurnsThisGame != SoccerGame.NUM_TURNS_PER_GAME) {
+            fail("Game ended after " + mTurnsThisGame + " turns");
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Point;
+
+/**
+ * A uniform grid over the game field for fast nearest-neighbour and radius queries on a set of
+ * points, typically the Euglena detected in the current frame.
+ *
+ * The grid is rebuilt from scratch once per frame with build(), which bins the points with a
+ * counting sort in O(n + cells). Queries then only look at the cells around the query position
+ * instead of scanning every point, so many queries against the same frame (multiple balls, AI
+ * players) stay cheap even with hundreds of Euglena in view.
+ *
+ * Points are referred to by their index in the arrays passed to build(). All buffers are reused
+ * between builds and only grow when a frame has more points than any frame before it.
+ */
+public class SpatialGrid {
+    private int mFieldWidth;
+    private int mFieldHeight;
+    private double mCellSize;
+    private int mColumns;
+    private int mRows;
+
+    /**
+     * For cell c, the points in that cell are mCellItems[mCellStart[c]] up to (but excluding)
+     * mCellItems[mCellStart[c + 1]].
+     */
+    private int[] mCellStart;
+    private int[] mCellCursor;
+    private int[] mCellItems = new int[0];
+    private int[] mPointCell = new int[0];
+
+    private double[] mXs = new double[0];
+    private double[] mYs = new double[0];
+    private int mPointCount;
+
+    /**
+     * @param fieldWidth  Width of the field the points lie in.
+     * @param fieldHeight Height of the field the points lie in.
+     * @param cellSize    Edge length of a grid cell. A good choice is around the typical query
+     *                    radius, e.g. the ball radius.
+     */
+    public SpatialGrid(int fieldWidth, int fieldHeight, double cellSize) {
+        mFieldWidth = fieldWidth;
+        mFieldHeight = fieldHeight;
+        mCellSize = cellSize;
+        mColumns = Math.max(1, (int) Math.ceil(fieldWidth / cellSize));
+        mRows = Math.max(1, (int) Math.ceil(fieldHeight / cellSize));
+        mCellStart = new int[mColumns * mRows + 1];
+        mCellCursor = new int[mColumns * mRows];
+    }
+
+    /**
+     * Rebuilds the grid from the first count entries of xs and ys. The coordinates are copied, so
+     * the arrays may be reused by the caller right away. Points outside the field are clamped into
+     * the border cells.
+     */
+    public void build(double[] xs, double[] ys, int count) {
+        ensureCapacity(count);
+        System.arraycopy(xs, 0, mXs, 0, count);
+        System.arraycopy(ys, 0, mYs, 0, count);
+        mPointCount = count;
+
+        int cellCount = mColumns * mRows;
+        for (int cell = 0; cell <= cellCount; cell++) {
+            mCellStart[cell] = 0;
+        }
+
+        // Count the points per cell, shifted by one so the prefix sum yields start offsets.
+        for (int i = 0; i < count; i++) {
+            int cell = cellOf(mXs[i], mYs[i]);
+            mPointCell[i] = cell;
+            mCellStart[cell + 1]++;
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            mCellStart[cell + 1] += mCellStart[cell];
+        }
+
+        // Scatter the point indices into their cells.
+        System.arraycopy(mCellStart, 0, mCellCursor, 0, cellCount);
+        for (int i = 0; i < count; i++) {
+            mCellItems[mCellCursor[mPointCell[i]]++] = i;
+        }
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    public double getX(int point) {
+        return mXs[point];
+    }
+
+    public double getY(int point) {
+        return mYs[point];
+    }
+
+    /**
+     * Finds the point closest to (x, y).
+     *
+     * @param maxDistance Points further away than this are ignored. Pass Double.MAX_VALUE for an
+     *                    unbounded search.
+     * @return The index of the closest point, or -1 if there is none within maxDistance.
+     */
+    public int findNearest(double x, double y, double maxDistance) {
+        if (mPointCount == 0) {
+            return -1;
+        }
+
+        int centerColumn = clamp((int) (x / mCellSize), mColumns);
+        int centerRow = clamp((int) (y / mCellSize), mRows);
+        int maxRing = Math.max(mColumns, mRows);
+        if (maxDistance < Double.MAX_VALUE) {
+            maxRing = Math.min(maxRing, (int) Math.ceil(maxDistance / mCellSize) + 1);
+        }
+
+        int nearest = -1;
+        double nearestDistanceSquared = maxDistance < Double.MAX_VALUE ?
+                maxDistance * maxDistance : Double.MAX_VALUE;
+
+        // Search outward ring by ring. Once a point has been found, any point in ring r + 1 or
+        // beyond is at least r cells away, so the search can stop when that bound exceeds the best
+        // distance found so far.
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (nearest != -1) {
+                double ringDistance = (ring - 1) * mCellSize;
+                if (ringDistance > 0 && ringDistance * ringDistance > nearestDistanceSquared) {
+                    break;
+                }
+            }
+
+            int top = centerRow - ring;
+            int bottom = centerRow + ring;
+            int left = centerColumn - ring;
+            int right = centerColumn + ring;
+            for (int row = Math.max(top, 0); row <= Math.min(bottom, mRows - 1); row++) {
+                boolean edgeRow = row == top || row == bottom;
+                for (int column = Math.max(left, 0); column <= Math.min(right, mColumns - 1);
+                     column++) {
+                    // Only visit the cells on the border of this ring; the inside was searched
+                    // by the previous rings.
+                    if (!edgeRow && column != left && column != right) {
+                        continue;
+                    }
+
+                    int cell = row * mColumns + column;
+                    for (int slot = mCellStart[cell]; slot < mCellStart[cell + 1]; slot++) {
+                        int point = mCellItems[slot];
+                        double dx = mXs[point] - x;
+                        double dy = mYs[point] - y;
+                        double distanceSquared = dx * dx + dy * dy;
+                        if (distanceSquared < nearestDistanceSquared) {
+                            nearestDistanceSquared = distanceSquared;
+                            nearest = point;
+                        }
+                    }
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    public int findNearest(Point location, double maxDistance) {
+        return findNearest(location.x, location.y, maxDistance);
+    }
+
+    /**
+     * Collects the indices of all points within radius of (x, y).
+     *
+     * @param result Receives the indices of the matching points. Only as many points as fit into
+     *               the array are stored.
+     * @return The number of matching points, which may be larger than result.length.
+     */
+    public int findWithinRadius(double x, double y, double radius, int[] result) {
+        int firstColumn = clamp((int) ((x - radius) / mCellSize), mColumns);
+        int lastColumn = clamp((int) ((x + radius) / mCellSize), mColumns);
+        int firstRow = clamp((int) ((y - radius) / mCellSize), mRows);
+        int lastRow = clamp((int) ((y + radius) / mCellSize), mRows);
+        double radiusSquared = radius * radius;
+
+        int found = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                for (int slot = mCellStart[cell]; slot < mCellStart[cell + 1]; slot++) {
+                    int point = mCellItems[slot];
+                    double dx = mXs[point] - x;
+                    double dy = mYs[point] - y;
+                    if (dx * dx + dy * dy <= radiusSquared) {
+                        if (found < result.length) {
+                            result[found] = point;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+
+        return found;
+    }
+
+    public int getFieldWidth() {
+        return mFieldWidth;
+    }
+
+    public int getFieldHeight() {
+        return mFieldHeight;
+    }
+
+    private int cellOf(double x, double y) {
+        return clamp((int) (y / mCellSize), mRows) * mColumns +
+                clamp((int) (x / mCellSize), mColumns);
+    }
+
+    private static int clamp(int index, int size) {
+        if (index < 0) {
+            return 0;
+        }
+        if (index >= size) {
+            return size - 1;
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int count) {
+        if (mXs.length < count) {
+            int capacity = Math.max(count, mXs.length * 2);
+            mXs = new double[capacity];
+            mYs = new double[capacity];
+            mPointCell = new int[capacity];
+            mCellItems = new int[capacity];
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package edu.stanford.riedel_kruse.bioticgames;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Euglena detection that works directly on raw NV21 camera frames instead of RGBA frames.
+ *
+ * findEuglena thresholds a whole frame on its Y and VU planes, so neither the NV21 to RGBA nor the
+ * RGBA to HSV conversion runs, and finds the same mask as ImageProcessing.findEuglena does on the
+ * frame converted to RGBA. Its points are in sensor coordinates, i.e. the coordinates of the
+ * unflipped camera frame.
+ *
+ * findEuglenaInFieldRoi converts only a small region of the frame and applies the same HSV
+ * thresholds as ImageProcessing, so its results match the RGBA pipeline while its cost depends on
+ * the size of the region rather than the size of the frame.
+ *
+ * These are one-off conveniences that allocate their buffers on every call. Code that runs once
+ * per camera frame should hold on to an EuglenaDetector instead.
+ */
+public class YuvImageProcessing {
+    /**
+     * Finds all Euglena in an NV21 frame.
+     *
+     * @param yuv The NV21 frame as returned by CvCameraViewFrame.yuv().
+     * @return The centroids of the detected Euglena in sensor coordinates.
+     */
+    public static List<Point> findEuglena(Mat yuv) {
+        EuglenaDetector detector = new EuglenaDetector();
+        List<Point> euglenaLocations = new ArrayList<Point>(detector.findEuglena(yuv, false));
+        detector.release();
+        return euglenaLocations;
+    }
+
+    /**
+     * Finds Euglena inside a region of interest given in field coordinates, where the field is the
+     * camera frame flipped around both axes.
+     *
+     * @param yuv The NV21 frame as returned by CvCameraViewFrame.yuv().
+     * @param roi The region of interest in field coordinates.
+     * @return The centroids of the detected Euglena in field coordinates.
+     */
+    public static List<Point> findEuglenaInFieldRoi(Mat yuv, Rect roi) {
+        EuglenaDetector detector = new EuglenaDetector();
+        List<Point> euglenaLocations =
+                new ArrayList<Point>(detector.findEuglenaInFieldRoi(yuv, roi));
+        detector.release();
+        return euglenaLocations;
+    }
+
+    /**
+     * @return The height of the image stored in an NV21 frame, excluding the chroma rows.
+     */
+    public static int frameHeight(Mat yuv) {
+        return yuv.rows() * 2 / 3;
+    }
+}
@@ -0,0 +1,96 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.opencv.core.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.riedel_kruse.bioticgames.BallLocationHistory;
+import edu.stanford.riedel_kruse.bioticgamessdk.MathUtil;
+
+/**
+ * Measures one frame's worth of ball history bookkeeping in SoccerGame: adding the new location
+ * and computing the average direction and speed over the window. The ArrayList variant is what
+ * SoccerGame did before it switched to BallLocationHistory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BallLocationHistoryBenchmark {
+    private static final long SEED = 42;
+    /**
+     * Number of precomputed trajectory locations. A power of two so the frame index can wrap with
+     * a mask.
+     */
+    private static final int TRAJECTORY_LENGTH = 1024;
+
+    @Param({"20", "30", "300"})
+    public int window;
+
+    private double[] mXs;
+    private double[] mYs;
+    private int mFrame;
+
+    private List<Point> mLocationList;
+    private BallLocationHistory mLocationHistory;
+
+    @Setup
+    public void setUp() {
+        // A random walk, roughly what a Euglena carrying the ball looks like.
+        Random random = new Random(SEED);
+        mXs = new double[TRAJECTORY_LENGTH];
+        mYs = new double[TRAJECTORY_LENGTH];
+        double x = 320;
+        double y = 240;
+        for (int i = 0; i < TRAJECTORY_LENGTH; i++) {
+            x += random.nextGaussian() * 3;
+            y += random.nextGaussian() * 3;
+            mXs[i] = x;
+            mYs[i] = y;
+        }
+
+        // Start from a full window so every measured frame has to drop a location.
+        mLocationList = new ArrayList<Point>();
+        mLocationHistory = new BallLocationHistory(window);
+        for (mFrame = 0; mFrame < window; mFrame++) {
+            int i = mFrame & (TRAJECTORY_LENGTH - 1);
+            mLocationList.add(new Point(mXs[i], mYs[i]));
+            mLocationHistory.add(mXs[i], mYs[i]);
+        }
+    }
+
+    @Benchmark
+    public double arrayListWithMathUtil() {
+        int i = mFrame++ & (TRAJECTORY_LENGTH - 1);
+        mLocationList.add(new Point(mXs[i], mYs[i]));
+        if (mLocationList.size() > window) {
+            mLocationList.remove(0);
+        }
+
+        Point direction = MathUtil.computeAverageDirection(mLocationList);
+        double speed = MathUtil.computeAverageSpeed(mLocationList);
+        return direction.x + direction.y + speed;
+    }
+
+    @Benchmark
+    public double ringBuffer() {
+        int i = mFrame++ & (TRAJECTORY_LENGTH - 1);
+        mLocationHistory.add(mXs[i], mYs[i]);
+
+        double velocityX = mLocationHistory.getAverageVelocityX(window);
+        double velocityY = mLocationHistory.getAverageVelocityY(window);
+        double length = Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+        double speed = mLocationHistory.getAverageSpeed(window);
+        return velocityX / length + velocityY / length + speed;
+    }
+}
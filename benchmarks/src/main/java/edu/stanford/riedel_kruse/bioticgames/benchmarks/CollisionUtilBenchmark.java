@@ -0,0 +1,80 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.riedel_kruse.bioticgamessdk.Circle;
+import edu.stanford.riedel_kruse.bioticgamessdk.CollisionUtil;
+import edu.stanford.riedel_kruse.bioticgamessdk.CompositeShape;
+import edu.stanford.riedel_kruse.bioticgamessdk.GameObject;
+import edu.stanford.riedel_kruse.bioticgamessdk.Rectangle;
+
+/**
+ * Measures CollisionUtil.collided for the shape pairs a soccer field has: the ball against
+ * another ball, against a goal post and against a whole goal made of three posts. The objects are
+ * passed as GameObjects, so the measured time includes the SDK's type dispatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CollisionUtilBenchmark {
+    private static final Scalar COLOR = new Scalar(255, 0, 0);
+
+    private GameObject mBall;
+    private GameObject mOtherBall;
+    private GameObject mPost;
+    private GameObject mOtherPost;
+    private GameObject mGoal;
+    private GameObject mOtherGoal;
+
+    @Setup
+    public void setUp() {
+        mBall = new Circle(new Point(100, 360), 50, COLOR, 1, true);
+        mOtherBall = new Circle(new Point(180, 380), 50, COLOR, 1, true);
+        mPost = new Rectangle(new Point(60, 160), 10, 400, COLOR, -1, true);
+        mOtherPost = new Rectangle(new Point(1210, 160), 10, 400, COLOR, -1, true);
+        mGoal = createGoal(0);
+        mOtherGoal = createGoal(1230);
+    }
+
+    private static CompositeShape createGoal(int x) {
+        return new CompositeShape(new Point(x, 160),
+                new Rectangle(new Point(x, 160), 10, 400, COLOR, -1, true),
+                new Rectangle(new Point(x + 10, 160), 40, 10, COLOR, -1, true),
+                new Rectangle(new Point(x + 10, 550), 40, 10, COLOR, -1, true));
+    }
+
+    @Benchmark
+    public boolean circleCircle() {
+        return CollisionUtil.collided(mBall, mOtherBall);
+    }
+
+    @Benchmark
+    public boolean rectangleCircle() {
+        return CollisionUtil.collided(mPost, mBall);
+    }
+
+    @Benchmark
+    public boolean rectangleRectangle() {
+        return CollisionUtil.collided(mPost, mOtherPost);
+    }
+
+    @Benchmark
+    public boolean compositeCircle() {
+        return CollisionUtil.collided(mGoal, mBall);
+    }
+
+    @Benchmark
+    public boolean compositeComposite() {
+        return CollisionUtil.collided(mGoal, mOtherGoal);
+    }
+}
@@ -0,0 +1,122 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.riedel_kruse.bioticgames.CollisionWorld;
+import edu.stanford.riedel_kruse.bioticgamessdk.Circle;
+import edu.stanford.riedel_kruse.bioticgamessdk.CollisionUtil;
+import edu.stanford.riedel_kruse.bioticgamessdk.CompositeShape;
+import edu.stanford.riedel_kruse.bioticgamessdk.GameObject;
+import edu.stanford.riedel_kruse.bioticgamessdk.Rectangle;
+
+/**
+ * Compares finding all colliding pairs among a field of balls, posts and goals with CollisionWorld
+ * against calling CollisionUtil.collided on every pair. Before each search every object moves a
+ * few pixels, like it would between two frames, so the world has to keep its order up to date.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CollisionWorldBenchmark {
+    private static final long SEED = 42;
+    private static final Scalar COLOR = new Scalar(255, 0, 0);
+    private static final int FIELD_WIDTH = 1280;
+    private static final int FIELD_HEIGHT = 720;
+    /**
+     * Pixels an object moves per search along each axis at most.
+     */
+    private static final int MAX_STEP = 3;
+
+    @Param({"10", "50", "200"})
+    public int objectCount;
+
+    private Random mRandom;
+    private GameObject[] mObjects;
+    private double[] mXSteps;
+    private double[] mYSteps;
+    private CollisionWorld mWorld;
+
+    @Setup
+    public void setUp() {
+        mRandom = new Random(SEED);
+        mObjects = new GameObject[objectCount];
+        mXSteps = new double[objectCount];
+        mYSteps = new double[objectCount];
+        mWorld = new CollisionWorld();
+        for (int i = 0; i < objectCount; i++) {
+            int x = mRandom.nextInt(FIELD_WIDTH);
+            int y = mRandom.nextInt(FIELD_HEIGHT);
+            // Mostly balls, like the Euglena a field is full of, with some posts and goals.
+            switch (mRandom.nextInt(10)) {
+                case 0:
+                    mObjects[i] = new Rectangle(new Point(x, y), 10, 100, COLOR, -1, true);
+                    break;
+                case 1:
+                    mObjects[i] = createGoal(x, y);
+                    break;
+                default:
+                    mObjects[i] = new Circle(new Point(x, y), 10 + mRandom.nextInt(20), COLOR, 1,
+                            true);
+                    break;
+            }
+            mXSteps[i] = (mRandom.nextDouble() * 2 - 1) * MAX_STEP;
+            mYSteps[i] = (mRandom.nextDouble() * 2 - 1) * MAX_STEP;
+            mWorld.add(mObjects[i]);
+        }
+    }
+
+    private static CompositeShape createGoal(int x, int y) {
+        return new CompositeShape(new Point(x, y),
+                new Rectangle(new Point(0, 0), 10, 200, COLOR, -1, true),
+                new Rectangle(new Point(10, 0), 40, 10, COLOR, -1, true),
+                new Rectangle(new Point(10, 190), 40, 10, COLOR, -1, true));
+    }
+
+    /**
+     * Moves every object one step, turning it around at the edges of the field.
+     */
+    private void moveObjects() {
+        for (int i = 0; i < mObjects.length; i++) {
+            Point position = mObjects[i].position();
+            if (position.x < 0 || position.x > FIELD_WIDTH) {
+                mXSteps[i] = -mXSteps[i];
+            }
+            if (position.y < 0 || position.y > FIELD_HEIGHT) {
+                mYSteps[i] = -mYSteps[i];
+            }
+            mObjects[i].setPosition(new Point(position.x + mXSteps[i], position.y + mYSteps[i]));
+        }
+    }
+
+    @Benchmark
+    public int pairwise() {
+        moveObjects();
+        int contacts = 0;
+        for (int i = 0; i < mObjects.length; i++) {
+            for (int j = i + 1; j < mObjects.length; j++) {
+                if (CollisionUtil.collided(mObjects[i], mObjects[j])) {
+                    contacts++;
+                }
+            }
+        }
+        return contacts;
+    }
+
+    @Benchmark
+    public int collisionWorld() {
+        moveObjects();
+        return mWorld.step(null);
+    }
+}
@@ -0,0 +1,138 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Random;
+
+/**
+ * Camera frames for the image processing benchmarks, in the RGBA layout the camera view delivers,
+ * or converted to the camera's raw NV21 layout.
+ */
+public class Frames {
+    /**
+     * System property with the path of the recorded frame. The jmh task points it at the
+     * microscope photo that ships with the app.
+     */
+    public static final String RECORDED_FRAME_PROPERTY = "bioticgames.recordedFrame";
+
+    public static final String SOURCE_SYNTHETIC = "synthetic";
+    public static final String SOURCE_RECORDED = "recorded";
+
+    private static final long SEED = 42;
+    /**
+     * Roughly the density of the recorded frame, per megapixel.
+     */
+    private static final int EUGLENA_PER_MEGAPIXEL = 60;
+    private static final Scalar BACKGROUND_COLOR = new Scalar(215, 218, 212, 255);
+    /**
+     * A green that falls inside the SDK's HSV threshold.
+     */
+    private static final Scalar EUGLENA_COLOR = new Scalar(90, 170, 60, 255);
+
+    private static boolean sLibraryLoaded;
+
+    private Frames() {
+    }
+
+    /**
+     * Loads the desktop OpenCV natives bundled with the OpenCV dependency.
+     */
+    public static synchronized void loadLibrary() {
+        if (!sLibraryLoaded) {
+            nu.pattern.OpenCV.loadShared();
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+            sLibraryLoaded = true;
+        }
+    }
+
+    /**
+     * @param resolution Frame size as "<width>x<height>", e.g. "1280x720".
+     * @param source SOURCE_SYNTHETIC or SOURCE_RECORDED.
+     */
+    public static Mat create(String resolution, String source) {
+        loadLibrary();
+
+        String[] parts = resolution.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+
+        if (SOURCE_RECORDED.equals(source)) {
+            return loadRecorded(width, height);
+        } else if (SOURCE_SYNTHETIC.equals(source)) {
+            return createSynthetic(width, height);
+        }
+        throw new IllegalArgumentException("Unknown frame source: " + source);
+    }
+
+    /**
+     * Draws Euglena-sized green ellipses at random positions and angles on a light background.
+     */
+    public static Mat createSynthetic(int width, int height) {
+        Random random = new Random(SEED);
+        Mat frame = new Mat(height, width, CvType.CV_8UC4, BACKGROUND_COLOR);
+
+        int count = (int) ((long) width * height * EUGLENA_PER_MEGAPIXEL / 1000000);
+        for (int i = 0; i < count; i++) {
+            Point center = new Point(random.nextInt(width), random.nextInt(height));
+            Size axes = new Size(25 + random.nextInt(20), 5 + random.nextInt(4));
+            Core.ellipse(frame, center, axes, random.nextInt(180), 0, 360, EUGLENA_COLOR, -1);
+        }
+        return frame;
+    }
+
+    /**
+     * Converts an RGBA frame to the NV21 layout the camera delivers: its Y rows followed by rows
+     * of interleaved V and U samples.
+     */
+    public static Mat toNv21(Mat rgba) {
+        int width = rgba.cols();
+        int height = rgba.rows();
+        Mat i420 = new Mat();
+        Imgproc.cvtColor(rgba, i420, Imgproc.COLOR_RGBA2YUV_I420);
+
+        // I420 stores the U plane and then the V plane, NV21 interleaves them starting with V.
+        byte[] planar = new byte[width * height * 3 / 2];
+        i420.get(0, 0, planar);
+        i420.release();
+        byte[] interleaved = planar.clone();
+        int lumaSize = width * height;
+        int chromaSize = lumaSize / 4;
+        for (int i = 0; i < chromaSize; i++) {
+            interleaved[lumaSize + 2 * i] = planar[lumaSize + chromaSize + i];
+            interleaved[lumaSize + 2 * i + 1] = planar[lumaSize + i];
+        }
+
+        Mat nv21 = new Mat(height * 3 / 2, width, CvType.CV_8UC1);
+        nv21.put(0, 0, interleaved);
+        return nv21;
+    }
+
+    /**
+     * Loads the recorded frame and scales it to the given size.
+     */
+    public static Mat loadRecorded(int width, int height) {
+        String path = System.getProperty(RECORDED_FRAME_PROPERTY);
+        if (path == null) {
+            throw new IllegalStateException("Set " + RECORDED_FRAME_PROPERTY +
+                    " to the path of a recorded frame");
+        }
+
+        Mat image = Highgui.imread(path);
+        if (image.empty()) {
+            throw new IllegalStateException("Cannot read the recorded frame " + path);
+        }
+
+        Mat frame = new Mat();
+        Imgproc.cvtColor(image, frame, Imgproc.COLOR_BGR2RGBA);
+        Imgproc.resize(frame, frame, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+        image.release();
+        return frame;
+    }
+}
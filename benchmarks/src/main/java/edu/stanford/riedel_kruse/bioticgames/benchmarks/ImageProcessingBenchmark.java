@@ -0,0 +1,135 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.riedel_kruse.bioticgames.EuglenaDetector;
+import edu.stanford.riedel_kruse.bioticgamessdk.ImageProcessing;
+
+/**
+ * Measures Euglena detection on whole frames and on the region around the ball, the way
+ * GameActivity calls it, and whole frame detection on the raw NV21 frame. ImageProcessing
+ * overwrites the pixels it is given, so every invocation starts from a fresh copy of them; the copy
+ * is not part of the measured time, and neither is the conversion from NV21 to RGBA that the
+ * camera view runs before ImageProcessing gets the frame. Only the tracked
+ * region is copied for findEuglenaInRoi, so that restoring it does not cost far more than the
+ * detection being measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageProcessingBenchmark {
+    /**
+     * Half the side of the tracked region: SoccerGame's default ball radius.
+     */
+    private static final int ROI_HALF_SIZE = 50;
+
+    @State(Scope.Thread)
+    public static class FrameState {
+        @Param({"640x480", "1280x720", "1920x1080"})
+        public String resolution;
+
+        @Param({Frames.SOURCE_SYNTHETIC, Frames.SOURCE_RECORDED})
+        public String source;
+
+        Mat mSource;
+        Mat mFrame;
+        int mRoiX;
+        int mRoiY;
+
+        @Setup(Level.Trial)
+        public void setUpFrame() {
+            mSource = Frames.create(resolution, source);
+            mFrame = mSource.clone();
+            mRoiX = mSource.cols() / 2 - ROI_HALF_SIZE;
+            mRoiY = mSource.rows() / 2 - ROI_HALF_SIZE;
+        }
+
+        @TearDown(Level.Trial)
+        public void release() {
+            mFrame.release();
+            mSource.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WholeFrameState extends FrameState {
+        @Setup(Level.Invocation)
+        public void restoreFrame() {
+            mSource.copyTo(mFrame);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RoiState extends FrameState {
+        private Mat mSourceRoi;
+        private Mat mFrameRoi;
+
+        @Setup(Level.Trial)
+        public void setUpRoi() {
+            mSourceRoi = mSource.submat(mRoiY, mRoiY + 2 * ROI_HALF_SIZE, mRoiX,
+                    mRoiX + 2 * ROI_HALF_SIZE);
+            mFrameRoi = mFrame.submat(mRoiY, mRoiY + 2 * ROI_HALF_SIZE, mRoiX,
+                    mRoiX + 2 * ROI_HALF_SIZE);
+        }
+
+        @Setup(Level.Invocation)
+        public void restoreRoi() {
+            mSourceRoi.copyTo(mFrameRoi);
+        }
+
+        @TearDown(Level.Trial)
+        public void releaseRoi() {
+            mFrameRoi.release();
+            mSourceRoi.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Nv21State extends FrameState {
+        private Mat mNv21;
+        private EuglenaDetector mDetector;
+
+        @Setup(Level.Trial)
+        public void setUpNv21() {
+            mNv21 = Frames.toNv21(mSource);
+            mDetector = new EuglenaDetector();
+            // Builds the threshold table, which happens once per process.
+            mDetector.findEuglena(mNv21, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void releaseNv21() {
+            mDetector.release();
+            mNv21.release();
+        }
+    }
+
+    @Benchmark
+    public List<Point> findEuglena(WholeFrameState state) {
+        return ImageProcessing.findEuglena(state.mFrame);
+    }
+
+    @Benchmark
+    public List<Point> findEuglenaInRoi(RoiState state) {
+        return ImageProcessing.findEuglenaInRoi(state.mFrame, state.mRoiX, state.mRoiY,
+                2 * ROI_HALF_SIZE, 2 * ROI_HALF_SIZE);
+    }
+
+    @Benchmark
+    public List<Point> findEuglenaNv21(Nv21State state) {
+        return state.mDetector.findEuglena(state.mNv21, true);
+    }
+}
@@ -0,0 +1,72 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.opencv.core.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.riedel_kruse.bioticgamessdk.MathUtil;
+
+/**
+ * Measures the MathUtil calls the game makes every frame. The number of points stands for the
+ * number of detected Euglena for findClosestPoint and the length of the ball history for the
+ * averages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MathUtilBenchmark {
+    private static final long SEED = 42;
+
+    @Param({"20", "100", "1000"})
+    public int points;
+
+    private List<Point> mScattered;
+    private List<Point> mTrajectory;
+    private Point mTarget;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(SEED);
+        mScattered = new ArrayList<Point>();
+        for (int i = 0; i < points; i++) {
+            mScattered.add(new Point(random.nextDouble() * 1280, random.nextDouble() * 720));
+        }
+        mTarget = new Point(640, 360);
+
+        // A random walk, roughly what a Euglena carrying the ball looks like.
+        mTrajectory = new ArrayList<Point>();
+        double x = 640;
+        double y = 360;
+        for (int i = 0; i < points; i++) {
+            x += random.nextGaussian() * 3;
+            y += random.nextGaussian() * 3;
+            mTrajectory.add(new Point(x, y));
+        }
+    }
+
+    @Benchmark
+    public Point findClosestPoint() {
+        return MathUtil.findClosestPoint(mTarget, mScattered);
+    }
+
+    @Benchmark
+    public Point computeAverageDirection() {
+        return MathUtil.computeAverageDirection(mTrajectory);
+    }
+
+    @Benchmark
+    public double computeAverageSpeed() {
+        return MathUtil.computeAverageSpeed(mTrajectory);
+    }
+}
@@ -0,0 +1,168 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import edu.stanford.riedel_kruse.bioticgames.FramePlayer;
+import edu.stanford.riedel_kruse.bioticgames.FrameSource;
+import edu.stanford.riedel_kruse.bioticgames.ImageSequenceFrameSource;
+import edu.stanford.riedel_kruse.bioticgames.SessionFrameSource;
+import edu.stanford.riedel_kruse.bioticgames.SoccerGame;
+import edu.stanford.riedel_kruse.bioticgames.SoccerGameDelegate;
+import edu.stanford.riedel_kruse.bioticgames.SoccerGameLoop;
+
+/**
+ * Plays a recorded microscope video, a directory of its frames or a session recorded by the game,
+ * through the soccer game without a phone:
+ *
+ *   ./gradlew :benchmarks:replay -PreplayArgs="[options] <video, image or session directory>"
+ *
+ * Options:
+ *   --real-time     Play no faster than the recording was captured, instead of at full speed.
+ *   --fps <rate>    Frame rate of an image directory, 30 by default.
+ *   --frames <n>    Stop after n frames.
+ *   --no-flip       Do not rotate the frames by 180 degrees like the phone does.
+ *   --output <dir>  Write the drawn frames to dir as PNG images.
+ *
+ * Prints the game events as they happen and the time spent per frame at the end. Recorded
+ * sessions are tracked on their raw NV21 frames, like on the phone.
+ */
+public class Replay implements SoccerGameDelegate {
+    private static final double DEFAULT_IMAGE_FPS = 30;
+
+    private SoccerGameLoop mGameLoop;
+    private int mFrame;
+
+    public static void main(String[] args) {
+        boolean realTime = false;
+        boolean flip = true;
+        double fps = DEFAULT_IMAGE_FPS;
+        int maxFrames = -1;
+        File output = null;
+        String input = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--real-time")) {
+                realTime = true;
+            } else if (arg.equals("--no-flip")) {
+                flip = false;
+            } else if (arg.equals("--fps") && i + 1 < args.length) {
+                fps = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--frames") && i + 1 < args.length) {
+                maxFrames = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--output") && i + 1 < args.length) {
+                output = new File(args[++i]);
+            } else if (input == null && !arg.startsWith("--")) {
+                input = arg;
+            } else {
+                usage();
+                return;
+            }
+        }
+        if (input == null) {
+            usage();
+            return;
+        }
+
+        Frames.loadLibrary();
+        FrameSource source;
+        Mat yuvFrame = null;
+        File inputFile = new File(input);
+        if (SessionFrameSource.isSession(inputFile)) {
+            SessionFrameSource sessionSource;
+            try {
+                sessionSource = new SessionFrameSource(inputFile);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+                return;
+            }
+            yuvFrame = sessionSource.getYuvFrame();
+            source = sessionSource;
+        } else if (inputFile.isDirectory()) {
+            source = new ImageSequenceFrameSource(inputFile, fps);
+        } else {
+            source = new VideoFileFrameSource(input);
+        }
+
+        new Replay().run(source, yuvFrame, realTime ? FramePlayer.Pace.REAL_TIME :
+                FramePlayer.Pace.FULL_SPEED, flip, maxFrames, output);
+        source.release();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Replay [--real-time] [--fps <rate>] [--frames <n>] " +
+                "[--no-flip] [--output <dir>] <video, image or session directory>");
+        System.exit(1);
+    }
+
+    /**
+     * @param yuvFrame The Mat the source reads the raw frames into, or null if it has none.
+     */
+    private void run(FrameSource source, Mat yuvFrame, FramePlayer.Pace pace, boolean flip,
+                     int maxFrames, File output) {
+        mGameLoop = new SoccerGameLoop(this);
+        mGameLoop.setFlipFrames(flip);
+        mGameLoop.setYuvFrame(yuvFrame);
+        FramePlayer player = new FramePlayer(source, mGameLoop, pace);
+
+        if (output != null) {
+            output.mkdirs();
+        }
+        Mat bgr = new Mat();
+        while ((maxFrames < 0 || mFrame < maxFrames) && player.playFrame()) {
+            if (output != null) {
+                Imgproc.cvtColor(player.getDrawnFrame(), bgr, Imgproc.COLOR_RGBA2BGR);
+                Highgui.imwrite(new File(output, String.format(Locale.US, "frame_%05d.png",
+                        mFrame)).getPath(), bgr);
+            }
+            mFrame++;
+        }
+        bgr.release();
+
+        int frames = player.getFrameCount();
+        SoccerGame game = mGameLoop.getSoccerGame();
+        System.out.println(String.format(Locale.US, "%d frames of %dx%d, %.3f ms per frame",
+                frames, source.getWidth(), source.getHeight(),
+                frames == 0 ? 0 : player.getProcessingTime() / 1e6 / frames));
+        if (game != null) {
+            System.out.println("Red " + game.getRedPlayerPoints() + ", blue " +
+                    game.getBluePlayerPoints());
+        }
+
+        player.release();
+        mGameLoop.release();
+    }
+
+    private void log(String event) {
+        System.out.println("frame " + mFrame + ": " + event);
+    }
+
+    public void onChangedTurn(SoccerGame.Turn currentTurn) {
+        mGameLoop.startSwap();
+        log("turn changed to " + currentTurn);
+    }
+
+    public void onGoalScored(SoccerGame.Turn currentTurn) {
+        log(currentTurn + " scored");
+    }
+
+    public void onOutOfBounds() {
+        log("out of bounds");
+    }
+
+    public void onPickupButtonPressed(SoccerGame.Turn currentTurn) {
+        log(currentTurn + " picked up the ball");
+    }
+
+    public void onGameOver() {
+        // The game stops here; the rest of the recording is played without changing it.
+        log("game over, " + mGameLoop.getSoccerGame().getWinningPlayer());
+    }
+}
@@ -0,0 +1,72 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.riedel_kruse.bioticgames.SoccerGame;
+import edu.stanford.riedel_kruse.bioticgames.SoccerGameSimulation;
+
+/**
+ * Measures the per-frame cost of SoccerGame's rules on a simulated game. tick is a whole frame of
+ * the simulation, moving the ball included; checkCollisions and updateTime are the two calls the
+ * game loop makes after moving the ball, on a game that the simulation keeps playing in between.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SoccerGameBenchmark {
+    private static final long SEED = 42;
+    /**
+     * Ticks played before measuring, so the game is in the middle of a turn with a ball history.
+     */
+    private static final int WARM_UP_TICKS = 1000;
+
+    private SoccerGameSimulation mSimulation;
+    private SoccerGame mGame;
+
+    @Setup
+    public void setUp() {
+        mSimulation = new SoccerGameSimulation(SEED);
+        mSimulation.run(WARM_UP_TICKS);
+        mGame = mSimulation.getGame();
+    }
+
+    @Benchmark
+    public SoccerGame tick() {
+        mSimulation.tick();
+        return mGame;
+    }
+
+    @Benchmark
+    public SoccerGame checkCollisions() {
+        mGame.checkCollisions();
+        return mGame;
+    }
+
+    @Benchmark
+    public SoccerGame updateTime() {
+        mGame.updateTime(SoccerGameSimulation.DEFAULT_TIME_STEP);
+        // Turns and games keep changing at the rate they would during play.
+        if (mGame.isGameOver()) {
+            mGame.reset();
+        }
+        return mGame;
+    }
+
+    @Benchmark
+    public SoccerGame checkCollisionsAndUpdateTime() {
+        mGame.checkCollisions();
+        mGame.updateTime(SoccerGameSimulation.DEFAULT_TIME_STEP);
+        if (mGame.isGameOver()) {
+            mGame.reset();
+        }
+        return mGame;
+    }
+}
@@ -0,0 +1,79 @@
+package edu.stanford.riedel_kruse.bioticgames.benchmarks;
+
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+import org.opencv.highgui.VideoCapture;
+import org.opencv.imgproc.Imgproc;
+
+import edu.stanford.riedel_kruse.bioticgames.FrameSource;
+
+/**
+ * Plays a video file through OpenCV's VideoCapture. OpenCV4Android's VideoCapture cannot open
+ * files, so this source only exists on the desktop.
+ *
+ * Timestamps are computed from the frame index and the frame rate stored in the file, so they do
+ * not depend on how the codec reports positions.
+ */
+public class VideoFileFrameSource implements FrameSource {
+    /**
+     * Used when the file does not say what frame rate it was recorded at.
+     */
+    public static final double DEFAULT_FPS = 30;
+
+    private final VideoCapture mCapture;
+    private final Mat mImage = new Mat();
+    private final double mFps;
+    private final int mWidth;
+    private final int mHeight;
+    private long mIndex = -1;
+
+    public VideoFileFrameSource(String path) {
+        Frames.loadLibrary();
+
+        mCapture = new VideoCapture(path);
+        if (!mCapture.isOpened()) {
+            throw new IllegalArgumentException("Cannot open the video " + path);
+        }
+
+        double fps = mCapture.get(Highgui.CV_CAP_PROP_FPS);
+        mFps = fps > 0 ? fps : DEFAULT_FPS;
+        mWidth = (int) mCapture.get(Highgui.CV_CAP_PROP_FRAME_WIDTH);
+        mHeight = (int) mCapture.get(Highgui.CV_CAP_PROP_FRAME_HEIGHT);
+    }
+
+    public double getFps() {
+        return mFps;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public boolean next(Mat rgba) {
+        if (!mCapture.read(mImage) || mImage.empty()) {
+            return false;
+        }
+
+        mIndex++;
+        Imgproc.cvtColor(mImage, rgba, Imgproc.COLOR_BGR2RGBA);
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return (long) (Math.max(mIndex, 0) * 1000000000 / mFps);
+    }
+
+    @Override
+    public void release() {
+        mCapture.release();
+        mImage.release();
+    }
+}